@@ -1,6 +1,5 @@
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
 
 import controller.LoginController;
 import javafx.application.Application;
@@ -9,8 +8,9 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import model.Album;
-import model.DataManager;
-import model.Photo;
+import model.PhotoImporter;
+import model.PhotoStore;
+import model.PhotoStores;
 import model.User;
 
 /**
@@ -21,9 +21,7 @@ import model.User;
  * @author Maxime Deperrois
  */
 public class Photos extends Application {
-    private static final String STOCK_USER = "stock";
     private static final String STOCK_ALBUM = "stock";
-    private static final String STOCK_PHOTOS_DIR = "data/stockPhotos";
 
     /**
      * Starts the JavaFX application and launches the primary stage
@@ -33,10 +31,8 @@ public class Photos extends Application {
      */
     @Override
     public void start(Stage primaryStage) throws Exception {
-        // Check if the stock user file exists, if not, initialize it
-        String stockUserFilePath = Paths.get("data", "stockUser.dat").toString();
-        File stockUserFile = new File(stockUserFilePath);
-        if (!stockUserFile.exists()) {
+        // Check if the stock user exists, if not, initialize it
+        if (!PhotoStores.stock().contains(PhotoStores.STOCK_USERNAME)) {
             loadStockUser();
         }
 
@@ -61,6 +57,14 @@ public class Photos extends Application {
         primaryStage.show();
     }
 
+    /**
+     * Writes any changes not yet saved in the background before the application exits.
+     */
+    @Override
+    public void stop() {
+        PhotoStores.closeAll();
+    }
+
     /**
      * Saves all user data, including the stock user and any logged-in users.
      * @param currentUser the currently logged-in user
@@ -68,10 +72,8 @@ public class Photos extends Application {
     private void saveAllData(User currentUser) {
         try {
             if (currentUser != null) {
-                if(!currentUser.getUsername().equals("stock")) {
-                    
-                        String filePath = System.getProperty("user.home") + File.separator + "PhotoAlbumUsers" + File.separator + currentUser.getUsername() + ".dat";
-                        DataManager.saveUser(currentUser, filePath);              
+                if(!currentUser.getUsername().equals(PhotoStores.STOCK_USERNAME)) {
+                    PhotoStores.users().saveUser(currentUser);
                 } else {
                     saveStockUserData(currentUser);
                 }
@@ -91,10 +93,9 @@ public class Photos extends Application {
      * @throws IOException if an error occurs during saving
      */
     private void saveStockUserData(User stockUser) throws IOException {
-        String stockUserFilePath = Paths.get("data", "stockUser.dat").toString();
-        File stockUserFile = new File(stockUserFilePath);
-        if (stockUserFile.exists()) {
-            DataManager.saveUser(stockUser, stockUserFilePath);            
+        PhotoStore stock = PhotoStores.stock();
+        if (stock.contains(PhotoStores.STOCK_USERNAME)) {
+            stock.saveUser(stockUser);
         }
     }
 
@@ -104,17 +105,16 @@ public class Photos extends Application {
      */
     private void loadStockUser() {
         try {
-            // Check if the stock user file exists
-            String stockUserFilePath = Paths.get("data", "stockUser.dat").toString();
-            File stockUserFile = new File(stockUserFilePath);
+            // Check if the stock user exists
+            PhotoStore stock = PhotoStores.stock();
             
             // Create Stock User and Album
             User stockUser;
             Album stockAlbum;
 
-            if (stockUserFile.exists()) {
-                // Load the stock user from the file
-                stockUser = DataManager.loadUser(stockUserFilePath);
+            if (stock.contains(PhotoStores.STOCK_USERNAME)) {
+                // Load the stock user from the store
+                stockUser = stock.loadUser(PhotoStores.STOCK_USERNAME);
     
                 // Check if the stock album exists
                 stockAlbum = stockUser.getAlbums().stream()
@@ -129,36 +129,27 @@ public class Photos extends Application {
                 }
             } else {
                 // Create the stock user and album
-                stockUser = new User(STOCK_USER);
+                stockUser = new User(PhotoStores.STOCK_USERNAME);
                 stockAlbum = new Album(STOCK_ALBUM);
                 stockUser.addAlbum(stockAlbum);
             }
     
             // Populate the stock album with stock images
-            File stockPhotosDir = new File(STOCK_PHOTOS_DIR);
+            File stockPhotosDir = new File(PhotoStores.STOCK_PHOTOS_DIR);
             if (stockPhotosDir.exists() && stockPhotosDir.isDirectory()) {
-                for (File file : stockPhotosDir.listFiles()) {
-                    if (file.isFile()) {
-                        String fileName = file.getName().toLowerCase();
-                        if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") || 
-                            fileName.endsWith(".png") || fileName.endsWith(".bmp") || 
-                            fileName.endsWith(".gif")) {
-                            Photo photo = new Photo(file.getAbsolutePath());
-                            if (!stockAlbum.getPhotos().contains(photo)) {
-                                stockAlbum.addPhoto(photo);
-                            }
-                        }
-                    }
-                }
+                stockAlbum.addPhotos(PhotoImporter.scan(stockPhotosDir.toPath(), null));
             } else {
-                System.err.println("Stock photos directory does not exist: " + STOCK_PHOTOS_DIR);
+                System.err.println("Stock photos directory does not exist: " + PhotoStores.STOCK_PHOTOS_DIR);
             }
     
-            // Save the stock user back to the file
-            DataManager.saveUser(stockUser, stockUserFilePath);
-        } catch (IOException | ClassNotFoundException e) {
+            // Save the stock user back to the store
+            stock.saveUser(stockUser);
+        } catch (IOException e) {
             e.printStackTrace();
             System.err.println("Failed to load or initialize the stock user.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while initializing the stock user.");
         }
     }
 
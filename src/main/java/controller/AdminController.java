@@ -10,13 +10,11 @@ import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.ListView;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
-import model.DataManager;
+import model.PhotoStore;
+import model.PhotoStores;
 import model.User;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -29,24 +27,17 @@ import java.util.Optional;
 public class AdminController {
 
     private Stage stage;
-    private static final String USER_DATA_DIR = System.getProperty("user.home") + File.separator + "PhotoAlbumUsers";
-    private static Map<String, User> users = new HashMap<>();
+    private static PhotoStore users = PhotoStores.users();
 
     @FXML
     private ListView<String> userListView;
 
     /**
-     * Initializes the controller and loads all existing users.
+     * Initializes the controller and lists all existing users.
      */
     @FXML
     public void initialize() {
-        try {
-            users = DataManager.loadAllUsers(USER_DATA_DIR);
-            loadUsersIntoListView();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-            showAlert("Error", "Failed to load user data.");
-        }
+        loadUsersIntoListView();
     }
 
     /**
@@ -68,12 +59,11 @@ public class AdminController {
             showAlert("Error", "Please enter a username.");
             return;
         }
-        if (users.containsKey(username)) {
+        if (users.contains(username)) {
             showAlert("Error", "Username already exists.");
             return;
         }
         User user = new User(username);
-        users.put(username, user);
         saveUserData(user);
         loadUsersIntoListView();
         showAlert("Success", "User created successfully.");
@@ -84,13 +74,13 @@ public class AdminController {
      */
     @FXML
     private void handleDeleteUser() {
-        if (users.isEmpty()) {
+        if (users.getUsernames().isEmpty()) {
             showAlert("Error", "No users available to delete.");
             return;
         }
 
         // Create a ChoiceDialog with the list of all users
-        ChoiceDialog<String> dialog = new ChoiceDialog<>(null, users.keySet());
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(null, users.getUsernames());
         dialog.setTitle("Delete User");
         dialog.setHeaderText("Select a user to delete:");
         dialog.setContentText("User:");
@@ -101,7 +91,7 @@ public class AdminController {
         }
 
         String selectedUser = result.get();
-        if (!users.containsKey(selectedUser)) {
+        if (!users.contains(selectedUser)) {
             showAlert("Error", "The selected user does not exist.");
             return;
         }
@@ -114,7 +104,6 @@ public class AdminController {
         Optional<ButtonType> confirmationResult = confirmationAlert.showAndWait();
 
         if (confirmationResult.isPresent() && confirmationResult.get() == ButtonType.OK) {
-            users.remove(selectedUser);
             deleteUserData(selectedUser);
             loadUsersIntoListView(); // Refresh the ListView
             showAlert("Success", "User \"" + selectedUser + "\" deleted successfully.");
@@ -126,7 +115,7 @@ public class AdminController {
      */
     private void loadUsersIntoListView() {
         userListView.getItems().clear();
-        userListView.getItems().addAll(users.keySet());
+        userListView.getItems().addAll(users.getUsernames());
     }
 
     /**
@@ -207,12 +196,7 @@ public class AdminController {
      */
     private void saveUserData(User user) {
         try {
-            File userDir = new File(USER_DATA_DIR);
-            if (!userDir.exists()) {
-                userDir.mkdirs();
-            }
-            String filePath = USER_DATA_DIR + File.separator + user.getUsername() + ".dat";
-            DataManager.saveUser(user, filePath);
+            users.saveUser(user);
         } catch (IOException e) {
             e.printStackTrace();
             showAlert("Error", "Failed to save user data.");
@@ -225,18 +209,20 @@ public class AdminController {
      * @param username the username of the user to delete
      */
     private void deleteUserData(String username) {
-        File userFile = new File(USER_DATA_DIR + File.separator + username + ".dat");
-        if (userFile.exists()) {
-            userFile.delete();
+        try {
+            users.deleteUser(username);
+        } catch (IOException e) {
+            e.printStackTrace();
+            showAlert("Error", "Failed to delete user data.");
         }
     }
 
     /**
-     * Returns the map of users.
+     * Returns the store of users.
      *
-     * @return the map of users
+     * @return the store of users
      */
-    public static Map<String, User> getUsers() {
+    public static PhotoStore getUsers() {
         return users;
     }
 }
\ No newline at end of file
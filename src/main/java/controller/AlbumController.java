@@ -1,22 +1,27 @@
 package controller;
 
 import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ChoiceDialog;
-import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
-import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
-import javafx.scene.image.Image;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
 import model.Album;
+import model.DuplicateFinder;
+import model.PerceptualHash;
+import model.PerceptualHasher;
 import model.Photo;
+import model.PhotoImporter;
+import model.PhotoQuery;
+import model.PhotoWatcher;
 import model.User;
 import model.Tag;
 import model.TagManager;
@@ -26,7 +31,9 @@ import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -69,32 +76,51 @@ public class AlbumController {
     }
 
     /**
-     * Loads the album's photos into the ListView.
+     * Watches the files of the album's photos, refreshing the list when one changes or disappears.
+     * The listener removes itself once the stage shows another view.
      */
-    private void loadAlbumPhotos() {
-        photoListView.setItems(FXCollections.observableArrayList(album.getPhotos()));
-        photoListView.setCellFactory(param -> new ListCell<Photo>() {
-            private final ImageView imageView = new ImageView();
-
+    private void watchPhotos() {
+        PhotoWatcher watcher = PhotoWatcher.of(user);
+        if (watcher == null) {
+            return;
+        }
+        watcher.watch(album.getPhotos());
+        watcher.addListener(new PhotoWatcher.Listener() {
             @Override
-            protected void updateItem(Photo photo, boolean empty) {
-                super.updateItem(photo, empty);
-                if (empty || photo == null) {
-                    setText(null);
-                    setGraphic(null);
-                } else {
-                    File file = new File(photo.getFilePath());
-                    Image image = new Image(file.toURI().toString());
-                    imageView.setImage(image);
-                    imageView.setFitWidth(100);
-                    imageView.setFitHeight(100);
-                    setText(photo.getCaption() != null ? photo.getCaption() : file.getName());
-                    setGraphic(imageView);
+            public void photosChanged(List<Photo> changed) {
+                if (stage == null || photoListView.getScene() != stage.getScene()) {
+                    watcher.removeListener(this);
+                    return;
                 }
+                photoListView.refresh();
             }
         });
     }
 
+    /**
+     * Watches the files of photos added to the album.
+     *
+     * @param added the photos added
+     */
+    private void watchPhotos(List<Photo> added) {
+        PhotoWatcher watcher = PhotoWatcher.of(user);
+        if (watcher != null) {
+            watcher.watch(added);
+        }
+    }
+
+    /**
+     * Loads the album's photos into the ListView.
+     */
+    private void loadAlbumPhotos() {
+        photoListView.setItems(FXCollections.observableArrayList(album.getPhotos()));
+        PerceptualHasher.hashInBackground(album.getPhotos());
+        watchPhotos();
+        // Every cell has the same height, so scrolling a large album never measures cells
+        photoListView.setFixedCellSize(PhotoListCell.cellHeight());
+        photoListView.setCellFactory(param -> new PhotoListCell());
+    }
+
     /**
      * Handles the "Add Photo" button action.
      */
@@ -116,7 +142,11 @@ public class AlbumController {
         String photoPath = selectedFile.getAbsolutePath();
 
         try {
-            Photo photo = new Photo(photoPath);
+            // A photo already in another album keeps its caption and tags
+            Photo photo = user.getCatalog().find(photoPath);
+            if (photo == null) {
+                photo = new Photo(photoPath);
+            }
             if (album.getPhotos().contains(photo)) {
                 showAlert("Error", "Photo already exists in the album.");
                 return;
@@ -124,12 +154,104 @@ public class AlbumController {
 
             album.addPhoto(photo);
             photoListView.getItems().add(photo);
+            PerceptualHasher.hashInBackground(List.of(photo));
+            watchPhotos(List.of(photo));
         } catch (IOException e) {
             e.printStackTrace();
             showAlert("Error", "Failed to add photo.");
         }
     }
 
+    /**
+     * Handles the "Import Folder" button action.
+     * Adds every photo found in a directory tree in the background, showing the progress
+     * in a dialog that can cancel the import.
+     */
+    @FXML
+    private void handleImportFolder() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Import Folder");
+        File directory = directoryChooser.showDialog(stage);
+        if (directory == null) {
+            return;
+        }
+
+        Task<List<Photo>> task = new Task<>() {
+            @Override
+            protected List<Photo> call() throws Exception {
+                updateMessage("Looking for photos...");
+                return PhotoImporter.scan(directory.toPath(), (done, total) -> {
+                    updateProgress(done, total);
+                    updateMessage("Read " + done + " of " + total + " photos");
+                });
+            }
+        };
+
+        // Closing the dialog before the import is done cancels it
+        TaskDialog.run("Import Folder", "Importing " + directory.getName(), task, photos -> {
+            int added = album.addPhotos(photos);
+            photoListView.getItems().setAll(album.getPhotos());
+            PerceptualHasher.hashInBackground(album.getPhotos());
+            watchPhotos(album.getPhotos());
+            showAlert("Import Folder", "Imported " + added + " photos.");
+        }, () -> showAlert("Error", "Failed to import the folder."));
+    }
+
+    /**
+     * Handles the "Find Similar" button action.
+     * Lists the photos of the library that look like copies of the selected photo,
+     * hashing any photos not hashed yet first.
+     */
+    @FXML
+    private void handleFindSimilar() {
+        Photo selectedPhoto = photoListView.getSelectionModel().getSelectedItem();
+        if (selectedPhoto == null) {
+            showAlert("Error", "Please select a photo to find similar photos.");
+            return;
+        }
+
+        Map<Photo, List<String>> library = libraryPhotos();
+        Task<List<Photo>> task = new Task<>() {
+            @Override
+            protected List<Photo> call() throws Exception {
+                updateMessage("Comparing photos...");
+                PerceptualHasher.hashAll(library.keySet(), (done, total) -> {
+                    updateProgress(done, total);
+                    updateMessage("Hashed " + done + " of " + total + " photos");
+                });
+                return new DuplicateFinder(library.keySet()).similarTo(selectedPhoto, PerceptualHash.DUPLICATE_DISTANCE);
+            }
+        };
+
+        TaskDialog.run("Find Similar", "Looking for copies of the selected photo", task, similar -> {
+            if (similar.isEmpty()) {
+                showAlert("Find Similar", "No similar photos found.");
+                return;
+            }
+            StringBuilder report = new StringBuilder();
+            for (Photo photo : similar) {
+                report.append(photo.getFilePath()).append("  (")
+                        .append(String.join(", ", library.get(photo))).append(")\n");
+            }
+            TaskDialog.showText("Find Similar", similar.size() + " similar photos", report.toString());
+        }, () -> showAlert("Error", "Failed to compare photos."));
+    }
+
+    /**
+     * Returns every photo of the user's library, with the names of the albums holding it.
+     *
+     * @return the album names of each photo, in album order
+     */
+    private Map<Photo, List<String>> libraryPhotos() {
+        Map<Photo, List<String>> photos = new LinkedHashMap<>();
+        for (Album userAlbum : user.getAlbums()) {
+            for (Photo photo : userAlbum.getPhotos()) {
+                photos.computeIfAbsent(photo, key -> new ArrayList<>()).add(userAlbum.getName());
+            }
+        }
+        return photos;
+    }
+
     /**
      * Handles the "Remove Photo" button action.
      */
@@ -188,7 +310,7 @@ public class AlbumController {
             showAlert("Error", "Please select a photo to view the date.");
             return;
         }
-        showAlert("Photo Date", "Date: " + selectedPhoto.getLastModifiedDate());
+        showAlert("Photo Date", "Date: " + selectedPhoto.getDate());
     }
     
     /**
@@ -259,6 +381,7 @@ public class AlbumController {
             newTagTypeDialog.setTitle("New Tag Type");
             newTagTypeDialog.setHeaderText("Enter a new tag type:");
             newTagTypeDialog.setContentText("Tag Type:");
+            completeTagNames(newTagTypeDialog);
     
             Optional<String> newTagTypeResult = newTagTypeDialog.showAndWait();
             if (newTagTypeResult.isEmpty() || newTagTypeResult.get().trim().isEmpty()) {
@@ -292,6 +415,7 @@ public class AlbumController {
         tagValueDialog.setTitle("Add Tag");
         tagValueDialog.setHeaderText("Enter a value for the tag:");
         tagValueDialog.setContentText("Tag Value:");
+        completeTagValues(tagValueDialog, tagType);
     
         Optional<String> tagValueResult = tagValueDialog.showAndWait();
         if (tagValueResult.isEmpty() || tagValueResult.get().trim().isEmpty()) {
@@ -312,6 +436,27 @@ public class AlbumController {
         showAlert("Success", "Tag added successfully.");
     }
 
+    /**
+     * Offers the tag names in use as completions while a new tag type is typed.
+     *
+     * @param dialog the dialog asking for the tag type
+     */
+    private void completeTagNames(TextInputDialog dialog) {
+        CompletionPopup.attach(dialog.getEditor(),
+            text -> user.getTagCompleter().completeName(text.stripLeading(), CompletionPopup.LIMIT));
+    }
+
+    /**
+     * Offers the values of a tag type in use as completions while a tag value is typed.
+     *
+     * @param dialog the dialog asking for the tag value
+     * @param tagType the tag type of the value
+     */
+    private void completeTagValues(TextInputDialog dialog, String tagType) {
+        CompletionPopup.attach(dialog.getEditor(),
+            text -> user.getTagCompleter().completeValue(tagType, text.stripLeading(), CompletionPopup.LIMIT));
+    }
+
     /**
      * Deletes a tag from the selected photo.
      */
@@ -478,7 +623,7 @@ public class AlbumController {
     @FXML
     private void handleSearchPhotos() {
         // Prompt user to choose a search type
-        List<String> searchOptions = Arrays.asList("Date Range", "Single Tag", "Conjunctive Tags (AND)", "Disjunctive Tags (OR)");
+        List<String> searchOptions = Arrays.asList("Date Range", "Single Tag", "Conjunctive Tags (AND)", "Disjunctive Tags (OR)", "Caption Text", "Query");
         ChoiceDialog<String> searchDialog = new ChoiceDialog<>("Date Range", searchOptions);
         searchDialog.setTitle("Search Photos");
         searchDialog.setHeaderText("Select Search Type");
@@ -504,6 +649,12 @@ public class AlbumController {
             case "Disjunctive Tags (OR)":
                 searchByDisjunctiveTags();
                 break;
+            case "Caption Text":
+                searchByCaption();
+                break;
+            case "Query":
+                searchByQuery();
+                break;
             default:
                 showAlert("Error", "Invalid search type selected.");
         }
@@ -539,13 +690,8 @@ public class AlbumController {
             LocalDateTime startDate = LocalDateTime.parse(startDateResult.get().trim() + "T00:00:00");
             LocalDateTime endDate = LocalDateTime.parse(endDateResult.get().trim() + "T23:59:59");
 
-            // Filter photos by date range
-            List<Photo> matchingPhotos = new ArrayList<>();
-            for (Photo photo : album.getPhotos()) {
-                if (!photo.getLastModifiedDate().isBefore(startDate) && !photo.getLastModifiedDate().isAfter(endDate)) {
-                    matchingPhotos.add(photo);
-                }
-            }
+            // Look up the photos of the album dated within the range
+            List<Photo> matchingPhotos = user.getDateIndex().find(startDate, endDate, album);
 
             displaySearchResults(matchingPhotos, "No photos found in the specified date range.");
         } catch (Exception e) {
@@ -576,6 +722,7 @@ public class AlbumController {
         tagValueDialog.setTitle("Search by Single Tag");
         tagValueDialog.setHeaderText("Enter Tag Value:");
         tagValueDialog.setContentText("Tag Value:");
+        completeTagValues(tagValueDialog, tagType);
     
         Optional<String> tagValueResult = tagValueDialog.showAndWait();
         if (!tagValueResult.isPresent() || tagValueResult.get().trim().isEmpty()) {
@@ -585,16 +732,8 @@ public class AlbumController {
     
         String tagValue = tagValueResult.get().trim();
     
-        // Filter photos by single tag
-        List<Photo> matchingPhotos = new ArrayList<>();
-        for (Photo photo : album.getPhotos()) {
-            for (Tag tag : photo.getTags()) {
-                if (tag.getName().equals(tagType) && tag.getValue().equals(tagValue)) {
-                    matchingPhotos.add(photo);
-                    break;
-                }
-            }
-        }
+        // Look up the photos of the album carrying the tag
+        List<Photo> matchingPhotos = user.getTagIndex().findAll(List.of(new Tag(tagType, tagValue)), album);
     
         displaySearchResults(matchingPhotos, "No photos found with the specified tag.");
     }
@@ -611,22 +750,9 @@ public class AlbumController {
         String[] secondTag = promptForTag("Second Tag");
         if (secondTag == null) return;
 
-        // Filter photos by conjunctive tags
-        List<Photo> matchingPhotos = new ArrayList<>();
-        for (Photo photo : album.getPhotos()) {
-            boolean hasFirstTag = false, hasSecondTag = false;
-            for (Tag tag : photo.getTags()) {
-                if (tag.getName().equals(firstTag[0]) && tag.getValue().equals(firstTag[1])) {
-                    hasFirstTag = true;
-                }
-                if (tag.getName().equals(secondTag[0]) && tag.getValue().equals(secondTag[1])) {
-                    hasSecondTag = true;
-                }
-            }
-            if (hasFirstTag && hasSecondTag) {
-                matchingPhotos.add(photo);
-            }
-        }
+        // Intersect the photos of the album carrying each tag
+        List<Tag> tags = List.of(new Tag(firstTag[0], firstTag[1]), new Tag(secondTag[0], secondTag[1]));
+        List<Photo> matchingPhotos = user.getTagIndex().findAll(tags, album);
 
         displaySearchResults(matchingPhotos, "No photos found with the specified tags (AND).");
     }
@@ -643,26 +769,68 @@ public class AlbumController {
         String[] secondTag = promptForTag("Second Tag");
         if (secondTag == null) return;
 
-        // Filter photos by disjunctive tags
-        List<Photo> matchingPhotos = new ArrayList<>();
-        for (Photo photo : album.getPhotos()) {
-            boolean hasFirstTag = false, hasSecondTag = false;
-            for (Tag tag : photo.getTags()) {
-                if (tag.getName().equals(firstTag[0]) && tag.getValue().equals(firstTag[1])) {
-                    hasFirstTag = true;
-                }
-                if (tag.getName().equals(secondTag[0]) && tag.getValue().equals(secondTag[1])) {
-                    hasSecondTag = true;
-                }
-            }
-            if (hasFirstTag || hasSecondTag) {
-                matchingPhotos.add(photo);
-            }
-        }
+        // Merge the photos of the album carrying either tag
+        List<Tag> tags = List.of(new Tag(firstTag[0], firstTag[1]), new Tag(secondTag[0], secondTag[1]));
+        List<Photo> matchingPhotos = user.getTagIndex().findAny(tags, album);
 
         displaySearchResults(matchingPhotos, "No photos found with the specified tags (OR).");
     }
 
+    /**
+     * Handles the "Caption Text" option for HandleSearchPhotos.
+     */
+    private void searchByCaption() {
+        TextInputDialog captionDialog = new TextInputDialog();
+        captionDialog.setTitle("Search by Caption");
+        captionDialog.setHeaderText("Enter words to find in captions.\nPhotos matching whole words and the words together come first.");
+        captionDialog.setContentText("Words:");
+        Optional<String> captionResult = captionDialog.showAndWait();
+
+        if (!captionResult.isPresent() || captionResult.get().trim().isEmpty()) {
+            showAlert("Error", "Search words cannot be empty.");
+            return;
+        }
+
+        // Look up the photos of the album whose captions hold every word, best matches first
+        List<Photo> matchingPhotos = user.getCaptionIndex().search(captionResult.get(), album);
+
+        displaySearchResults(matchingPhotos, "No photos found with the specified caption text.");
+    }
+
+    /**
+     * Handles the "Query" option for HandleSearchPhotos. A query starting with EXPLAIN shows how it
+     * is answered instead of its results.
+     */
+    private void searchByQuery() {
+        TextInputDialog queryDialog = new TextInputDialog();
+        queryDialog.setTitle("Search by Query");
+        queryDialog.setHeaderText("Enter a query, for example:\n"
+            + "person=alice AND (location=nyc OR location=paris) AND date>=2023-01-01 AND NOT activity=work\n"
+            + "Captions are searched with caption~text. Start with EXPLAIN to see how the query is run.");
+        queryDialog.setContentText("Query:");
+        Optional<String> queryResult = queryDialog.showAndWait();
+
+        if (!queryResult.isPresent() || queryResult.get().trim().isEmpty()) {
+            return;
+        }
+
+        String text = queryResult.get().trim();
+        boolean explain = text.regionMatches(true, 0, "EXPLAIN ", 0, 8);
+        PhotoQuery query;
+        try {
+            query = PhotoQuery.parse(explain ? text.substring(8) : text);
+        } catch (IllegalArgumentException e) {
+            showAlert("Error", "Invalid query: " + e.getMessage());
+            return;
+        }
+
+        if (explain) {
+            TaskDialog.showText("Search by Query", "Query plan", query.explain(user, album));
+        } else {
+            displaySearchResults(query.find(user, album), "No photos match the query.");
+        }
+    }
+
     /**
      * Prompts the user to enter a tag type and value. Used for single tag, conjunctive tag, and disjunctive tag searches.
      * 
@@ -692,6 +860,7 @@ public class AlbumController {
         tagValueDialog.setTitle("Search by Tag");
         tagValueDialog.setHeaderText("Enter " + tagPrompt + " Value:");
         tagValueDialog.setContentText("Tag Value:");
+        completeTagValues(tagValueDialog, tagType);
         Optional<String> tagValueResult = tagValueDialog.showAndWait();
 
         if (!tagValueResult.isPresent() || tagValueResult.get().trim().isEmpty()) {
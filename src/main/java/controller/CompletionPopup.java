@@ -0,0 +1,64 @@
+package controller;
+
+import javafx.geometry.Side;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.CustomMenuItem;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Offers completions under a text field as the user types, such as the tag values already in use.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class CompletionPopup {
+    /** The most completions offered at once. */
+    static final int LIMIT = 8;
+
+    /**
+     * Not instantiable.
+     */
+    private CompletionPopup() {
+    }
+
+    /**
+     * Shows completions of the text of a field in a menu under it, updated on every keystroke.
+     * Choosing a completion replaces the text of the field.
+     *
+     * @param field the text field
+     * @param completer returns the completions of a text, at most {@link #LIMIT}, best first;
+     *                  called on the JavaFX thread on every change of the text
+     */
+    static void attach(TextField field, Function<String, List<String>> completer) {
+        ContextMenu menu = new ContextMenu();
+        field.textProperty().addListener((observable, oldText, text) -> {
+            List<String> completions = completer.apply(text);
+            if (!field.isFocused() || completions.isEmpty()
+                    || (completions.size() == 1 && completions.get(0).equals(text))) {
+                menu.hide();
+                return;
+            }
+            menu.getItems().clear();
+            for (String completion : completions) {
+                CustomMenuItem item = new CustomMenuItem(new Label(completion), true);
+                item.setOnAction(event -> {
+                    field.setText(completion);
+                    field.positionCaret(completion.length());
+                });
+                menu.getItems().add(item);
+            }
+            if (!menu.isShowing()) {
+                menu.show(field, Side.BOTTOM, 0, 0);
+            }
+        });
+        field.focusedProperty().addListener((observable, wasFocused, focused) -> {
+            if (!focused) {
+                menu.hide();
+            }
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package controller;
+
+import javafx.scene.image.Image;
+import model.Photo;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the photos around the one shown in the background, so stepping to the next or previous
+ * photo finds its image ready.
+ *
+ * <p>The window reaches {@link #AHEAD} photos in the direction the user is moving and {@link #BEHIND}
+ * photos the other way, but never holds more images than fit in {@link #BUDGET_BYTES}. Photos that
+ * leave the window, for instance when the user jumps elsewhere, stop loading. Images are requested
+ * through the {@link ThumbnailCache}, so the image handed over is the one decoded ahead of time.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class ImagePrefetcher {
+    static final int AHEAD = 3;
+    static final int BEHIND = 1;
+    static final long BUDGET_BYTES = 32L * 1024 * 1024;
+
+    private final double width;
+    private final double height;
+    private final Map<String, Image> window = new LinkedHashMap<>();
+    private int lastIndex = -1;
+    private int direction = 1;
+
+    /**
+     * Creates a prefetcher for images shown fitted in the given box.
+     *
+     * @param width the width of the box
+     * @param height the height of the box
+     */
+    ImagePrefetcher(double width, double height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Returns the image of the photo now shown, and moves the prefetch window around it.
+     *
+     * @param photos the photos being stepped through
+     * @param index the index of the photo shown
+     * @return the image of the photo, possibly still loading
+     */
+    Image show(List<Photo> photos, int index) {
+        if (lastIndex >= 0 && index != lastIndex) {
+            direction = index > lastIndex ? 1 : -1;
+        }
+        lastIndex = index;
+
+        ThumbnailCache cache = ThumbnailCache.shared();
+        File shownFile = new File(photos.get(index).getFilePath());
+        Image shown = cache.image(shownFile, width, height);
+
+        // The budget covers the image shown, then the neighbors nearest to it first
+        long bytesPerImage = (long) Math.ceil(width) * (long) Math.ceil(height) * 4;
+        int capacity = (int) Math.max(0, BUDGET_BYTES / Math.max(1, bytesPerImage) - 1);
+        Map<String, Image> wanted = new LinkedHashMap<>();
+        wanted.put(shownFile.getAbsolutePath(), shown);
+        for (int step = 1; step <= Math.max(AHEAD, BEHIND) && wanted.size() <= capacity; step++) {
+            if (step <= AHEAD) {
+                request(photos, index + direction * step, wanted, capacity);
+            }
+            if (step <= BEHIND) {
+                request(photos, index - direction * step, wanted, capacity);
+            }
+        }
+
+        for (Map.Entry<String, Image> entry : window.entrySet()) {
+            if (!wanted.containsKey(entry.getKey())) {
+                cache.abandon(entry.getValue());
+            }
+        }
+        window.clear();
+        window.putAll(wanted);
+        return shown;
+    }
+
+    /**
+     * Stops loading every image still pending. Called when the photos are no longer shown.
+     */
+    void clear() {
+        for (Image image : window.values()) {
+            ThumbnailCache.shared().abandon(image);
+        }
+        window.clear();
+        lastIndex = -1;
+    }
+
+    /**
+     * Adds a neighbor to the window, if it exists and the window has room for it.
+     *
+     * @param photos the photos being stepped through
+     * @param index the index of the neighbor
+     * @param wanted the window being built, including the image shown
+     * @param capacity the number of neighbors the budget allows
+     */
+    private void request(List<Photo> photos, int index, Map<String, Image> wanted, int capacity) {
+        if (index < 0 || index >= photos.size() || wanted.size() > capacity) {
+            return;
+        }
+        File file = new File(photos.get(index).getFilePath());
+        String path = file.getAbsolutePath();
+        if (!wanted.containsKey(path) && file.exists()) {
+            wanted.put(path, ThumbnailCache.shared().image(file, width, height));
+        }
+    }
+}
@@ -7,13 +7,10 @@ import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
-import model.DataManager;
+import model.PhotoStore;
+import model.PhotoStores;
 import model.User;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.Map;
-
 /**
  * Controls the login view of the photo album application.
  * The login view allows users to log in to the application and redirects to admin or user interface.
@@ -27,23 +24,15 @@ public class LoginController {
 
     private Stage stage;
     private User currUser;
-    private static final String USER_DATA_DIR = System.getProperty("user.home") + File.separator + "PhotoAlbumUsers";
-    private Map<String, User> users;
+    private PhotoStore users;
     
     /**
-     * Initializes the controller and loads all existing users.
+     * Initializes the controller with the store of existing users.
+     * User libraries are only loaded when that user signs in.
      */
     @FXML
     public void initialize() {
-        try {
-            users = DataManager.loadAllUsers(USER_DATA_DIR);
-            // Add admin and stock users to the users list
-            users.putIfAbsent("admin", new User("admin"));
-            users.putIfAbsent("stock", new User("stock"));
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-            showAlert("Error", "Failed to load user data.");
-        }
+        users = PhotoStores.users();
     }
     
     /**
@@ -82,7 +71,7 @@ public class LoginController {
     private void handleLogin() {
         String username = usernameField.getText();
 
-        if (username == null || username.trim().isEmpty() || !users.containsKey(username)) {
+        if (username == null || username.trim().isEmpty() || !userExists(username)) {
             showAlert("Error", "User Does Not Exist");
             return;
         }
@@ -116,7 +105,7 @@ public class LoginController {
                 UserController controller = loader.getController();
                 controller.setStage(stage);
 
-                User stockUser = DataManager.loadUser("data/stockUser.dat");
+                User stockUser = PhotoStores.stock().loadUser(PhotoStores.STOCK_USERNAME);
                 controller.setUser(stockUser);
 
                 // Set up the scene and stage
@@ -132,8 +121,7 @@ public class LoginController {
         else {
             // Load the user view
             try {
-                String filePath = System.getProperty("user.home") + File.separator + "PhotoAlbumUsers" + File.separator + username + ".dat";
-                User user = DataManager.loadUser(filePath);
+                User user = users.loadUser(username);
                 if (user == null) {
                     showAlert("Error", "Invalid username.");
                     return;
@@ -159,6 +147,17 @@ public class LoginController {
         }
     }
 
+    /**
+     * Checks whether a user can log in with the given name.
+     * The admin and stock users always exist; other users must have a data file.
+     *
+     * @param username the user name to check
+     * @return true if the user exists, false otherwise
+     */
+    private boolean userExists(String username) {
+        return username.equals("admin") || username.equals("stock") || users.contains(username);
+    }
+
     /**
      * Shows an alert with the specified title and message.
      *
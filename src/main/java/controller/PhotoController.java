@@ -1,7 +1,9 @@
 package controller;
 
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
@@ -12,21 +14,33 @@ import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.stage.Stage;
 import model.Album;
 import model.Photo;
+import model.PhotoWatcher;
 import model.Tag;
 import model.TagManager;
 
+import java.awt.Rectangle;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Controls the photo view of the photo album application.
  * The photo view allows users to view and manage photos.
  * 
+ * <p>Photos are decoded at the resolution of the screen area showing them. Scrolling over the photo
+ * zooms in around the cursor and dragging pans; the enlarged view is shown at once from the
+ * screen-sized image, then replaced by the visible region decoded from the file at screen resolution.</p>
+ * 
  * @author Kaileb Cole
  * @author Maxime Deperrois
  */
@@ -60,6 +74,22 @@ public class PhotoController {
     private Album album;
     private List<Photo> photos;
     private int currentIndex;
+    private ImagePrefetcher prefetcher;
+    private Image fittedImage;
+    private double zoom = 1;
+    private double centerX = 0.5;
+    private double centerY = 0.5;
+    private double dragX;
+    private double dragY;
+    private volatile int regionRequest;
+
+    private static final double MAX_ZOOM = 16;
+    private static final double ZOOM_STEP = 1.25;
+    private static final ExecutorService regionDecoder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "photo-zoom");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Sets the stage for this controller.
@@ -89,7 +119,33 @@ public class PhotoController {
         this.album = album;
         this.photos = album.getPhotos();
         this.currentIndex = initialIndex;
+        double scale = outputScale();
+        this.prefetcher = new ImagePrefetcher(photoImageView.getFitWidth() * scale, photoImageView.getFitHeight() * scale);
         updatePhotoView();
+        watchPhotos();
+    }
+
+    /**
+     * Shows the current photo again when its file changes or disappears.
+     * The listener removes itself once the stage shows another view.
+     */
+    private void watchPhotos() {
+        PhotoWatcher watcher = PhotoWatcher.of(album.getUser());
+        if (watcher == null) {
+            return;
+        }
+        watcher.addListener(new PhotoWatcher.Listener() {
+            @Override
+            public void photosChanged(List<Photo> changed) {
+                if (stage == null || photoImageView.getScene() != stage.getScene()) {
+                    watcher.removeListener(this);
+                    return;
+                }
+                if (currentIndex >= 0 && currentIndex < photos.size() && changed.contains(photos.get(currentIndex))) {
+                    updatePhotoView();
+                }
+            }
+        });
     }
 
     /**
@@ -102,16 +158,20 @@ public class PhotoController {
 
         Photo currentPhoto = photos.get(currentIndex);
 
-        // Update the image
+        // Update the image, decoded ahead of time if the user stepped here
         File photoFile = new File(currentPhoto.getFilePath());
-        if (photoFile.exists()) {
-            Image image = new Image(photoFile.toURI().toString());
-            photoImageView.setImage(image);
+        resetZoom();
+        fittedImage = null;
+        if (!currentPhoto.isMissing() && photoFile.exists()) {
+            fittedImage = prefetcher.show(photos, currentIndex);
+            photoImageView.setImage(fittedImage);
+        } else {
+            photoImageView.setImage(null);
         }
 
         // Update the information fields
-        titleField.setText(photoFile.getName());
-        dateField.setText(currentPhoto.getLastModifiedDate().toString());
+        titleField.setText(currentPhoto.isMissing() ? photoFile.getName() + " (missing)" : photoFile.getName());
+        dateField.setText(currentPhoto.getDate().toString());
         captionField.setText(currentPhoto.getCaption());
 
         // Update the tags list
@@ -125,6 +185,140 @@ public class PhotoController {
         nextButton.setDisable(currentIndex == photos.size() - 1);
     }
 
+    /**
+     * Handles scrolling over the photo: zooms in or out around the cursor.
+     *
+     * @param event the scroll event
+     */
+    @FXML
+    private void handleZoom(ScrollEvent event) {
+        if (fittedImage == null || event.getDeltaY() == 0) {
+            return;
+        }
+        double newZoom = Math.max(1, Math.min(MAX_ZOOM, event.getDeltaY() > 0 ? zoom * ZOOM_STEP : zoom / ZOOM_STEP));
+        double width = photoImageView.getLayoutBounds().getWidth();
+        double height = photoImageView.getLayoutBounds().getHeight();
+        if (newZoom == zoom || width <= 0 || height <= 0) {
+            return;
+        }
+
+        // Keep the point under the cursor in place
+        double cursorX = event.getX() / width - 0.5;
+        double cursorY = event.getY() / height - 0.5;
+        double pointX = centerX + cursorX / zoom;
+        double pointY = centerY + cursorY / zoom;
+        zoom = newZoom;
+        centerX = pointX - cursorX / zoom;
+        centerY = pointY - cursorY / zoom;
+        showZoomedRegion();
+        event.consume();
+    }
+
+    /**
+     * Handles a mouse press on the photo: starts panning.
+     *
+     * @param event the mouse event
+     */
+    @FXML
+    private void handlePanStart(MouseEvent event) {
+        dragX = event.getX();
+        dragY = event.getY();
+    }
+
+    /**
+     * Handles dragging over the photo: pans the zoomed view.
+     *
+     * @param event the mouse event
+     */
+    @FXML
+    private void handlePan(MouseEvent event) {
+        double width = photoImageView.getLayoutBounds().getWidth();
+        double height = photoImageView.getLayoutBounds().getHeight();
+        if (zoom == 1 || width <= 0 || height <= 0) {
+            return;
+        }
+        centerX -= (event.getX() - dragX) / width / zoom;
+        centerY -= (event.getY() - dragY) / height / zoom;
+        dragX = event.getX();
+        dragY = event.getY();
+        showZoomedRegion();
+    }
+
+    /**
+     * Shows the visible region of the zoomed photo: enlarged from the screen-sized image right away,
+     * then at full detail once the region has been decoded from the file in the background.
+     */
+    private void showZoomedRegion() {
+        double half = 0.5 / zoom;
+        centerX = Math.max(half, Math.min(1 - half, centerX));
+        centerY = Math.max(half, Math.min(1 - half, centerY));
+        int request = ++regionRequest;
+        if (zoom == 1) {
+            photoImageView.setViewport(null);
+            photoImageView.setImage(fittedImage);
+            return;
+        }
+
+        if (fittedImage.getProgress() >= 1.0 && !fittedImage.isError()) {
+            double width = fittedImage.getWidth();
+            double height = fittedImage.getHeight();
+            photoImageView.setImage(fittedImage);
+            photoImageView.setViewport(new Rectangle2D((centerX - half) * width, (centerY - half) * height, width / zoom, height / zoom));
+        }
+
+        File file = new File(photos.get(currentIndex).getFilePath());
+        double scale = outputScale();
+        double targetWidth = photoImageView.getLayoutBounds().getWidth() * scale;
+        double targetHeight = photoImageView.getLayoutBounds().getHeight() * scale;
+        double left = centerX - half;
+        double top = centerY - half;
+        double span = 2 * half;
+        regionDecoder.execute(() -> {
+            if (request != regionRequest) {
+                return; // Superseded by a later zoom or pan
+            }
+            try {
+                int[] size = RegionDecoder.sourceSize(file);
+                if (size == null) {
+                    return;
+                }
+                Rectangle region = new Rectangle((int) (left * size[0]), (int) (top * size[1]),
+                        Math.max(1, (int) Math.ceil(span * size[0])), Math.max(1, (int) Math.ceil(span * size[1])));
+                region = region.intersection(new Rectangle(0, 0, size[0], size[1]));
+                WritableImage image = RegionDecoder.decode(file, region, targetWidth, targetHeight);
+                Platform.runLater(() -> {
+                    if (image != null && request == regionRequest) {
+                        photoImageView.setViewport(null);
+                        photoImageView.setImage(image);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                System.err.println("Failed to decode part of " + file);
+            }
+        });
+    }
+
+    /**
+     * Returns to the whole photo, dropping any region still being decoded.
+     */
+    private void resetZoom() {
+        zoom = 1;
+        centerX = 0.5;
+        centerY = 0.5;
+        regionRequest++;
+        photoImageView.setViewport(null);
+    }
+
+    /**
+     * Returns how many physical pixels the screen uses per layout pixel.
+     *
+     * @return the output scale of the window, 1 if it is not known yet
+     */
+    private double outputScale() {
+        return stage != null && stage.getOutputScaleX() > 0 ? stage.getOutputScaleX() : 1;
+    }
+
     /**
      * Handles the "Move Photo" button action.
      */
@@ -182,7 +376,6 @@ public class PhotoController {
             // Move the photo to the selected album
             destinationAlbum.addPhoto(currentPhoto);
             album.removePhoto(currentPhoto);
-            photos.remove(currentPhoto);
 
             // Update the current index and photo view
             if (currentIndex >= photos.size()) {
@@ -257,6 +450,7 @@ public class PhotoController {
             newTagTypeDialog.setTitle("New Tag Type");
             newTagTypeDialog.setHeaderText("Enter a new tag type:");
             newTagTypeDialog.setContentText("Tag Type:");
+            completeTagNames(newTagTypeDialog);
     
             Optional<String> newTagTypeResult = newTagTypeDialog.showAndWait();
             if (newTagTypeResult.isEmpty() || newTagTypeResult.get().trim().isEmpty()) {
@@ -290,6 +484,7 @@ public class PhotoController {
         tagValueDialog.setTitle("Add Tag");
         tagValueDialog.setHeaderText("Enter a value for the tag:");
         tagValueDialog.setContentText("Tag Value:");
+        completeTagValues(tagValueDialog, tagType);
     
         Optional<String> tagValueResult = tagValueDialog.showAndWait();
         if (tagValueResult.isEmpty() || tagValueResult.get().trim().isEmpty()) {
@@ -310,6 +505,27 @@ public class PhotoController {
         showAlert("Success", "Tag added successfully.");
     }
 
+    /**
+     * Offers the tag names in use as completions while a new tag type is typed.
+     *
+     * @param dialog the dialog asking for the tag type
+     */
+    private void completeTagNames(TextInputDialog dialog) {
+        CompletionPopup.attach(dialog.getEditor(),
+            text -> album.getUser().getTagCompleter().completeName(text.stripLeading(), CompletionPopup.LIMIT));
+    }
+
+    /**
+     * Offers the values of a tag type in use as completions while a tag value is typed.
+     *
+     * @param dialog the dialog asking for the tag value
+     * @param tagType the tag type of the value
+     */
+    private void completeTagValues(TextInputDialog dialog, String tagType) {
+        CompletionPopup.attach(dialog.getEditor(),
+            text -> album.getUser().getTagCompleter().completeValue(tagType, text.stripLeading(), CompletionPopup.LIMIT));
+    }
+
     /**
      * Deletes a tag from the current photo.
      * @param photo the photo from which to delete the tag
@@ -412,6 +628,8 @@ public class PhotoController {
      */
     @FXML
     private void handleBackToAlbum() {
+        prefetcher.clear();
+        resetZoom();
         try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/AlbumView.fxml"));
             Parent root = loader.load();
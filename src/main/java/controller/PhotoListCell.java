@@ -0,0 +1,148 @@
+package controller;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.control.ListCell;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import model.Photo;
+
+import java.io.File;
+import java.time.LocalDateTime;
+
+/**
+ * A list cell showing a photo's thumbnail next to its caption.
+ *
+ * <p>Thumbnails are decoded in the background at the size they are shown, never at full resolution,
+ * and kept in the {@link ThumbnailCache}. The cell shows a placeholder until its thumbnail is ready.
+ * When the cell is reused for another photo before then, the pending thumbnail is cancelled and its
+ * result is never shown. A photo whose file is missing shows the placeholder, and a photo whose
+ * file changed gets a new thumbnail when the list is refreshed.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+class PhotoListCell extends ListCell<Photo> {
+    static final double THUMBNAIL_SIZE = 100;
+    private static final Image PLACEHOLDER = createPlaceholder();
+
+    private final ImageView imageView = new ImageView(PLACEHOLDER);
+    private Photo shownPhoto;
+    private LocalDateTime shownDate;
+    private boolean shownMissing;
+    private Image pending;
+    private ChangeListener<Number> pendingListener;
+
+    /**
+     * Creates an empty cell.
+     */
+    PhotoListCell() {
+        imageView.setFitWidth(THUMBNAIL_SIZE);
+        imageView.setFitHeight(THUMBNAIL_SIZE);
+        imageView.setPreserveRatio(true);
+    }
+
+    /**
+     * Returns the height a cell needs, for a list view of fixed cell size.
+     *
+     * @return the cell height
+     */
+    static double cellHeight() {
+        return THUMBNAIL_SIZE + 10;
+    }
+
+    @Override
+    protected void updateItem(Photo photo, boolean empty) {
+        super.updateItem(photo, empty);
+        if (empty || photo == null) {
+            cancelPending();
+            shownPhoto = null;
+            imageView.setImage(PLACEHOLDER);
+            setText(null);
+            setGraphic(null);
+            return;
+        }
+
+        File file = new File(photo.getFilePath());
+        String text = photo.getCaption() != null ? photo.getCaption() : file.getName();
+        setText(photo.isMissing() ? text + " (missing)" : text);
+        setGraphic(imageView);
+        if (photo != shownPhoto || photo.isMissing() != shownMissing || !photo.getLastModifiedDate().equals(shownDate)) {
+            // The cell was reused for another photo, or its file changed: drop whatever was loading before
+            cancelPending();
+            shownPhoto = photo;
+            shownDate = photo.getLastModifiedDate();
+            shownMissing = photo.isMissing();
+            imageView.setImage(PLACEHOLDER);
+            if (!photo.isMissing()) {
+                requestThumbnail(file);
+            }
+        }
+    }
+
+    /**
+     * Starts decoding a thumbnail in the background, showing it once it is ready
+     * if the cell still shows the same photo.
+     *
+     * @param file the photo file
+     */
+    private void requestThumbnail(File file) {
+        Image image = ThumbnailCache.shared().thumbnail(file, THUMBNAIL_SIZE);
+        Photo requested = shownPhoto;
+        pending = image;
+        pendingListener = new ChangeListener<Number>() {
+            @Override
+            public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
+                if (newValue.doubleValue() < 1.0) {
+                    return;
+                }
+                image.progressProperty().removeListener(this);
+                if (pending != image || shownPhoto != requested) {
+                    return;
+                }
+                pending = null;
+                pendingListener = null;
+                if (!image.isError()) {
+                    imageView.setImage(image);
+                }
+            }
+        };
+        image.progressProperty().addListener(pendingListener);
+        // A thumbnail decoded before the listener was added is shown right away
+        if (image.getProgress() >= 1.0) {
+            pendingListener.changed(image.progressProperty(), 0, image.getProgress());
+        }
+    }
+
+    /**
+     * Cancels the thumbnail still loading for the previous photo of the cell, if any.
+     */
+    private void cancelPending() {
+        if (pending != null) {
+            pending.progressProperty().removeListener(pendingListener);
+            ThumbnailCache.shared().abandon(pending);
+            pending = null;
+            pendingListener = null;
+        }
+    }
+
+    /**
+     * Creates the image shown while a thumbnail loads: a plain light gray square.
+     *
+     * @return the placeholder image
+     */
+    private static Image createPlaceholder() {
+        int size = (int) THUMBNAIL_SIZE;
+        WritableImage image = new WritableImage(size, size);
+        PixelWriter writer = image.getPixelWriter();
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                writer.setColor(x, y, Color.gray(0.9));
+            }
+        }
+        return image;
+    }
+}
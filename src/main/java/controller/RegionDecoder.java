@@ -0,0 +1,109 @@
+package controller;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decodes part of a photo file at a bounded resolution, for zooming into photos larger than the screen.
+ *
+ * <p>Only the requested region is decoded, and rows and columns are skipped so the result is no larger
+ * than needed to fill the view. Memory therefore depends on the size of the view, not of the file.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class RegionDecoder {
+
+    /**
+     * Not instantiable.
+     */
+    private RegionDecoder() {
+    }
+
+    /**
+     * Reads the pixel size of an image from its header, without decoding it.
+     *
+     * @param file the image file
+     * @return the width and height, or null if the format is not supported
+     * @throws IOException if the file cannot be read
+     */
+    static int[] sourceSize(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = readerFor(in);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                return new int[] {reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes a region of an image, subsampled so it is no more than about twice the target size in
+     * each dimension.
+     *
+     * @param file the image file
+     * @param region the region to decode, in source pixels
+     * @param targetWidth the width the region is shown at
+     * @param targetHeight the height the region is shown at
+     * @return the decoded region, or null if the format is not supported
+     * @throws IOException if the file cannot be read or decoded
+     */
+    static WritableImage decode(File file, Rectangle region, double targetWidth, double targetHeight) throws IOException {
+        BufferedImage decoded;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = readerFor(in);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                int step = (int) Math.max(1, Math.min(region.width / targetWidth, region.height / targetHeight));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                param.setSourceSubsampling(step, step, 0, 0);
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        int[] pixels = decoded.getRGB(0, 0, width, height, null, 0, width);
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * Returns a reader positioned on an image stream.
+     *
+     * @param in the image stream
+     * @return the reader, or null if no reader supports the format
+     */
+    private static ImageReader readerFor(ImageInputStream in) {
+        if (in == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+}
@@ -0,0 +1,85 @@
+package controller;
+
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.VBox;
+
+import java.util.function.Consumer;
+
+/**
+ * Runs long operations in the background while a dialog shows their progress, and shows long results.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class TaskDialog {
+
+    /**
+     * Not instantiable.
+     */
+    private TaskDialog() {
+    }
+
+    /**
+     * Runs a task on a daemon thread, showing its message and progress in a dialog. Closing the
+     * dialog before the task is done cancels the task.
+     *
+     * @param <T> the type of the task's result
+     * @param title the title of the dialog
+     * @param header the header of the dialog
+     * @param task the task
+     * @param onSucceeded receives the result on the JavaFX thread
+     * @param onFailed called on the JavaFX thread if the task fails
+     */
+    static <T> void run(String title, String header, Task<T> task, Consumer<T> onSucceeded, Runnable onFailed) {
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setPrefWidth(300);
+        progressBar.progressProperty().bind(task.progressProperty());
+        Label status = new Label();
+        status.textProperty().bind(task.messageProperty());
+        Alert progressDialog = new Alert(Alert.AlertType.NONE, null, ButtonType.CANCEL);
+        progressDialog.setTitle(title);
+        progressDialog.setHeaderText(header);
+        progressDialog.getDialogPane().setContent(new VBox(10, status, progressBar));
+        progressDialog.setOnHidden(event -> task.cancel());
+
+        task.setOnSucceeded(event -> {
+            progressDialog.close();
+            onSucceeded.accept(task.getValue());
+        });
+        task.setOnFailed(event -> {
+            progressDialog.close();
+            task.getException().printStackTrace();
+            onFailed.run();
+        });
+
+        Thread thread = new Thread(task, "background-task");
+        thread.setDaemon(true);
+        thread.start();
+        progressDialog.show();
+    }
+
+    /**
+     * Shows text too long for an alert in a scrollable, read-only area.
+     *
+     * @param title the title of the dialog
+     * @param header the header of the dialog
+     * @param text the text
+     */
+    static void showText(String title, String header, String text) {
+        TextArea area = new TextArea(text);
+        area.setEditable(false);
+        area.setPrefColumnCount(60);
+        area.setPrefRowCount(20);
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle(title);
+        alert.setHeaderText(header);
+        alert.getDialogPane().setContent(area);
+        alert.setResizable(true);
+        alert.showAndWait();
+    }
+}
@@ -0,0 +1,447 @@
+package controller;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import model.PhotoStores;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The application-wide cache of decoded photo images, shared by every view.
+ *
+ * <p>Images are keyed by file path, modification time and decoded size, so an edited file is
+ * decoded again. The cache is bounded by an estimate of the bytes its pixels take, not by entry
+ * count; once over budget, the least recently used images are evicted. An evicted image is kept
+ * through a soft reference until the garbage collector needs the memory, and is returned from there
+ * if it is asked for again first.</p>
+ *
+ * <p>Square thumbnails are also kept on disk by the {@link model.ThumbnailStore}, so they survive a restart.</p>
+ *
+ * <p>The budget defaults to {@value #DEFAULT_BUDGET_MB} MB and can be set with the
+ * {@code photos.thumbnailCacheMB} system property.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class ThumbnailCache {
+    static final long DEFAULT_BUDGET_MB = 64;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final ThumbnailCache shared = new ThumbnailCache(budgetFromProperty());
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "thumbnail-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long budgetBytes;
+    private final LinkedHashMap<Key, Image> recent = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Key, SoftEntry> evicted = new HashMap<>();
+    private final ReferenceQueue<Image> cleared = new ReferenceQueue<>();
+    private final Map<Image, Key> loading = new IdentityHashMap<>();
+    private long usedBytes;
+    private long hits;
+    private long softHits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a cache.
+     *
+     * @param budgetBytes the estimated pixel bytes the cache may hold strongly
+     */
+    ThumbnailCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Returns the cache shared by the whole application.
+     *
+     * @return the shared cache
+     */
+    static ThumbnailCache shared() {
+        return shared;
+    }
+
+    /**
+     * Returns the image of a file decoded to fit in the given box, from the cache if possible.
+     * Otherwise the image is decoded in the background and cached right away, so views asking for
+     * it again while it loads share the same decode.
+     *
+     * @param file the image file
+     * @param width the width of the box to fit the image in
+     * @param height the height of the box to fit the image in
+     * @return the image, possibly still loading
+     */
+    Image image(File file, double width, double height) {
+        Key key = new Key(file.getAbsolutePath(), file.lastModified(), width, height);
+        Image image = get(key);
+        return image != null ? image : decode(key, file);
+    }
+
+    /**
+     * Returns the square thumbnail of a file. Thumbnails not in memory are read from the
+     * {@link model.ThumbnailStore} if it holds one made from the file as it is now, without reading the
+     * photo itself; otherwise the photo is decoded in the background and the thumbnail stored
+     * for the next run once it is ready.
+     *
+     * @param file the image file
+     * @param size the width and height of the thumbnail
+     * @return the thumbnail, possibly still loading
+     */
+    Image thumbnail(File file, double size) {
+        Key key = new Key(file.getAbsolutePath(), file.lastModified(), size, size);
+        Image image = get(key);
+        if (image != null) {
+            return image;
+        }
+
+        byte[] stored = PhotoStores.thumbnails().get(key.path, (int) size, key.lastModified);
+        if (stored != null) {
+            image = new Image(new ByteArrayInputStream(stored));
+            if (!image.isError()) {
+                put(key, image);
+                return image;
+            }
+        }
+
+        Image decoded = decode(key, file);
+        decoded.progressProperty().addListener((observable, oldProgress, progress) -> {
+            if (progress.doubleValue() >= 1.0 && !decoded.isError()) {
+                store(key, decoded);
+            }
+        });
+        return decoded;
+    }
+
+    /**
+     * Starts decoding an image in the background and caches it.
+     *
+     * @param key the image key
+     * @param file the image file
+     * @return the image, still loading
+     */
+    private Image decode(Key key, File file) {
+        Image image = new Image(file.toURI().toString(), key.width, key.height, true, true, true);
+        put(key, image);
+        synchronized (this) {
+            loading.put(image, key);
+        }
+        image.progressProperty().addListener((observable, oldProgress, progress) -> {
+            if (progress.doubleValue() >= 1.0) {
+                synchronized (this) {
+                    loading.remove(image);
+                }
+            }
+        });
+        image.errorProperty().addListener((observable, wasError, isError) -> {
+            if (isError) {
+                remove(key, image);
+            }
+        });
+        return image;
+    }
+
+    /**
+     * Encodes a decoded thumbnail as a JPEG on the writer thread and stores it for the next run.
+     * The pixels are copied first, on the calling thread.
+     *
+     * @param key the thumbnail key
+     * @param image the decoded thumbnail
+     */
+    private static void store(Key key, Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        if (width <= 0 || height <= 0 || image.getPixelReader() == null) {
+            return;
+        }
+        int[] pixels = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        writer.execute(() -> {
+            try {
+                BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                rgb.setRGB(0, 0, width, height, pixels, 0, width);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+                if (ImageIO.write(rgb, "jpg", out)) {
+                    PhotoStores.thumbnails().put(key.path, (int) key.width, key.lastModified, out.toByteArray());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to store the thumbnail of " + key.path);
+            }
+        });
+    }
+
+    /**
+     * Tells the cache an image is no longer wanted. If it is still loading, loading is cancelled and
+     * the image dropped from the cache, so images scrolled past are never decoded to completion.
+     *
+     * @param image an image returned by {@link #image(File, double, double)}
+     */
+    synchronized void abandon(Image image) {
+        Key key = loading.remove(image);
+        if (key != null && image.getProgress() < 1.0) {
+            image.cancel();
+            remove(key, image);
+        }
+    }
+
+    /**
+     * Drops every image of a file, at any size, because the file changed or disappeared.
+     * Images still loading are cancelled.
+     *
+     * @param file the image file
+     */
+    synchronized void invalidate(File file) {
+        String path = file.getAbsolutePath();
+        Iterator<Map.Entry<Key, Image>> entries = recent.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Image> entry = entries.next();
+            if (entry.getKey().path.equals(path)) {
+                entries.remove();
+                usedBytes -= entry.getKey().byteSize();
+                if (loading.remove(entry.getValue()) != null) {
+                    entry.getValue().cancel();
+                }
+            }
+        }
+        evicted.keySet().removeIf(key -> key.path.equals(path));
+    }
+
+    /**
+     * Returns a cached image, moving it to the most recently used position.
+     *
+     * @param key the image key
+     * @return the image, or null if it is not cached
+     */
+    synchronized Image get(Key key) {
+        expungeCleared();
+        Image image = recent.get(key);
+        if (image != null) {
+            hits++;
+            return image;
+        }
+        SoftEntry entry = evicted.remove(key);
+        image = entry != null ? entry.get() : null;
+        if (image != null) {
+            softHits++;
+            insert(key, image);
+            return image;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Adds an image to the cache, evicting the least recently used images if over budget.
+     *
+     * @param key the image key
+     * @param image the image
+     */
+    synchronized void put(Key key, Image image) {
+        expungeCleared();
+        evicted.remove(key);
+        Image replaced = recent.remove(key);
+        if (replaced != null) {
+            usedBytes -= key.byteSize();
+        }
+        insert(key, image);
+    }
+
+    /**
+     * Removes an image from the cache, if the key still maps to it.
+     *
+     * @param key the image key
+     * @param image the image
+     */
+    private synchronized void remove(Key key, Image image) {
+        loading.remove(image);
+        if (recent.remove(key, image)) {
+            usedBytes -= key.byteSize();
+        }
+    }
+
+    /**
+     * Returns the number of requests answered by a strongly held image.
+     *
+     * @return the hit count
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of requests answered by an evicted image the garbage collector had not cleared yet.
+     *
+     * @return the soft hit count
+     */
+    synchronized long getSoftHits() {
+        return softHits;
+    }
+
+    /**
+     * Returns the number of requests the cache could not answer.
+     *
+     * @return the miss count
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of images evicted to stay within the budget.
+     *
+     * @return the eviction count
+     */
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the estimated pixel bytes of the images held strongly.
+     *
+     * @return the used bytes
+     */
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ThumbnailCache[%d images, %d of %d KB, %d hits, %d soft hits, %d misses, %d evictions]",
+                recent.size(), usedBytes / 1024, budgetBytes / 1024, hits, softHits, misses, evictions);
+    }
+
+    /**
+     * Holds an image strongly, then evicts from the least recently used end until within budget.
+     * The newest image is never evicted, even if it alone exceeds the budget.
+     *
+     * @param key the image key
+     * @param image the image
+     */
+    private void insert(Key key, Image image) {
+        recent.put(key, image);
+        usedBytes += key.byteSize();
+        Iterator<Map.Entry<Key, Image>> eldest = recent.entrySet().iterator();
+        while (usedBytes > budgetBytes && recent.size() > 1) {
+            Map.Entry<Key, Image> entry = eldest.next();
+            usedBytes -= entry.getKey().byteSize();
+            evicted.put(entry.getKey(), new SoftEntry(entry.getKey(), entry.getValue(), cleared));
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Forgets the evicted images the garbage collector has cleared.
+     */
+    private void expungeCleared() {
+        SoftEntry entry;
+        while ((entry = (SoftEntry) cleared.poll()) != null) {
+            evicted.remove(entry.key, entry);
+        }
+    }
+
+    /**
+     * Reads the budget from the {@code photos.thumbnailCacheMB} system property.
+     *
+     * @return the budget in bytes
+     */
+    private static long budgetFromProperty() {
+        String value = System.getProperty("photos.thumbnailCacheMB");
+        long megabytes = DEFAULT_BUDGET_MB;
+        if (value != null) {
+            try {
+                megabytes = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid photos.thumbnailCacheMB value " + value);
+            }
+        }
+        return megabytes * 1024 * 1024;
+    }
+
+    /**
+     * Identifies a decoded image: the file, its modification time, and the box it was fitted in.
+     */
+    static final class Key {
+        private final String path;
+        private final long lastModified;
+        private final double width;
+        private final double height;
+
+        /**
+         * Creates a key.
+         *
+         * @param path the absolute file path
+         * @param lastModified the modification time of the file
+         * @param width the width of the box the image is fitted in
+         * @param height the height of the box the image is fitted in
+         */
+        Key(String path, long lastModified, double width, double height) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Returns an upper bound of the bytes the decoded pixels take.
+         *
+         * @return the estimated size in bytes
+         */
+        long byteSize() {
+            return (long) Math.ceil(width) * (long) Math.ceil(height) * BYTES_PER_PIXEL;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return lastModified == other.lastModified && width == other.width && height == other.height
+                    && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified, width, height);
+        }
+    }
+
+    /**
+     * An evicted image, held until the garbage collector needs its memory.
+     */
+    private static final class SoftEntry extends SoftReference<Image> {
+        private final Key key;
+
+        /**
+         * Creates an entry.
+         *
+         * @param key the image key
+         * @param image the image
+         * @param queue the queue notified when the image is cleared
+         */
+        SoftEntry(Key key, Image image, ReferenceQueue<Image> queue) {
+            super(image, queue);
+            this.key = key;
+        }
+    }
+}
@@ -1,27 +1,41 @@
 package controller;
 
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import model.Album;
-import model.DataManager;
+import model.DuplicateFinder;
+import model.PerceptualHash;
+import model.PerceptualHasher;
 import model.Photo;
+import model.PhotoQuery;
+import model.PhotoWatcher;
+import model.PhotoStores;
 import model.User;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -39,6 +53,9 @@ public class UserController {
     @FXML
     private ListView<String> albumListView;
 
+    /** The most photos a library search tests or reads before showing what it found. */
+    private static final int SEARCH_BATCH_SIZE = 64;
+
     private Stage stage;
     private User user;
     private List<String> albums = new ArrayList<>();
@@ -60,6 +77,34 @@ public class UserController {
     public void setUser(User user) {
         this.user = user;
         loadUserAlbums();
+        startWatching();
+    }
+
+    /**
+     * Starts keeping the user's photos in step with their files, unless already started.
+     * Images cached for a file that changed or disappeared are dropped, and edited files hashed again.
+     */
+    private void startWatching() {
+        if (PhotoWatcher.of(user) != null) {
+            return;
+        }
+        try {
+            PhotoWatcher watcher = PhotoWatcher.start(user, Platform::runLater);
+            watcher.addListener(changed -> {
+                List<Photo> present = new ArrayList<>();
+                for (Photo photo : changed) {
+                    ThumbnailCache.shared().invalidate(new File(photo.getFilePath()));
+                    if (!photo.isMissing()) {
+                        present.add(photo);
+                    }
+                }
+                // An edited file gets a new perceptual hash
+                PerceptualHasher.hashInBackground(present);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Photo files will not be watched for changes.");
+        }
     }
 
     /**
@@ -72,30 +117,19 @@ public class UserController {
         for (Album album : user.getAlbums()) {
             String displayName;
 
-            if (album.getPhotos().isEmpty()) {
+            if (album.getPhotoCount() == 0) {
                 // If the album has no photos, display "No photos"
                 displayName = String.format("%s (0 photos) - No photos", album.getName());
             } else {
-                // Calculate the earliest and latest dates
-                LocalDateTime earliestDate = album.getPhotos().stream()
-                    .map(Photo::getLastModifiedDate)
-                    .min(LocalDateTime::compareTo)
-                    .orElse(null);
-
-                LocalDateTime latestDate = album.getPhotos().stream()
-                    .map(Photo::getLastModifiedDate)
-                    .max(LocalDateTime::compareTo)
-                    .orElse(null);
-
-                // Format the date range
+                // Format the date range from the album summary, without reading the photos
                 String dateRange = String.format("%s to %s",
-                    earliestDate.toLocalDate().toString(),
-                    latestDate.toLocalDate().toString());
+                    album.getEarliestDate().toLocalDate().toString(),
+                    album.getLatestDate().toLocalDate().toString());
 
                 // Display the album name, photo count, and date range
                 displayName = String.format("%s (%d photos) - %s",
                     album.getName(),
-                    album.getPhotos().size(),
+                    album.getPhotoCount(),
                     dateRange);
             }
 
@@ -162,7 +196,7 @@ public class UserController {
         Optional<ButtonType> result = confirmationAlert.showAndWait();
 
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            user.getAlbums().remove(albumToDelete);
+            user.removeAlbum(albumToDelete);
             loadUserAlbums(); // Refresh the album list
             showAlert("Success", "Album \"" + actualAlbumName + "\" deleted successfully.");
         }
@@ -248,6 +282,171 @@ public class UserController {
         }
     }
 
+    /**
+     * Handles the find duplicates button.
+     * Groups the photos of the whole library that look like copies of each other,
+     * hashing any photos not hashed yet first.
+     */
+    @FXML
+    private void handleFindDuplicates() {
+        // Read the albums here, so the background task never touches the live album lists
+        Map<Photo, List<String>> library = new LinkedHashMap<>();
+        for (Album album : user.getAlbums()) {
+            for (Photo photo : album.getPhotos()) {
+                library.computeIfAbsent(photo, key -> new ArrayList<>()).add(album.getName());
+            }
+        }
+
+        Task<List<List<Photo>>> task = new Task<>() {
+            @Override
+            protected List<List<Photo>> call() throws Exception {
+                updateMessage("Comparing photos...");
+                PerceptualHasher.hashAll(library.keySet(), (done, total) -> {
+                    updateProgress(done, total);
+                    updateMessage("Hashed " + done + " of " + total + " photos");
+                });
+                updateMessage("Grouping similar photos...");
+                return new DuplicateFinder(library.keySet()).groups(PerceptualHash.DUPLICATE_DISTANCE);
+            }
+        };
+
+        TaskDialog.run("Find Duplicates", "Looking for copies of the same photo", task, groups -> {
+            if (groups.isEmpty()) {
+                showAlert("Find Duplicates", "No duplicate photos found.");
+                return;
+            }
+            StringBuilder report = new StringBuilder();
+            for (int i = 0; i < groups.size(); i++) {
+                report.append("Group ").append(i + 1).append(":\n");
+                for (Photo photo : groups.get(i)) {
+                    report.append("  ").append(photo.getFilePath()).append("  (")
+                            .append(String.join(", ", library.get(photo))).append(")\n");
+                }
+            }
+            TaskDialog.showText("Find Duplicates", groups.size() + " groups of similar photos", report.toString());
+        }, () -> showAlert("Error", "Failed to compare photos."));
+    }
+
+    /**
+     * Handles the search library button.
+     * Searches every album at once with a query, listing each photo once however many albums hold it.
+     */
+    @FXML
+    private void handleSearchLibrary() {
+        TextInputDialog queryDialog = new TextInputDialog();
+        queryDialog.setTitle("Search Library");
+        queryDialog.setHeaderText("Search all albums with a query, for example:\n"
+            + "person=alice AND (location=nyc OR location=paris) AND date>=2023-01-01\n"
+            + "Start with EXPLAIN to see how the query is run.");
+        queryDialog.setContentText("Query:");
+        Optional<String> result = queryDialog.showAndWait();
+
+        if (!result.isPresent() || result.get().trim().isEmpty()) {
+            return;
+        }
+
+        String text = result.get().trim();
+        boolean explain = text.regionMatches(true, 0, "EXPLAIN ", 0, 8);
+        PhotoQuery.Search search;
+        try {
+            // Planning reads the albums to build the indexes, so it stays on this thread
+            search = PhotoQuery.parse(explain ? text.substring(8) : text).plan(user, null);
+        } catch (IllegalArgumentException e) {
+            showAlert("Error", "Invalid query: " + e.getMessage());
+            return;
+        }
+
+        if (explain) {
+            TaskDialog.showText("Search Library", "Query plan", search.explain());
+        } else {
+            showLibraryResults(search, text);
+        }
+    }
+
+    /**
+     * Shows the photos found by a library search in a window of their own, adding them as the
+     * search finds them. Closing the window stops the search.
+     *
+     * @param search the planned search
+     * @param queryText the query, for the window title
+     */
+    private void showLibraryResults(PhotoQuery.Search search, String queryText) {
+        ObservableList<Photo> found = FXCollections.observableArrayList();
+        ListView<Photo> resultsView = new ListView<>(found);
+        resultsView.setFixedCellSize(PhotoListCell.cellHeight());
+        resultsView.setCellFactory(param -> new PhotoListCell());
+        Label status = new Label("Searching " + search.getSearchedCount() + " photos...");
+        Button createAlbum = new Button("Create Album From Results");
+        createAlbum.setDisable(true);
+        createAlbum.setOnAction(event -> createAlbumFromResults(new ArrayList<>(found)));
+        VBox root = new VBox(10, status, resultsView, createAlbum);
+        root.setPadding(new Insets(10));
+        VBox.setVgrow(resultsView, Priority.ALWAYS);
+
+        // The window is not modal, so photos may be edited while the search tests them; the model guards those reads
+        Task<Boolean> task = new Task<>() {
+            @Override
+            protected Boolean call() {
+                return search.stream(SEARCH_BATCH_SIZE, batch -> {
+                    Platform.runLater(() -> {
+                        found.addAll(batch);
+                        status.setText("Found " + found.size() + " photo(s) so far...");
+                    });
+                    return !isCancelled();
+                });
+            }
+        };
+        task.setOnSucceeded(event -> {
+            status.setText(found.isEmpty() ? "No photos match the query." : "Found " + found.size() + " photo(s).");
+            createAlbum.setDisable(found.isEmpty());
+        });
+        task.setOnFailed(event -> {
+            task.getException().printStackTrace();
+            status.setText("The search failed.");
+        });
+
+        Stage resultsStage = new Stage();
+        resultsStage.initOwner(stage);
+        resultsStage.setTitle("Search Library: " + queryText);
+        resultsStage.setScene(new Scene(root, 500, 500));
+        resultsStage.setOnHidden(event -> task.cancel());
+
+        Thread thread = new Thread(task, "library-search");
+        thread.setDaemon(true);
+        thread.start();
+        resultsStage.show();
+    }
+
+    /**
+     * Creates an album holding the photos found by a library search.
+     *
+     * @param photos the photos found
+     */
+    private void createAlbumFromResults(List<Photo> photos) {
+        TextInputDialog albumNameDialog = new TextInputDialog();
+        albumNameDialog.setTitle("New Album");
+        albumNameDialog.setHeaderText("Enter a name for the new album:");
+        albumNameDialog.setContentText("Album Name:");
+        Optional<String> albumNameResult = albumNameDialog.showAndWait();
+
+        if (!albumNameResult.isPresent() || albumNameResult.get().trim().isEmpty()) {
+            showAlert("Error", "Album name cannot be empty.");
+            return;
+        }
+
+        String albumName = albumNameResult.get().trim();
+        if (findAlbumByName(albumName) != null) {
+            showAlert("Error", "Album name already exists.");
+            return;
+        }
+
+        Album album = new Album(albumName);
+        album.addPhotos(photos);
+        user.addAlbum(album);
+        loadUserAlbums();
+        showAlert("Success", "New album '" + albumName + "' created with " + photos.size() + " photo(s).");
+    }
+
     /**
      * Handles the logout button.
      */
@@ -255,12 +454,8 @@ public class UserController {
     private void handleLogout() {
         try {
             // Save user data before logging out
-            if(!user.getUsername().equals("stock")) {
-                saveUserData();
-            }
-            else {
-                saveStockUserData(user);
-            }
+            saveUserData();
+            PhotoWatcher.stop(user);
 
             // Load the login view
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginView.fxml"));
@@ -282,31 +477,17 @@ public class UserController {
     }
 
     /**
-     * Saves the user data to a file.
+     * Saves the user data to the store the user is kept in.
      */
     private void saveUserData() {
         try {
-            String filePath = System.getProperty("user.home") + File.separator + "PhotoAlbumUsers" + File.separator + user.getUsername() + ".dat";
-            DataManager.saveUser(user, filePath);
+            PhotoStores.forUser(user.getUsername()).saveUser(user);
         } catch (IOException e) {
             e.printStackTrace();
             showAlert("Error", "Failed to save user data.");
         }
     }
 
-    /**
-     * Saves the stock user data to a file.
-     * @param stockUser the stock user to save
-     */
-    private void saveStockUserData(User stockUser) {
-        try {
-            String filePath = Paths.get("data", "stockUser.dat").toString();
-            DataManager.saveUser(stockUser, filePath);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
     /**
      * Shows an alert dialog with the given title and message.
      *
@@ -1,13 +1,24 @@
 package model;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Represents an album in the photo album application.
  * Each album has a name, a list of photos, and methods to manage those photos.
  * 
+ * <p>An album holds photos from its user's {@link PhotoCatalog}. An album read from storage may only
+ * know the catalog ids and the summary of its photos at first; the photos themselves are read the
+ * first time they are needed.</p>
+ * 
  * @author Kaileb Cole
  * @author Maxime Deperrois
  */
@@ -17,6 +28,11 @@ public class Album implements Serializable {
     private String name;
     private List<Photo> photos;
     private User user;
+    private transient int[] storedIds;
+    private transient LocalDateTime storedEarliest;
+    private transient LocalDateTime storedLatest;
+    // True once a photo of the album changed date while its photos were not read, so the stored range is stale
+    private transient boolean storedDatesChanged;
 
     /**
      * Creates a new album with the given name.
@@ -28,6 +44,32 @@ public class Album implements Serializable {
         this.photos = new ArrayList<>();
     }
 
+    /**
+     * Creates an album with the given name and photos, as read from storage.
+     * 
+     * @param name the name of the album
+     * @param photos the photos of the album
+     */
+    Album(String name, List<Photo> photos) {
+        this.name = name;
+        this.photos = photos;
+    }
+
+    /**
+     * Creates an album whose photos are read from its user's catalog when first needed.
+     * 
+     * @param name the name of the album
+     * @param ids the catalog ids of the photos of the album
+     * @param earliest the earliest photo date, or null if the album is empty
+     * @param latest the latest photo date, or null if the album is empty
+     */
+    Album(String name, int[] ids, LocalDateTime earliest, LocalDateTime latest) {
+        this.name = name;
+        this.storedIds = ids;
+        this.storedEarliest = earliest;
+        this.storedLatest = latest;
+    }
+
     /**
      * Returns the name of the album.
      * 
@@ -43,27 +85,122 @@ public class Album implements Serializable {
      * @param name the new name of the album
      */
     public void setName(String name) {
+        String oldName = this.name;
         this.name = name;
+        if (user != null && !name.equals(oldName)) {
+            user.notifyListeners(listener -> listener.albumRenamed(this, oldName));
+        }
     }
 
     /**
      * Returns the list of photos in the album.
+     * The list cannot be modified directly; use {@link #addPhoto(Photo)} and {@link #removePhoto(Photo)}.
      * 
      * @return the list of photos
      */
     public List<Photo> getPhotos() {
-        return photos;
+        return load() ? Collections.unmodifiableList(photos) : Collections.emptyList();
+    }
+
+    /**
+     * Returns the number of photos in the album, without reading the photos.
+     * 
+     * @return the number of photos
+     */
+    public int getPhotoCount() {
+        return photos != null ? photos.size() : storedIds.length;
+    }
+
+    /**
+     * Returns the date of the oldest photo in the album, without reading the photos unless one of
+     * them changed date since they were stored.
+     * 
+     * @return the earliest photo date, or null if the album is empty
+     */
+    public LocalDateTime getEarliestDate() {
+        if (photos == null && !storedDatesChanged) {
+            return storedEarliest;
+        }
+        if (user != null) {
+            return user.getDateIndex().getEarliestDate(this);
+        }
+        LocalDateTime earliest = null;
+        for (Photo photo : photos) {
+            if (earliest == null || photo.getDate().isBefore(earliest)) {
+                earliest = photo.getDate();
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Returns the date of the newest photo in the album, without reading the photos unless one of
+     * them changed date since they were stored.
+     * 
+     * @return the latest photo date, or null if the album is empty
+     */
+    public LocalDateTime getLatestDate() {
+        if (photos == null && !storedDatesChanged) {
+            return storedLatest;
+        }
+        if (user != null) {
+            return user.getDateIndex().getLatestDate(this);
+        }
+        LocalDateTime latest = null;
+        for (Photo photo : photos) {
+            if (latest == null || photo.getDate().isAfter(latest)) {
+                latest = photo.getDate();
+            }
+        }
+        return latest;
     }
 
     /**
      * Adds a photo to the album.
+     * If the user's library already holds the same file, that photo is added instead.
      * 
      * @param photo the photo to add
      */
     public void addPhoto(Photo photo) {
+        if (!load()) {
+            return;
+        }
+        if (user != null) {
+            photo = user.getCatalog().intern(photo);
+        }
         if(!photos.contains(photo)) {
-            photos.add(photo);
+            Photo added = photo;
+            photos.add(added);
+            if (user != null) {
+                user.notifyListeners(listener -> listener.photoAdded(this, added));
+            }
+        }
+    }
+
+    /**
+     * Adds many photos to the album at once, skipping those already in it.
+     * If the user's library already holds the same file, that photo is added instead.
+     * 
+     * @param added the photos to add
+     * @return the number of photos added
+     */
+    public int addPhotos(Collection<Photo> added) {
+        if (!load()) {
+            return 0;
+        }
+        Set<Photo> present = new HashSet<>(photos);
+        int count = 0;
+        for (Photo photo : added) {
+            Photo filed = user != null ? user.getCatalog().intern(photo) : photo;
+            if (present.add(filed)) {
+                photos.add(filed);
+                count++;
+                if (user != null) {
+                    user.notifyListeners(listener -> listener.photoAdded(this, filed));
+                }
+            }
         }
+        return count;
     }
 
     /**
@@ -72,7 +209,12 @@ public class Album implements Serializable {
      * @param photo the photo to remove
      */
     public void removePhoto(Photo photo) {
-        photos.remove(photo);
+        if (!load() || !photos.remove(photo)) {
+            return;
+        }
+        if (user != null) {
+            user.notifyListeners(listener -> listener.photoRemoved(this, photo));
+        }
     }
 
     /**
@@ -85,11 +227,79 @@ public class Album implements Serializable {
     }
 
     /**
-     * Sets the user associated with the album.
+     * Sets the user associated with the album, and files the album's photos in the user's catalog.
      * 
      * @param user the user to set
      */
     public void setUser(User user) {
         this.user = user;
+        if (photos != null && user != null) {
+            Set<Photo> filed = new LinkedHashSet<>();
+            for (Photo photo : photos) {
+                filed.add(user.getCatalog().intern(photo));
+            }
+            photos = new ArrayList<>(filed);
+        }
+    }
+
+    /**
+     * Stops reporting the stored date range if the album holds a photo that changed date and its
+     * photos have not been read. The range is then worked out from the photos when next asked for.
+     * 
+     * @param photo the photo, which already has its new date
+     */
+    synchronized void photoDateChanged(Photo photo) {
+        if (photos != null || storedDatesChanged) {
+            return;
+        }
+        int id = photo.getId();
+        for (int storedId : storedIds) {
+            if (storedId == id) {
+                storedDatesChanged = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the photos of the album have been read.
+     * 
+     * @return true if the photos are in memory
+     */
+    boolean isLoaded() {
+        return photos != null;
+    }
+
+    /**
+     * Returns the catalog ids of the photos of an album whose photos have not been read.
+     * 
+     * @return the stored photo ids
+     */
+    int[] getStoredIds() {
+        return storedIds;
+    }
+
+    /**
+     * Reads the photos of the album from the user's catalog if they have not been read yet.
+     * 
+     * @return true if the photos are available, false if they could not be read
+     */
+    private synchronized boolean load() {
+        if (photos != null) {
+            return true;
+        }
+        Set<Photo> loaded = new LinkedHashSet<>();
+        try {
+            for (int id : storedIds) {
+                loaded.add(user.getCatalog().photo(id));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to read the photos of album " + name);
+            return false;
+        }
+        photos = new ArrayList<>(loaded);
+        storedIds = null;
+        return true;
     }
-}
\ No newline at end of file
+}
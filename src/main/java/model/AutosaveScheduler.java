@@ -0,0 +1,180 @@
+package model;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves a user's journaled changes in the background shortly after they are made.
+ *
+ * <p>Any change to the user's library marks the user dirty. A burst of changes is coalesced into a
+ * single save, written once no further change has arrived for {@link #DEBOUNCE_MILLIS}, or at the
+ * latest {@link #MAX_LATENCY_MILLIS} after the first unsaved change. Saves run on a dedicated
+ * thread and only append the journal, so they never touch the live albums and photos and never
+ * hold up the JavaFX thread.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class AutosaveScheduler implements MutationListener {
+    static final long DEBOUNCE_MILLIS = 2_000;
+    static final long MAX_LATENCY_MILLIS = 10_000;
+    private static final long RETRY_MILLIS = 30_000;
+
+    private static final ScheduledExecutorService saver = createSaver();
+
+    private final User user;
+    private final MutationJournal journal;
+    private boolean dirty;
+    private boolean scheduled;
+    private boolean stopped;
+    private long firstChangeNanos;
+    private long lastChangeNanos;
+
+    /**
+     * Creates a scheduler that saves a user's changes through the given journal.
+     *
+     * @param user the user whose changes are saved
+     * @param journal the journal recording the user's changes
+     */
+    AutosaveScheduler(User user, MutationJournal journal) {
+        this.user = user;
+        this.journal = journal;
+        user.addMutationListener(this);
+    }
+
+    /**
+     * Stops saving changes in the background.
+     */
+    synchronized void stop() {
+        stopped = true;
+        user.removeMutationListener(this);
+    }
+
+    /**
+     * Marks the user dirty and makes sure a save is scheduled.
+     */
+    private synchronized void markDirty() {
+        if (stopped) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (!dirty) {
+            dirty = true;
+            firstChangeNanos = now;
+        }
+        lastChangeNanos = now;
+        if (!scheduled) {
+            scheduled = true;
+            saver.schedule(this::saveIfQuiet, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Saves the changes if the user has stopped editing or the oldest change has waited long enough,
+     * and otherwise checks again later. Runs on the autosave thread.
+     */
+    private void saveIfQuiet() {
+        synchronized (this) {
+            scheduled = false;
+            if (stopped || !dirty) {
+                return;
+            }
+            long now = System.nanoTime();
+            long quietFor = TimeUnit.NANOSECONDS.toMillis(now - lastChangeNanos);
+            long waitingFor = TimeUnit.NANOSECONDS.toMillis(now - firstChangeNanos);
+            if (quietFor < DEBOUNCE_MILLIS && waitingFor < MAX_LATENCY_MILLIS) {
+                long delay = Math.min(DEBOUNCE_MILLIS - quietFor, MAX_LATENCY_MILLIS - waitingFor);
+                scheduled = true;
+                saver.schedule(this::saveIfQuiet, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            dirty = false;
+        }
+
+        try {
+            journal.flush();
+            journal.compactIfNeeded();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Autosave failed for user " + user.getUsername() + ", retrying later.");
+            synchronized (this) {
+                if (!stopped && !dirty) {
+                    dirty = true;
+                    firstChangeNanos = System.nanoTime();
+                }
+                lastChangeNanos = System.nanoTime();
+                if (!stopped && !scheduled) {
+                    scheduled = true;
+                    saver.schedule(this::saveIfQuiet, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the single daemon thread that runs every user's autosaves.
+     *
+     * @return the executor
+     */
+    private static ScheduledExecutorService createSaver() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    @Override
+    public void albumAdded(User user, Album album) {
+        markDirty();
+    }
+
+    @Override
+    public void albumRemoved(User user, Album album) {
+        markDirty();
+    }
+
+    @Override
+    public void albumRenamed(Album album, String oldName) {
+        markDirty();
+    }
+
+    @Override
+    public void photoAdded(Album album, Photo photo) {
+        markDirty();
+    }
+
+    @Override
+    public void photoRemoved(Album album, Photo photo) {
+        markDirty();
+    }
+
+    @Override
+    public void captionChanged(Photo photo, String oldCaption) {
+        markDirty();
+    }
+
+    @Override
+    public void fileChanged(Photo photo) {
+        markDirty();
+    }
+
+    @Override
+    public void perceptualHashChanged(Photo photo) {
+        markDirty();
+    }
+
+    @Override
+    public void tagAdded(Photo photo, Tag tag) {
+        markDirty();
+    }
+
+    @Override
+    public void tagRemoved(Photo photo, Tag tag) {
+        markDirty();
+    }
+}
@@ -0,0 +1,152 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader over a byte array written with {@link BinaryOutput}.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+class BinaryInput {
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+
+    /**
+     * Creates a reader over a whole array.
+     *
+     * @param buf the bytes to read
+     */
+    BinaryInput(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    /**
+     * Creates a reader over part of an array.
+     *
+     * @param buf the bytes to read
+     * @param offset the offset of the first byte
+     * @param length the number of readable bytes
+     */
+    BinaryInput(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Returns the current read position.
+     *
+     * @return the read position
+     */
+    int position() {
+        return pos;
+    }
+
+    /**
+     * Moves the read position, typically to skip the unread tail of a record.
+     *
+     * @param position the new read position
+     * @throws IOException if the position is outside the readable range
+     */
+    void seek(int position) throws IOException {
+        if (position < 0 || position > limit) {
+            throw new EOFException("Record extends past the end of the data");
+        }
+        pos = position;
+    }
+
+    /**
+     * Returns true if there are unread bytes left.
+     *
+     * @return true if more bytes can be read
+     */
+    boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    /**
+     * Reads a single unsigned byte.
+     *
+     * @return the byte value
+     * @throws IOException if there is no byte left
+     */
+    int readByte() throws IOException {
+        if (pos >= limit) {
+            throw new EOFException();
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @return the value
+     * @throws IOException if the varint is truncated or malformed
+     */
+    long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Reads an unsigned varint that must fit in a non-negative int.
+     *
+     * @return the value
+     * @throws IOException if the varint is truncated, malformed or too large
+     */
+    int readVarInt() throws IOException {
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads a zigzag encoded signed varint.
+     *
+     * @return the value
+     * @throws IOException if the varint is truncated or malformed
+     */
+    long readSignedVarLong() throws IOException {
+        long raw = readVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * Reads a big-endian 32-bit integer.
+     *
+     * @return the value
+     * @throws IOException if fewer than four bytes are left
+     */
+    int readInt() throws IOException {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @return the string
+     * @throws IOException if the string is truncated
+     */
+    String readString() throws IOException {
+        int length = readVarInt();
+        if (length > limit - pos) {
+            throw new EOFException("String extends past the end of the data");
+        }
+        String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+}
@@ -0,0 +1,177 @@
+package model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer used by the binary storage format.
+ * Integers are written as unsigned LEB128 varints, signed values are zigzag encoded first.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+class BinaryOutput {
+    private byte[] buf;
+    private int size;
+
+    /**
+     * Creates an empty buffer.
+     */
+    BinaryOutput() {
+        this(256);
+    }
+
+    /**
+     * Creates an empty buffer with the given initial capacity.
+     *
+     * @param capacity the initial capacity in bytes
+     */
+    BinaryOutput(int capacity) {
+        this.buf = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return the number of bytes written
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Discards everything written so far.
+     */
+    void reset() {
+        size = 0;
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param b the byte to write
+     */
+    void writeByte(int b) {
+        ensureCapacity(1);
+        buf[size++] = (byte) b;
+    }
+
+    /**
+     * Writes a byte range.
+     *
+     * @param bytes the source array
+     * @param offset the offset of the first byte to write
+     * @param length the number of bytes to write
+     */
+    void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buf, size, length);
+        size += length;
+    }
+
+    /**
+     * Writes the contents of another buffer.
+     *
+     * @param other the buffer to append
+     */
+    void writeBytes(BinaryOutput other) {
+        writeBytes(other.buf, 0, other.size);
+    }
+
+    /**
+     * Writes a non-negative value as an unsigned varint.
+     *
+     * @param value the value to write
+     */
+    void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a non-negative value as an unsigned varint.
+     *
+     * @param value the value to write
+     */
+    void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Writes a signed value as a zigzag encoded varint, so small negative values stay short.
+     *
+     * @param value the value to write
+     */
+    void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Writes a big-endian 32-bit integer.
+     *
+     * @param value the value to write
+     */
+    void writeInt(int value) {
+        ensureCapacity(4);
+        buf[size++] = (byte) (value >>> 24);
+        buf[size++] = (byte) (value >>> 16);
+        buf[size++] = (byte) (value >>> 8);
+        buf[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a string as a varint byte length followed by its UTF-8 bytes.
+     *
+     * @param value the string to write
+     */
+    void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns a copy of the bytes written so far.
+     *
+     * @return the written bytes
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    /**
+     * Returns the internal array, which is valid up to {@link #size()}.
+     *
+     * @return the internal array
+     */
+    byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Copies the bytes written so far to a stream.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+    }
+
+    /**
+     * Grows the buffer so that it can hold the given number of additional bytes.
+     *
+     * @param extra the number of bytes about to be written
+     */
+    private void ensureCapacity(int extra) {
+        if (size + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+}
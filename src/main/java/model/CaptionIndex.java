@@ -0,0 +1,655 @@
+package model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the photos of a user whose captions contain some text, without reading every caption.
+ *
+ * <p>The index keeps each caption in lower case and, for every run of {@link #GRAM} characters
+ * found in any caption, a {@link PostingList} of the photos whose caption holds it. The captions
+ * holding a word are among those holding every one of its trigrams, so a search intersects the
+ * lists of the word's trigrams, shortest first, and only reads the captions left. Words shorter
+ * than a trigram are looked for in every caption.</p>
+ *
+ * <p>{@link #search(String, Album)} ranks its results: each word of the search scores more for
+ * rarer words and for matching a whole word of the caption, or its start, rather than the middle
+ * of one, and captions holding the words as written together score more again.</p>
+ *
+ * <p>The index is stored with the user data in a {@link SegmentStore segment} of its own, which the
+ * user data file refers to, and is read back the first time it is needed instead of reading every
+ * photo. Once built or read it is kept up to date as a {@link MutationListener} of the user, and
+ * is written again with the user data when it has changed. User data written without an index
+ * gets one the next time it is written, built from its photos.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class CaptionIndex implements MutationListener {
+    /** The length of the runs of characters indexed. */
+    static final int GRAM = 3;
+    private static final byte[] MAGIC = {'P', '0', '5', 'C'};
+    private static final int VERSION = 1;
+    private static final int[] NO_IDS = new int[0];
+    /** The score given to a word found at the start and end of a word of the caption, at its start, and elsewhere. */
+    private static final int WHOLE_WORD = 3;
+    private static final int WORD_START = 2;
+    private static final int INSIDE_WORD = 1;
+
+    private final User user;
+    /** The segments the index was last written to or read from. */
+    private SegmentStore store;
+    /** The segment holding the index as it is now, or null if it changed since it was written. */
+    private String segment;
+    private boolean loaded;
+    /** The number of albums holding each photo, by id. */
+    private int[] albumCounts = NO_IDS;
+    /** The caption of each photo of the library in lower case, by id; null for photos without one. */
+    private String[] captions = new String[0];
+    private int members;
+    private int captioned;
+    private final Map<Long, PostingList> grams = new HashMap<>();
+
+    /**
+     * Creates an empty index of a user's library. It is read or built when first needed.
+     *
+     * @param user the user
+     */
+    CaptionIndex(User user) {
+        this.user = user;
+    }
+
+    /**
+     * Returns the photos whose captions contain every word of a text, in any case, best matches first.
+     *
+     * @param text the words to look for, separated by spaces
+     * @param album the album to search, or null to search the whole library
+     * @return the photos, best match first; ties go to the shorter caption, then to the photo that
+     *         joined the library first. Empty if the text holds no word.
+     */
+    public List<Photo> search(String text, Album album) {
+        return search(text, album, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the best matches among the photos whose captions contain every word of a text, in any case.
+     * Only the photos returned are read from the catalog.
+     *
+     * @param text the words to look for, separated by spaces
+     * @param album the album to search, or null to search the whole library
+     * @param limit the most photos returned
+     * @return the photos, best match first, as ranked by {@link #search(String, Album)}
+     */
+    public synchronized List<Photo> search(String text, Album album, int limit) {
+        load();
+        List<String> words = words(text);
+        if (words.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        int[] ids = match(words, album);
+
+        double[] weights = new double[words.size()];
+        for (int w = 0; w < weights.length; w++) {
+            weights[w] = Math.log(1 + (double) captioned / Math.max(1, estimate(words.get(w))));
+        }
+        String phrase = words.size() > 1 ? String.join(" ", words) : null;
+        double phraseWeight = 0;
+        for (double weight : weights) {
+            phraseWeight += weight;
+        }
+
+        // Sort keys: the score in hundredths, highest first, then the caption length, then the id
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            String caption = captions[ids[i]];
+            double score = 0;
+            for (int w = 0; w < weights.length; w++) {
+                score += weights[w] * wordScore(caption, words.get(w));
+            }
+            if (phrase != null && caption.contains(phrase)) {
+                score += phraseWeight;
+            }
+            long rank = (1L << 20) - 1 - Math.min((1L << 20) - 1, Math.round(score * 100));
+            long length = Math.min(caption.length(), (1 << 11) - 1);
+            keys[i] = rank << 42 | length << 31 | ids[i];
+        }
+        int count = Math.min(limit, keys.length);
+        if (count < keys.length) {
+            selectSmallest(keys, count);
+        }
+        Arrays.sort(keys, 0, count);
+        int[] ranked = new int[count];
+        for (int i = 0; i < count; i++) {
+            ranked[i] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        return user.getCatalog().photos(ranked);
+    }
+
+    /**
+     * Returns the ids of the photos whose captions contain some text, in any case.
+     *
+     * @param text the text to look for, not empty
+     * @param album the album to search, or null to search the whole library
+     * @return the ids, in increasing order
+     */
+    synchronized int[] ids(String text, Album album) {
+        load();
+        return match(List.of(text.toLowerCase(Locale.ROOT)), album);
+    }
+
+    /**
+     * Returns the most photos of the library whose captions can contain some text, without reading any caption.
+     *
+     * @param text the text to look for, in any case
+     * @return the length of the shortest list of the text's trigrams, or the number of photos
+     *         looked at for text shorter than a trigram
+     */
+    synchronized int estimate(String text) {
+        load();
+        String lower = text.toLowerCase(Locale.ROOT);
+        if (lower.length() < GRAM) {
+            return captioned;
+        }
+        int smallest = Integer.MAX_VALUE;
+        for (int i = 0; i + GRAM <= lower.length(); i++) {
+            PostingList list = grams.get(gramAt(lower, i));
+            smallest = Math.min(smallest, list == null ? 0 : list.size());
+        }
+        return smallest;
+    }
+
+    @Override
+    public synchronized void albumAdded(User user, Album album) {
+        if (follows()) {
+            for (Photo photo : album.getPhotos()) {
+                join(photo);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void albumRemoved(User user, Album album) {
+        if (follows()) {
+            for (int id : UserCodec.photoIds(album)) {
+                leave(id);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void photoAdded(Album album, Photo photo) {
+        if (follows()) {
+            join(photo);
+        }
+    }
+
+    @Override
+    public synchronized void photoRemoved(Album album, Photo photo) {
+        if (follows()) {
+            leave(photo.getId());
+        }
+    }
+
+    @Override
+    public synchronized void captionChanged(Photo photo, String oldCaption) {
+        if (follows()) {
+            int id = photo.getId();
+            if (id < albumCounts.length && albumCounts[id] > 0) {
+                unindex(id);
+                index(id, photo.getCaption());
+            }
+        }
+    }
+
+    /**
+     * Records where the index of the user data being decoded is stored. It is read from there
+     * when first needed, or when the user first changes.
+     *
+     * @param store the segments of the user data file
+     * @param segment the segment holding the index
+     */
+    synchronized void setStored(SegmentStore store, String segment) {
+        if (!loaded) {
+            this.store = store;
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * Writes the index to a segment if it changed since it was last written, for the user data
+     * file written next to refer to. An index not read yet is read or built first.
+     *
+     * @param target the segments of the user data file being written
+     * @return the segment holding the index
+     * @throws IOException if the segment cannot be written
+     */
+    synchronized String store(SegmentStore target) throws IOException {
+        if (segment != null && target.sameAs(store) && target.exists(segment)) {
+            return segment;
+        }
+        load();
+        segment = target.write(encode());
+        store = target;
+        return segment;
+    }
+
+    /**
+     * Returns true if the index is stored as it is now, so the user data file can refer to it.
+     *
+     * @return true if the index has a segment matching the user
+     */
+    synchronized boolean isStored() {
+        return segment != null;
+    }
+
+    /**
+     * Prepares the index for a change of the user.
+     *
+     * @return true if the change must be applied to the index; false if the index is not kept yet,
+     *         or was just built from the albums, which already reflect the change
+     */
+    private boolean follows() {
+        if (loaded) {
+            segment = null;
+            return true;
+        }
+        if (segment == null) {
+            return false;
+        }
+        // The stored index matches the user before this change, which is applied to it
+        boolean read = load();
+        segment = null;
+        return read;
+    }
+
+    /**
+     * Reads the index from its segment, or builds it from the user's albums, if not done yet.
+     *
+     * @return true if the index was read from its segment or already loaded, false if it was built
+     */
+    synchronized boolean load() {
+        if (loaded) {
+            return true;
+        }
+        loaded = true;
+        if (segment != null) {
+            try {
+                decode(store.read(segment));
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to read the caption index of " + user.getUsername() + ", rebuilding it");
+                albumCounts = NO_IDS;
+                captions = new String[0];
+                members = 0;
+                captioned = 0;
+                grams.clear();
+                segment = null;
+            }
+        }
+        for (Album album : user.getAlbums()) {
+            for (Photo photo : album.getPhotos()) {
+                join(photo);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ids of the photos whose captions contain every one of some words.
+     *
+     * @param words the words, in lower case
+     * @param album the album to search, or null to search the whole library
+     * @return the ids, in increasing order
+     */
+    private int[] match(List<String> words, Album album) {
+        Set<PostingList> found = new HashSet<>();
+        for (String word : words) {
+            for (int i = 0; i + GRAM <= word.length(); i++) {
+                PostingList list = grams.get(gramAt(word, i));
+                if (list == null) {
+                    return NO_IDS;
+                }
+                found.add(list);
+            }
+        }
+        List<PostingList> lists = new ArrayList<>(found);
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        int[] ids;
+        int next = 0;
+        if (album != null) {
+            ids = UserCodec.photoIds(album).clone();
+            Arrays.sort(ids);
+        } else if (lists.isEmpty()) {
+            ids = captionedPhotos();
+        } else {
+            ids = lists.get(next++).toArray();
+        }
+        for (; next < lists.size() && ids.length > 0; next++) {
+            ids = lists.get(next).intersect(ids);
+        }
+
+        // A word's trigrams can be found apart; only a word of one trigram is certain to be there
+        List<String> unchecked = new ArrayList<>();
+        for (String word : words) {
+            if (word.length() != GRAM) {
+                unchecked.add(word);
+            }
+        }
+        if (unchecked.isEmpty()) {
+            return ids;
+        }
+        int count = 0;
+        for (int id : ids) {
+            if (containsAll(captions[id], unchecked)) {
+                ids[count++] = id;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Returns the ids of the photos of the library with a caption.
+     *
+     * @return the ids, in increasing order
+     */
+    private int[] captionedPhotos() {
+        int[] ids = new int[captioned];
+        int count = 0;
+        for (int id = 0; id < captions.length && count < ids.length; id++) {
+            if (captions[id] != null) {
+                ids[count++] = id;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Counts a photo as held by one more album, indexing its caption if it just joined the library.
+     *
+     * @param photo the photo
+     */
+    private void join(Photo photo) {
+        int id = photo.getId();
+        if (id >= albumCounts.length) {
+            int length = Math.max(id + 1, albumCounts.length * 2);
+            albumCounts = Arrays.copyOf(albumCounts, length);
+            captions = Arrays.copyOf(captions, length);
+        }
+        if (albumCounts[id]++ == 0) {
+            members++;
+            index(id, photo.getCaption());
+        }
+    }
+
+    /**
+     * Counts a photo as held by one album fewer, dropping its caption if it left the library.
+     *
+     * @param id the photo id
+     */
+    private void leave(int id) {
+        if (id < albumCounts.length && albumCounts[id] > 0 && --albumCounts[id] == 0) {
+            members--;
+            unindex(id);
+        }
+    }
+
+    /**
+     * Adds the caption of a photo of the library to the index.
+     *
+     * @param id the photo id
+     * @param caption the caption, or null
+     */
+    private void index(int id, String caption) {
+        if (caption == null || caption.isEmpty()) {
+            return;
+        }
+        String lower = caption.toLowerCase(Locale.ROOT);
+        captions[id] = lower;
+        captioned++;
+        for (int i = 0; i + GRAM <= lower.length(); i++) {
+            Long key = gramAt(lower, i);
+            PostingList list = grams.get(key);
+            if (list == null) {
+                list = new PostingList();
+                grams.put(key, list);
+            }
+            list.add(id);
+        }
+    }
+
+    /**
+     * Removes the caption of a photo from the index.
+     *
+     * @param id the photo id
+     */
+    private void unindex(int id) {
+        String lower = captions[id];
+        if (lower == null) {
+            return;
+        }
+        captions[id] = null;
+        captioned--;
+        for (int i = 0; i + GRAM <= lower.length(); i++) {
+            Long key = gramAt(lower, i);
+            PostingList list = grams.get(key);
+            if (list != null && list.remove(id) && list.isEmpty()) {
+                grams.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Encodes the index: the photos of the library with the number of albums holding each and
+     * their captions, then the photos holding each trigram, as varint deltas.
+     *
+     * @return the encoded bytes
+     */
+    private byte[] encode() {
+        BinaryOutput out = new BinaryOutput(4096);
+        out.writeBytes(MAGIC, 0, MAGIC.length);
+        out.writeVarInt(VERSION);
+        out.writeVarInt(members);
+        int previous = 0;
+        for (int id = 0; id < albumCounts.length; id++) {
+            if (albumCounts[id] > 0) {
+                out.writeVarInt(id - previous);
+                out.writeVarInt(albumCounts[id]);
+                out.writeString(captions[id] != null ? captions[id] : "");
+                previous = id;
+            }
+        }
+        out.writeVarInt(grams.size());
+        for (Map.Entry<Long, PostingList> entry : grams.entrySet()) {
+            int[] ids = entry.getValue().toArray();
+            out.writeSignedVarLong(entry.getKey());
+            out.writeVarInt(ids.length);
+            previous = 0;
+            for (int id : ids) {
+                out.writeVarInt(id - previous);
+                previous = id;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Fills the empty index from its encoded form.
+     *
+     * @param data the bytes written by {@link #encode()}
+     * @throws IOException if the data is not a caption index, is truncated, or uses a newer version
+     */
+    private void decode(byte[] data) throws IOException {
+        BinaryInput in = new BinaryInput(data);
+        for (byte b : MAGIC) {
+            if (!in.hasRemaining() || in.readByte() != (b & 0xFF)) {
+                throw new IOException("Not a caption index");
+            }
+        }
+        int version = in.readVarInt();
+        if (version > VERSION) {
+            throw new IOException("Unsupported caption index version " + version);
+        }
+        int length = Math.max(256, user.getCatalog().getNextId());
+        albumCounts = new int[length];
+        captions = new String[length];
+        int count = in.readVarInt();
+        int id = 0;
+        for (int i = 0; i < count; i++) {
+            id = nextId(in, id, length);
+            int albums = in.readVarInt();
+            String caption = in.readString();
+            if (albums < 1) {
+                throw new IOException("Caption index entry without album: " + id);
+            }
+            albumCounts[id] = albums;
+            members++;
+            if (!caption.isEmpty()) {
+                captions[id] = caption;
+                captioned++;
+            }
+        }
+        int gramCount = in.readVarInt();
+        for (int g = 0; g < gramCount; g++) {
+            long key = in.readSignedVarLong();
+            int[] ids = new int[in.readVarInt()];
+            id = 0;
+            for (int i = 0; i < ids.length; i++) {
+                id = nextId(in, id, length);
+                ids[i] = id;
+            }
+            grams.put(key, new PostingList(ids));
+        }
+    }
+
+    /**
+     * Reads the next of a run of increasing ids stored as deltas.
+     *
+     * @param in the input positioned at the delta
+     * @param previous the previous id, 0 for the first
+     * @param limit the first id out of range
+     * @return the id
+     * @throws IOException if the id is not above the previous one or out of range
+     */
+    private static int nextId(BinaryInput in, int previous, int limit) throws IOException {
+        long id = previous + in.readVarLong();
+        if (id <= previous || id >= limit) {
+            throw new IOException("Caption index id out of range: " + id);
+        }
+        return (int) id;
+    }
+
+    /**
+     * Returns the score of a word found in a caption: whether it is found as a whole word of the
+     * caption, at the start of one, or only inside one.
+     *
+     * @param caption the caption, in lower case
+     * @param word the word, in lower case, held by the caption
+     * @return the best score of any place the word is found
+     */
+    private static int wordScore(String caption, String word) {
+        int best = 0;
+        for (int at = caption.indexOf(word); at >= 0 && best < WHOLE_WORD; at = caption.indexOf(word, at + 1)) {
+            int end = at + word.length();
+            boolean starts = at == 0 || !Character.isLetterOrDigit(caption.charAt(at - 1));
+            boolean ends = end == caption.length() || !Character.isLetterOrDigit(caption.charAt(end));
+            best = Math.max(best, starts ? (ends ? WHOLE_WORD : WORD_START) : INSIDE_WORD);
+        }
+        return best;
+    }
+
+    /**
+     * Moves the smallest keys to the front of an array, in no particular order.
+     *
+     * @param keys the keys
+     * @param count the number of keys to move, less than the length of the array
+     */
+    private static void selectSmallest(long[] keys, int count) {
+        int low = 0;
+        int high = keys.length - 1;
+        while (low < high) {
+            long pivot = keys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long key = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = key;
+                    i++;
+                    j--;
+                }
+            }
+            // Keep partitioning the side holding the boundary, until it falls between the sides
+            if (count - 1 <= j) {
+                high = j;
+            } else if (count - 1 >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns true if a caption holds every one of some words.
+     *
+     * @param caption the caption in lower case, or null
+     * @param words the words in lower case
+     * @return true if every word is found
+     */
+    private static boolean containsAll(String caption, List<String> words) {
+        if (caption == null) {
+            return false;
+        }
+        for (String word : words) {
+            if (!caption.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits a search into its words, in lower case and each once.
+     *
+     * @param text the search
+     * @return the words, in the order written
+     */
+    private static List<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).trim().split("\\s+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return new ArrayList<>(words);
+    }
+
+    /**
+     * Returns the key of the trigram starting at a position of a text.
+     *
+     * @param text the text
+     * @param at the position
+     * @return the three characters packed into a long and multiplied by an odd constant, which
+     *         keeps keys distinct but spreads them over every bit: {@link Long#hashCode()} would
+     *         otherwise fold the first character onto the last and crowd the map's buckets
+     */
+    private static Long gramAt(String text, int at) {
+        return ((long) text.charAt(at) << 32 | (long) text.charAt(at + 1) << 16 | text.charAt(at + 2)) * 0x9E3779B97F4A7C15L;
+    }
+}
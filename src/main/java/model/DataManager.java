@@ -1,37 +1,70 @@
 package model;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Handles serialization and deserialization of user data.
  * 
+ * <p>Once a user has been loaded or saved, its changes are recorded in a journal next to its data file,
+ * and saving the same user again only appends the changes made since the last save. Changes are also
+ * saved in the background shortly after they are made; {@link #shutdown()} writes whatever is left.</p>
+ * 
+ * <p>The photos of a user are kept in the {@link SegmentStore segments} of its {@link PhotoCatalog}, so
+ * loading a user only reads the album summaries, and writing the data file only rewrites the catalog
+ * pages that changed.</p>
+ * 
  * @author Kaileb Cole
  * @author Maxime Deperrois
  */
 public class DataManager {
+    // Journals of the users currently loaded, keyed by the absolute path of their data file
+    private static final Map<String, MutationJournal> journals = new HashMap<>();
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
 
     /**
-     * Save the user to the given file path.
+     * Save the user to the given file path in the binary user data format.
+     * If the user was loaded from or last saved to the same path, only the changes since then are written.
      * 
      * @param user the user to save
      * @param filePath the file path of the user data
      * @throws IOException if the file path is invalid
      */
     public static void saveUser(User user, String filePath) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            out.writeObject(user);
+        File file = new File(filePath).getAbsoluteFile();
+        MutationJournal journal = journalFor(file);
+        if (journal != null && journal.isAttachedTo(user)) {
+            journal.flush();
+            journal.compactIfNeeded();
+        } else {
+            long seq;
+            synchronized (MutationJournal.lockFor(file)) {
+                // Continue the sequence of the file being replaced, so its previous generation still replays correctly
+                seq = journal != null ? journal.lastSeq() : storedJournalSeq(file);
+                if (journal != null) {
+                    journal.detach();
+                }
+                writeSnapshot(user, seq, file);
+                Files.deleteIfExists(MutationJournal.activeFile(file).toPath());
+                Files.deleteIfExists(MutationJournal.sealedFile(file).toPath());
+            }
+            attachJournal(user, file, seq + 1, false);
         }
+        UserIndex.recordSave(file);
     }
 
     /**
-     * Load the user from the given file path.
+     * Load the user from the given file path, replaying any changes journaled since the file was written.
+     * Files written by older versions with Java serialization are still read, and are
+     * converted to the binary format the next time the user is saved.
      * 
      * @param filePath the file path of the user data
      * @return the user loaded from the file
@@ -39,30 +72,235 @@ public class DataManager {
      * @throws ClassNotFoundException if the class of the serialized object cannot be found
      */
     public static User loadUser(String filePath) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filePath))) {
-            return (User) in.readObject();
+        File file = new File(filePath).getAbsoluteFile();
+        MutationJournal previous = journalFor(file);
+        if (previous != null) {
+            // A copy of this user loaded earlier stops journaling; its saved changes are loaded below
+            previous.flush();
+            previous.detach();
         }
+
+        User user;
+        long seq;
+        boolean outdated;
+        synchronized (MutationJournal.lockFor(file)) {
+            byte[] data;
+            boolean recovered = false;
+            try {
+                data = StorageFile.readVerified(file);
+                user = decodeUser(data, file);
+                seq = journalSeqOf(data);
+                // Older files are rewritten with the photos in catalog pages
+                outdated = !UserCodec.isEncoded(data) || UserCodec.readVersion(data) < UserCodec.VERSION;
+            } catch (IOException e) {
+                File fallback = StorageFile.previousGeneration(file);
+                if (!fallback.isFile()) {
+                    throw e;
+                }
+                System.err.println("User data file " + file + " is damaged (" + e.getMessage() + "), recovering from " + fallback);
+                data = StorageFile.readVerified(fallback);
+                user = decodeUser(data, file);
+                seq = MutationJournal.replay(user, MutationJournal.previousFile(file), journalSeqOf(data));
+                outdated = false;
+                recovered = true;
+            }
+            long snapshotSeq = seq;
+            seq = MutationJournal.replay(user, MutationJournal.sealedFile(file), seq);
+            seq = MutationJournal.replay(user, MutationJournal.activeFile(file), seq);
+            // Replaying may have read albums; folding the journal lets the next load skip them again
+            outdated |= seq > snapshotSeq;
+            // Data written without a caption index gets one when it is rewritten
+            outdated |= !user.hasStoredCaptionIndex();
+            // So do catalog pages stored without the hashes that let a lookup skip them
+            outdated |= user.getCatalog().hasPagesWithoutKeyHashes();
+
+            if (recovered) {
+                // Set the damaged file aside and write the recovered library in its place
+                if (file.exists()) {
+                    StorageFile.move(file, new File(file.getPath() + ".damaged"));
+                }
+                writeSnapshot(user, seq, file);
+                Files.deleteIfExists(MutationJournal.sealedFile(file).toPath());
+                Files.deleteIfExists(MutationJournal.activeFile(file).toPath());
+            }
+            new SegmentStore(file).removeUnreferenced(file);
+        }
+        attachJournal(user, file, seq + 1, outdated);
+        return user;
     }
 
     /**
-     * Load all users from the user data directory.
+     * Deletes the user data stored at the given file path, including its journal.
      * 
-     * @param userDir the directory containing user data files
-     * @return a map of usernames to User objects
-     * @throws IOException if an I/O error occurs
-     * @throws ClassNotFoundException if the class of the serialized object cannot be found
+     * @param filePath the file path of the user data
+     * @throws IOException if the files cannot be deleted
      */
-    public static Map<String, User> loadAllUsers(String userDir) throws IOException, ClassNotFoundException {
-        Map<String, User> users = new HashMap<>();
-        File dir = new File(userDir);
-        if (dir.exists() && dir.isDirectory()) {
-            for (File file : dir.listFiles()) {
-                if (file.isFile() && file.getName().endsWith(".dat")) {
-                    User user = loadUser(file.getAbsolutePath());
-                    users.put(user.getUsername(), user);
+    public static void deleteUser(String filePath) throws IOException {
+        File file = new File(filePath).getAbsoluteFile();
+        MutationJournal journal;
+        synchronized (journals) {
+            journal = journals.remove(file.getPath());
+        }
+        if (journal != null) {
+            journal.detach();
+        }
+        synchronized (MutationJournal.lockFor(file)) {
+            Files.deleteIfExists(MutationJournal.activeFile(file).toPath());
+            Files.deleteIfExists(MutationJournal.sealedFile(file).toPath());
+            Files.deleteIfExists(MutationJournal.previousFile(file).toPath());
+            Files.deleteIfExists(StorageFile.previousGeneration(file).toPath());
+            Files.deleteIfExists(file.toPath());
+            SegmentStore.delete(file);
+        }
+    }
+
+    /**
+     * Writes every loaded user's unsaved changes and waits briefly for a running compaction to finish.
+     * Called when the application exits, so background saves are not cut off.
+     */
+    public static void shutdown() {
+        List<MutationJournal> open;
+        synchronized (journals) {
+            open = new ArrayList<>(journals.values());
+        }
+        close(open);
+    }
+
+    /**
+     * Writes the unsaved changes of the users loaded from a directory and waits briefly for their
+     * running compactions to finish. Users loaded from other directories are left alone.
+     * 
+     * @param directory the directory holding the user data files
+     */
+    public static void closeUsers(File directory) {
+        File absolute = directory.getAbsoluteFile();
+        List<MutationJournal> open = new ArrayList<>();
+        synchronized (journals) {
+            for (Map.Entry<String, MutationJournal> entry : journals.entrySet()) {
+                if (absolute.equals(new File(entry.getKey()).getParentFile())) {
+                    open.add(entry.getValue());
                 }
             }
         }
-        return users;
+        close(open);
+    }
+
+    /**
+     * Flushes journals and waits for their compactions, up to {@link #SHUTDOWN_TIMEOUT_MILLIS} in all.
+     * 
+     * @param open the journals to close
+     */
+    private static void close(List<MutationJournal> open) {
+        for (MutationJournal journal : open) {
+            try {
+                journal.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to save changes on exit.");
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_TIMEOUT_MILLIS);
+        try {
+            for (MutationJournal journal : open) {
+                journal.awaitCompacted(deadline);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decodes user data in either the binary format or the older Java serialization format.
+     * 
+     * @param data the contents of a user data file
+     * @param file the user data file, whose segments hold the photos
+     * @return the decoded user
+     * @throws IOException if the data is malformed
+     * @throws ClassNotFoundException if the class of a serialized object cannot be found
+     */
+    static User decodeUser(byte[] data, File file) throws IOException, ClassNotFoundException {
+        if (UserCodec.isEncoded(data)) {
+            return UserCodec.decode(data, new SegmentStore(file));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (User) in.readObject();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last journal record folded into user data.
+     * 
+     * @param data the contents of a user data file
+     * @return the journal sequence number, 0 for data written without a journal
+     * @throws IOException if the data is malformed
+     */
+    static long journalSeqOf(byte[] data) throws IOException {
+        return UserCodec.isEncoded(data) ? UserCodec.readJournalSeq(data) : 0L;
+    }
+
+    /**
+     * Returns the journal sequence number stored in an existing user data file.
+     * 
+     * @param file the user data file
+     * @return the journal sequence number, 0 if the file does not exist or cannot be read
+     */
+    private static long storedJournalSeq(File file) {
+        if (!file.isFile()) {
+            return 0L;
+        }
+        try {
+            return journalSeqOf(StorageFile.readVerified(file));
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Writes a complete user data file atomically, keeping the replaced file as its previous generation.
+     * Only the catalog pages that changed since they were read get new segments, and the caption
+     * index only gets a new one if it changed since it was read, or is built if the user has none.
+     * 
+     * @param user the user to write
+     * @param journalSeq the sequence number of the last journal record reflected in the user
+     * @param file the user data file
+     * @throws IOException if the file cannot be written
+     */
+    static void writeSnapshot(User user, long journalSeq, File file) throws IOException {
+        SegmentStore segments = new SegmentStore(file);
+        List<PhotoCatalog.StoredPage> pages = user.getCatalog().write(user.getAlbums(), segments);
+        String captionSegment = user.storeCaptionIndex(segments);
+        StorageFile.writeAtomically(file, UserCodec.encode(user, journalSeq, pages, captionSegment));
+        user.getCatalog().commit(segments, pages);
+    }
+
+    /**
+     * Returns the journal registered for a user data file.
+     * 
+     * @param file the user data file
+     * @return the journal, or null if none
+     */
+    private static MutationJournal journalFor(File file) {
+        synchronized (journals) {
+            return journals.get(file.getPath());
+        }
+    }
+
+    /**
+     * Starts journaling a user's changes to the given user data file.
+     * 
+     * @param user the user
+     * @param file the user data file
+     * @param nextSeq the sequence number of the next journal record
+     * @param snapshotOutdated true if the data file should be rewritten at the next save
+     */
+    private static void attachJournal(User user, File file, long nextSeq, boolean snapshotOutdated) {
+        MutationJournal journal = new MutationJournal(user, file, nextSeq, snapshotOutdated);
+        MutationJournal replaced;
+        synchronized (journals) {
+            replaced = journals.put(file.getPath(), journal);
+        }
+        if (replaced != null && replaced != journal) {
+            replaced.detach();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,228 @@
+package model;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the photos of a user taken within a range of dates, and the date range of each album,
+ * without comparing the date of every photo.
+ *
+ * <p>The index keeps a {@link DateRun} per album, and one for the whole library: photo ids ordered
+ * by date, so a range search costs two binary searches plus the photos found, and the earliest and
+ * latest dates are the ends of the run. An album's run is built the first time the album is searched
+ * or summarized, from the album's own photos; the library's run is only built, reading every album,
+ * when the whole library is searched.</p>
+ *
+ * <p>Once built, runs are kept up to date as a {@link MutationListener} of the user: photos added
+ * to and removed from albums, albums added and removed, and photos whose date changed.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class DateIndex implements MutationListener {
+    private final User user;
+    private final Map<Album, DateRun> byAlbum = new IdentityHashMap<>();
+    /** Every photo of the library, or null until the whole library is searched. */
+    private DateRun library;
+    /** The number of albums holding each photo, by id, while the library's run is kept. */
+    private int[] albumCounts;
+
+    /**
+     * Creates an empty index of a user's library. Runs are built when first needed.
+     *
+     * @param user the user
+     */
+    DateIndex(User user) {
+        this.user = user;
+    }
+
+    /**
+     * Returns the photos dated within a range, as given by {@link Photo#getDate()}.
+     *
+     * @param from the earliest date included
+     * @param to the latest date included
+     * @param album the album to search, or null to search the whole library
+     * @return the photos, oldest first
+     */
+    public synchronized List<Photo> find(LocalDateTime from, LocalDateTime to, Album album) {
+        DateRun run = album != null ? runOf(album) : library();
+        return user.getCatalog().photos(run.range(keyOf(from), keyOf(to)));
+    }
+
+    /**
+     * Returns the date of the oldest photo in an album.
+     *
+     * @param album the album
+     * @return the earliest photo date, or null if the album is empty
+     */
+    public synchronized LocalDateTime getEarliestDate(Album album) {
+        DateRun run = runOf(album);
+        return run.isEmpty() ? null : UserCodec.fromEpochMillis(run.first());
+    }
+
+    /**
+     * Returns the date of the newest photo in an album.
+     *
+     * @param album the album
+     * @return the latest photo date, or null if the album is empty
+     */
+    public synchronized LocalDateTime getLatestDate(Album album) {
+        DateRun run = runOf(album);
+        return run.isEmpty() ? null : UserCodec.fromEpochMillis(run.last());
+    }
+
+    /**
+     * Returns the number of photos dated within a range, without reading them.
+     *
+     * @param from the earliest date included, in epoch milliseconds
+     * @param to the latest date included, in epoch milliseconds
+     * @param album the album to search, or null to search the whole library
+     * @return the number of photos
+     */
+    synchronized int count(long from, long to, Album album) {
+        return (album != null ? runOf(album) : library()).count(from, to);
+    }
+
+    /**
+     * Returns the ids of the photos dated within a range.
+     *
+     * @param from the earliest date included, in epoch milliseconds
+     * @param to the latest date included, in epoch milliseconds
+     * @param album the album to search, or null to search the whole library
+     * @return the ids, oldest photo first
+     */
+    synchronized int[] ids(long from, long to, Album album) {
+        return (album != null ? runOf(album) : library()).range(from, to);
+    }
+
+    @Override
+    public synchronized void albumAdded(User user, Album album) {
+        if (library != null) {
+            for (Photo photo : album.getPhotos()) {
+                join(photo);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void albumRemoved(User user, Album album) {
+        byAlbum.remove(album);
+        if (library != null) {
+            for (Photo photo : album.getPhotos()) {
+                leave(photo);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void photoAdded(Album album, Photo photo) {
+        DateRun run = byAlbum.get(album);
+        if (run != null) {
+            run.add(photo.getId(), keyOf(photo.getDate()));
+        }
+        if (library != null) {
+            join(photo);
+        }
+    }
+
+    @Override
+    public synchronized void photoRemoved(Album album, Photo photo) {
+        DateRun run = byAlbum.get(album);
+        if (run != null) {
+            run.remove(photo.getId(), keyOf(photo.getDate()));
+        }
+        if (library != null) {
+            leave(photo);
+        }
+    }
+
+    @Override
+    public synchronized void dateChanged(Photo photo, LocalDateTime oldDate) {
+        long oldKey = keyOf(oldDate);
+        long newKey = keyOf(photo.getDate());
+        for (DateRun run : byAlbum.values()) {
+            if (run.remove(photo.getId(), oldKey)) {
+                run.add(photo.getId(), newKey);
+            }
+        }
+        if (library != null && library.remove(photo.getId(), oldKey)) {
+            library.add(photo.getId(), newKey);
+        }
+    }
+
+    /**
+     * Returns the run of an album, building it from the album's photos if needed.
+     *
+     * @param album the album
+     * @return the run
+     */
+    private DateRun runOf(Album album) {
+        DateRun run = byAlbum.get(album);
+        if (run == null) {
+            run = new DateRun();
+            for (Photo photo : album.getPhotos()) {
+                run.add(photo.getId(), keyOf(photo.getDate()));
+            }
+            byAlbum.put(album, run);
+        }
+        return run;
+    }
+
+    /**
+     * Returns the run of the whole library, building it from every album if needed.
+     *
+     * @return the run
+     */
+    private DateRun library() {
+        if (library == null) {
+            library = new DateRun();
+            albumCounts = new int[Math.max(256, user.getCatalog().size() + 1)];
+            for (Album album : user.getAlbums()) {
+                for (Photo photo : album.getPhotos()) {
+                    join(photo);
+                }
+            }
+        }
+        return library;
+    }
+
+    /**
+     * Counts a photo as held by one more album, adding it to the library's run if it just joined the library.
+     *
+     * @param photo the photo
+     */
+    private void join(Photo photo) {
+        int id = photo.getId();
+        if (id >= albumCounts.length) {
+            albumCounts = Arrays.copyOf(albumCounts, Math.max(id + 1, albumCounts.length * 2));
+        }
+        if (albumCounts[id]++ == 0) {
+            library.add(id, keyOf(photo.getDate()));
+        }
+    }
+
+    /**
+     * Counts a photo as held by one album fewer, removing it from the library's run if it left the library.
+     *
+     * @param photo the photo
+     */
+    private void leave(Photo photo) {
+        int id = photo.getId();
+        if (id < albumCounts.length && albumCounts[id] > 0 && --albumCounts[id] == 0) {
+            library.remove(id, keyOf(photo.getDate()));
+        }
+    }
+
+    /**
+     * Returns the key a date is indexed under.
+     *
+     * @param date the date
+     * @return the epoch milliseconds, as stored
+     */
+    private static long keyOf(LocalDateTime date) {
+        return UserCodec.toEpochMillis(date);
+    }
+}
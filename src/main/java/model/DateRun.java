@@ -0,0 +1,234 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Catalog photo ids ordered by date, as kept by the {@link DateIndex} for the library and for each album.
+ *
+ * <p>Dates are kept as epoch milliseconds in a sorted primitive array beside the ids, so a range of
+ * dates is found with two binary searches. Photos added and removed are buffered and merged into the
+ * arrays the next time they are read: importing or deleting many photos costs one merge, not one
+ * array shift per photo.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class DateRun {
+    private static final long[] NO_KEYS = new long[0];
+    private static final int[] NO_IDS = new int[0];
+
+    private long[] keys = NO_KEYS;
+    private int[] ids = NO_IDS;
+    private int size;
+    /** Photos added since the last merge, in no particular order. */
+    private long[] addedKeys = NO_KEYS;
+    private int[] addedIds = NO_IDS;
+    private int added;
+    /** Ids of merged photos removed since the last merge. */
+    private final PostingList removed = new PostingList();
+
+    /**
+     * Adds a photo.
+     *
+     * @param id the photo id
+     * @param key the date of the photo in epoch milliseconds
+     */
+    void add(int id, long key) {
+        if (added == addedIds.length) {
+            addedKeys = Arrays.copyOf(addedKeys, Math.max(8, added * 2));
+            addedIds = Arrays.copyOf(addedIds, addedKeys.length);
+        }
+        addedKeys[added] = key;
+        addedIds[added] = id;
+        added++;
+    }
+
+    /**
+     * Removes a photo.
+     *
+     * @param id the photo id
+     * @param key the date the photo was added with, in epoch milliseconds
+     * @return true if the photo was in the run
+     */
+    boolean remove(int id, long key) {
+        for (int i = added - 1; i >= 0; i--) {
+            if (addedIds[i] == id) {
+                added--;
+                addedKeys[i] = addedKeys[added];
+                addedIds[i] = addedIds[added];
+                return true;
+            }
+        }
+        for (int i = lowerBound(key); i < size && keys[i] == key; i++) {
+            if (ids[i] == id) {
+                return removed.add(id);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of photos.
+     *
+     * @return the size of the run
+     */
+    int size() {
+        return size - removed.size() + added;
+    }
+
+    /**
+     * Returns true if the run holds no photo.
+     *
+     * @return true if the run is empty
+     */
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the earliest date. The run must not be empty.
+     *
+     * @return the date in epoch milliseconds
+     */
+    long first() {
+        merge();
+        return keys[0];
+    }
+
+    /**
+     * Returns the latest date. The run must not be empty.
+     *
+     * @return the date in epoch milliseconds
+     */
+    long last() {
+        merge();
+        return keys[size - 1];
+    }
+
+    /**
+     * Returns the photos dated within a range.
+     *
+     * @param from the earliest date included, in epoch milliseconds
+     * @param to the latest date included, in epoch milliseconds
+     * @return the photo ids, oldest first
+     */
+    int[] range(long from, long to) {
+        merge();
+        if (from > to) {
+            return NO_IDS;
+        }
+        int start = lowerBound(from);
+        int end = to == Long.MAX_VALUE ? size : lowerBound(to + 1);
+        return Arrays.copyOfRange(ids, start, end);
+    }
+
+    /**
+     * Returns the number of photos dated within a range.
+     *
+     * @param from the earliest date included, in epoch milliseconds
+     * @param to the latest date included, in epoch milliseconds
+     * @return the number of photos
+     */
+    int count(long from, long to) {
+        merge();
+        if (from > to) {
+            return 0;
+        }
+        int end = to == Long.MAX_VALUE ? size : lowerBound(to + 1);
+        return end - lowerBound(from);
+    }
+
+    /**
+     * Returns the position of the first merged photo dated at or after a date.
+     *
+     * @param key the date in epoch milliseconds
+     * @return the position, or the size if every photo is older
+     */
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Merges the buffered additions and removals into the sorted arrays.
+     */
+    private void merge() {
+        if (added == 0 && removed.isEmpty()) {
+            return;
+        }
+        sortAdded(0, added - 1);
+        int total = size();
+        long[] mergedKeys = new long[total];
+        int[] mergedIds = new int[total];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < added) {
+            if (i < size && removed.contains(ids[i])) {
+                i++;
+            } else if (j == added || (i < size && keys[i] <= addedKeys[j])) {
+                mergedKeys[count] = keys[i];
+                mergedIds[count++] = ids[i++];
+            } else {
+                mergedKeys[count] = addedKeys[j];
+                mergedIds[count++] = addedIds[j++];
+            }
+        }
+        keys = mergedKeys;
+        ids = mergedIds;
+        size = count;
+        added = 0;
+        addedKeys = NO_KEYS;
+        addedIds = NO_IDS;
+        removed.clear();
+    }
+
+    /**
+     * Sorts a slice of the buffered additions by date.
+     *
+     * @param low the first position
+     * @param high the last position
+     */
+    private void sortAdded(int low, int high) {
+        while (low < high) {
+            long pivot = addedKeys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (addedKeys[i] < pivot) {
+                    i++;
+                }
+                while (addedKeys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long key = addedKeys[i];
+                    addedKeys[i] = addedKeys[j];
+                    addedKeys[j] = key;
+                    int id = addedIds[i];
+                    addedIds[i] = addedIds[j];
+                    addedIds[j] = id;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller side so the stack stays shallow
+            if (j - low < high - i) {
+                sortAdded(low, j);
+                low = i;
+            } else {
+                sortAdded(i, high);
+                high = j;
+            }
+        }
+    }
+}
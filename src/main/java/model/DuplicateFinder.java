@@ -0,0 +1,139 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds photos that are copies of the same shot, such as the same photo imported at another size
+ * or re-encoded, by comparing their perceptual hashes.
+ *
+ * <p>The hashes are indexed in a {@link HashIndex}, so finding the copies of one photo reads only a
+ * small part of the library, and a report over the whole library makes one such search per photo
+ * instead of comparing every pair. Photos that have not been hashed yet are left out. A finder is
+ * not thread-safe.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class DuplicateFinder {
+    private final List<Photo> photos = new ArrayList<>();
+    private final HashIndex index;
+
+    /**
+     * Indexes the hashed photos among the given photos, each photo once.
+     *
+     * @param photos the photos to search among
+     */
+    public DuplicateFinder(Collection<Photo> photos) {
+        Set<Photo> seen = new HashSet<>();
+        for (Photo photo : photos) {
+            if (photo.hasPerceptualHash() && seen.add(photo)) {
+                this.photos.add(photo);
+            }
+        }
+        long[] hashes = new long[this.photos.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = this.photos.get(i).getPerceptualHash();
+        }
+        index = new HashIndex(hashes);
+    }
+
+    /**
+     * Returns the number of photos searched, which excludes photos not hashed yet.
+     *
+     * @return the number of indexed photos
+     */
+    public int size() {
+        return photos.size();
+    }
+
+    /**
+     * Returns the photos whose hash is within the given distance of a photo's hash, nearest first.
+     *
+     * @param photo the photo, which must be hashed
+     * @param maxDistance the largest number of differing bits, usually {@link PerceptualHash#DUPLICATE_DISTANCE}
+     * @return the similar photos, without the photo itself
+     */
+    public List<Photo> similarTo(Photo photo, int maxDistance) {
+        if (!photo.hasPerceptualHash()) {
+            return new ArrayList<>();
+        }
+        long hash = photo.getPerceptualHash();
+        List<Photo> similar = new ArrayList<>();
+        for (int position : index.within(hash, maxDistance)) {
+            if (!photos.get(position).equals(photo)) {
+                similar.add(photos.get(position));
+            }
+        }
+        similar.sort(Comparator.comparingInt(other -> PerceptualHash.distance(hash, other.getPerceptualHash())));
+        return similar;
+    }
+
+    /**
+     * Groups the photos that are copies of each other. Two photos are in the same group if a chain
+     * of photos within the given distance of each other joins them.
+     *
+     * @param maxDistance the largest number of differing bits, usually {@link PerceptualHash#DUPLICATE_DISTANCE}
+     * @return the groups of two or more photos, largest first
+     */
+    public List<List<Photo>> groups(int maxDistance) {
+        int[] parents = new int[photos.size()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < photos.size(); i++) {
+            for (int other : index.within(photos.get(i).getPerceptualHash(), maxDistance)) {
+                union(parents, i, other);
+            }
+        }
+
+        Map<Integer, List<Photo>> byRoot = new LinkedHashMap<>();
+        for (int i = 0; i < photos.size(); i++) {
+            byRoot.computeIfAbsent(find(parents, i), root -> new ArrayList<>()).add(photos.get(i));
+        }
+        List<List<Photo>> groups = new ArrayList<>();
+        for (List<Photo> group : byRoot.values()) {
+            if (group.size() > 1) {
+                groups.add(group);
+            }
+        }
+        groups.sort(Comparator.comparingInt((List<Photo> group) -> group.size()).reversed());
+        return groups;
+    }
+
+    /**
+     * Joins the groups of two photos.
+     *
+     * @param parents the parent of each photo's position
+     * @param a the position of a photo
+     * @param b the position of another photo
+     */
+    private static void union(int[] parents, int a, int b) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        if (rootA != rootB) {
+            parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    /**
+     * Finds the position representing a photo's group, shortening the path on the way.
+     *
+     * @param parents the parent of each photo's position
+     * @param position the position of a photo
+     * @return the position of the group's representative
+     */
+    private static int find(int[] parents, int position) {
+        while (parents[position] != position) {
+            parents[position] = parents[parents[position]];
+            position = parents[position];
+        }
+        return position;
+    }
+}
@@ -0,0 +1,118 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Photo store keeping each user in a data file of its own, named after the user, in one directory.
+ * Files are read and written through {@link DataManager} and listed through a {@link UserIndex}.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public class FilePhotoStore implements PhotoStore {
+    private final File directory;
+    private final UserIndex index;
+    private final String pinnedUsername;
+    private final String pinnedFileName;
+
+    /**
+     * Creates a store over a directory of user data files.
+     *
+     * @param directory the directory holding the user data files
+     */
+    public FilePhotoStore(String directory) {
+        this(directory, null, null);
+    }
+
+    /**
+     * Creates a store over a directory of user data files, where one user's file has a name of its own,
+     * such as the stock user kept in stockUser.dat.
+     *
+     * @param directory the directory holding the user data files
+     * @param pinnedUsername the user whose file is named differently
+     * @param pinnedFileName the name of that user's data file
+     */
+    public FilePhotoStore(String directory, String pinnedUsername, String pinnedFileName) {
+        this.directory = new File(directory).getAbsoluteFile();
+        this.index = UserIndex.forDirectory(directory);
+        this.pinnedUsername = pinnedUsername;
+        this.pinnedFileName = pinnedFileName;
+    }
+
+    /**
+     * Returns the data file of a user.
+     *
+     * @param username the user name
+     * @return the user's data file, which may not exist
+     */
+    public File fileOf(String username) {
+        if (username.equals(pinnedUsername)) {
+            return new File(directory, pinnedFileName);
+        }
+        return new File(directory, username + ".dat");
+    }
+
+    @Override
+    public boolean contains(String username) {
+        return index.contains(indexNameOf(username));
+    }
+
+    @Override
+    public Set<String> getUsernames() {
+        if (pinnedUsername == null) {
+            return index.getUsernames();
+        }
+        String pinnedIndexName = indexNameOf(pinnedUsername);
+        Set<String> usernames = new TreeSet<>();
+        for (String name : index.getUsernames()) {
+            usernames.add(name.equals(pinnedIndexName) ? pinnedUsername : name);
+        }
+        return Collections.unmodifiableSet(usernames);
+    }
+
+    @Override
+    public User loadUser(String username) throws IOException {
+        if (!contains(username)) {
+            return null;
+        }
+        try {
+            return DataManager.loadUser(fileOf(username).getPath());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable data file for user " + username, e);
+        }
+    }
+
+    @Override
+    public void saveUser(User user) throws IOException {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        DataManager.saveUser(user, fileOf(user.getUsername()).getPath());
+    }
+
+    @Override
+    public void deleteUser(String username) throws IOException {
+        DataManager.deleteUser(fileOf(username).getPath());
+        index.remove(indexNameOf(username));
+    }
+
+    @Override
+    public void close() {
+        // Only the users of this directory; the other stores close their own
+        DataManager.closeUsers(directory);
+    }
+
+    /**
+     * Returns the name under which the index lists a user, which is the name of the user's data file.
+     *
+     * @param username the user name
+     * @return the name in the index
+     */
+    private String indexNameOf(String username) {
+        return UserIndex.usernameOf(fileOf(username));
+    }
+}
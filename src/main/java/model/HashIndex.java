@@ -0,0 +1,130 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * An index of 64-bit hashes that finds every hash within a given number of differing bits of
+ * another hash, without comparing against every hash in the index.
+ *
+ * <p>Each hash is split into {@link #CHUNKS} chunks of 16 bits, and each chunk position has a table
+ * from chunk value to the hashes holding it. Two hashes that differ in at most {@code r} bits differ
+ * in at most {@code r / 4} bits in one of their chunks, so a search only looks up the chunk values
+ * within that many bits of the query's chunks, and compares the full hashes of what it finds. For
+ * the small radius used to find duplicates this reads a handful of entries per table, where a tree
+ * over the hashes would still visit most of its nodes.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class HashIndex {
+    private static final int CHUNKS = 4;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_VALUES = 1 << CHUNK_BITS;
+    private static final int[][] masksByBits = new int[CHUNK_BITS + 1][];
+
+    private final long[] hashes;
+    /** For each chunk position, where the positions of each chunk value start in {@link #entries}. */
+    private final int[][] starts = new int[CHUNKS][];
+    /** For each chunk position, the positions of the hashes, ordered by chunk value. */
+    private final int[][] entries = new int[CHUNKS][];
+    private final int[] seen;
+    private int stamp;
+
+    /**
+     * Indexes hashes. Searches return positions in the given array.
+     *
+     * @param hashes the hashes
+     */
+    HashIndex(long[] hashes) {
+        this.hashes = hashes;
+        this.seen = new int[hashes.length];
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            int[] start = new int[CHUNK_VALUES + 1];
+            for (long hash : hashes) {
+                start[chunkOf(hash, chunk) + 1]++;
+            }
+            for (int value = 0; value < CHUNK_VALUES; value++) {
+                start[value + 1] += start[value];
+            }
+            int[] next = Arrays.copyOf(start, CHUNK_VALUES);
+            int[] entry = new int[hashes.length];
+            for (int i = 0; i < hashes.length; i++) {
+                entry[next[chunkOf(hashes[i], chunk)]++] = i;
+            }
+            starts[chunk] = start;
+            entries[chunk] = entry;
+        }
+    }
+
+    /**
+     * Returns the positions of the hashes within the given distance of a hash. Not thread-safe.
+     *
+     * @param hash the hash to search around
+     * @param radius the largest number of differing bits to include
+     * @return the positions found, in no particular order
+     */
+    int[] within(long hash, int radius) {
+        if (++stamp == 0) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        int[] found = new int[8];
+        int count = 0;
+        int[] masks = masks(Math.min(CHUNK_BITS, radius / CHUNKS));
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            int value = chunkOf(hash, chunk);
+            int[] start = starts[chunk];
+            int[] entry = entries[chunk];
+            for (int mask : masks) {
+                int key = value ^ mask;
+                for (int e = start[key]; e < start[key + 1]; e++) {
+                    int position = entry[e];
+                    if (seen[position] == stamp) {
+                        continue;
+                    }
+                    seen[position] = stamp;
+                    if (PerceptualHash.distance(hash, hashes[position]) <= radius) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = position;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Returns one chunk of a hash.
+     *
+     * @param hash the hash
+     * @param chunk the chunk position
+     * @return the chunk value
+     */
+    private static int chunkOf(long hash, int chunk) {
+        return (int) (hash >>> (chunk * CHUNK_BITS)) & (CHUNK_VALUES - 1);
+    }
+
+    /**
+     * Returns every chunk value with at most the given number of bits set, to flip a chunk by.
+     *
+     * @param bits the largest number of bits set
+     * @return the masks
+     */
+    private static int[] masks(int bits) {
+        synchronized (masksByBits) {
+            if (masksByBits[bits] == null) {
+                int[] masks = new int[CHUNK_VALUES];
+                int count = 0;
+                for (int mask = 0; mask < CHUNK_VALUES; mask++) {
+                    if (Integer.bitCount(mask) <= bits) {
+                        masks[count++] = mask;
+                    }
+                }
+                masksByBits[bits] = Arrays.copyOf(masks, count);
+            }
+            return masksByBits[bits];
+        }
+    }
+}
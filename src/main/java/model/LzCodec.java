@@ -0,0 +1,198 @@
+package model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 compression in the style of LZ4, trading compression ratio for speed.
+ *
+ * <p>The output is a series of sequences. Each sequence starts with a token byte whose high
+ * four bits hold the number of literals and whose low four bits hold the match length minus
+ * {@link #MIN_MATCH}; a nibble of 15 means more length bytes follow, each added to it until one
+ * is below 255. The literals come next, then the match offset as two little-endian bytes.
+ * The last sequence only has literals.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class LzCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 14;
+
+    /**
+     * Not instantiable.
+     */
+    private LzCodec() {
+    }
+
+    /**
+     * Compresses a byte range.
+     *
+     * @param src the bytes to compress
+     * @param offset the offset of the range
+     * @param length the length of the range
+     * @return the compressed bytes
+     */
+    static byte[] compress(byte[] src, int offset, int length) {
+        BinaryOutput out = new BinaryOutput(length / 2 + 16);
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        int end = offset + length;
+        int matchLimit = end - MIN_MATCH;
+        int anchor = offset;
+        int pos = offset;
+        while (pos <= matchLimit) {
+            int hash = hash(src, pos);
+            int candidate = table[hash];
+            table[hash] = pos;
+            if (candidate < 0 || pos - candidate > MAX_OFFSET || !matches(src, candidate, pos)) {
+                pos++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (pos + matchLength < end && src[candidate + matchLength] == src[pos + matchLength]) {
+                matchLength++;
+            }
+            writeSequence(out, src, anchor, pos - anchor, pos - candidate, matchLength);
+            pos += matchLength;
+            anchor = pos;
+        }
+        writeSequence(out, src, anchor, end - anchor, 0, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses bytes written by {@link #compress(byte[], int, int)}.
+     *
+     * @param src the compressed bytes
+     * @param offset the offset of the compressed bytes
+     * @param length the length of the compressed bytes
+     * @param rawLength the length of the original bytes
+     * @return the original bytes
+     * @throws IOException if the compressed bytes are malformed
+     */
+    static byte[] decompress(byte[] src, int offset, int length, int rawLength) throws IOException {
+        byte[] dst = new byte[rawLength];
+        int end = offset + length;
+        int in = offset;
+        int out = 0;
+        try {
+            while (in < end) {
+                int token = src[in++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, in, dst, out, literals);
+                in += literals;
+                out += literals;
+                if (in >= end) {
+                    break;
+                }
+
+                int distance = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+                in += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int from = out - distance;
+                if (distance == 0 || from < 0 || out + matchLength > rawLength) {
+                    throw new IOException("Malformed compressed data");
+                }
+                if (distance >= matchLength) {
+                    System.arraycopy(dst, from, dst, out, matchLength);
+                    out += matchLength;
+                } else {
+                    // The match overlaps the bytes it produces, so it is copied byte by byte
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[out++] = dst[from + i];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed compressed data", e);
+        }
+        if (out != rawLength) {
+            throw new IOException("Malformed compressed data");
+        }
+        return dst;
+    }
+
+    /**
+     * Writes one sequence of literals followed by a match.
+     *
+     * @param out the output
+     * @param src the source bytes
+     * @param literalStart the offset of the literals
+     * @param literals the number of literals
+     * @param distance the distance back to the match, unused for the last sequence
+     * @param matchLength the length of the match, 0 for the last sequence
+     */
+    private static void writeSequence(BinaryOutput out, byte[] src, int literalStart, int literals, int distance, int matchLength) {
+        int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+        out.writeByte(Math.min(literals, 15) << 4 | Math.min(matchCode, 15));
+        if (literals >= 15) {
+            writeLength(out, literals - 15);
+        }
+        out.writeBytes(src, literalStart, literals);
+        if (matchLength == 0) {
+            return;
+        }
+        out.writeByte(distance & 0xFF);
+        out.writeByte(distance >>> 8);
+        if (matchCode >= 15) {
+            writeLength(out, matchCode - 15);
+        }
+    }
+
+    /**
+     * Writes the part of a length that does not fit in its token nibble.
+     *
+     * @param out the output
+     * @param remaining the rest of the length
+     */
+    private static void writeLength(BinaryOutput out, int remaining) {
+        while (remaining >= 255) {
+            out.writeByte(255);
+            remaining -= 255;
+        }
+        out.writeByte(remaining);
+    }
+
+    /**
+     * Returns true if the four bytes at two positions are equal.
+     *
+     * @param src the bytes
+     * @param a the first position
+     * @param b the second position
+     * @return true if the bytes match
+     */
+    private static boolean matches(byte[] src, int a, int b) {
+        return src[a] == src[b] && src[a + 1] == src[b + 1] && src[a + 2] == src[b + 2] && src[a + 3] == src[b + 3];
+    }
+
+    /**
+     * Hashes the four bytes at a position.
+     *
+     * @param src the bytes
+     * @param pos the position
+     * @return the hash table slot
+     */
+    private static int hash(byte[] src, int pos) {
+        int value = (src[pos] & 0xFF) | (src[pos + 1] & 0xFF) << 8 | (src[pos + 2] & 0xFF) << 16 | (src[pos + 3] & 0xFF) << 24;
+        return (value * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
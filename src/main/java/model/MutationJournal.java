@@ -0,0 +1,690 @@
+package model;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of the changes made to a user's library since its data file was last written.
+ *
+ * <p>The journal listens to the user's albums and photos and encodes each change as a small
+ * record, so saving costs work proportional to what changed rather than to the size of the
+ * library. Every record carries a sequence number; the data file stores the number of the last
+ * record folded into it, so a record is never applied twice.</p>
+ *
+ * <p>When the journal grows to a sizeable fraction of the data file it is sealed and folded into
+ * a new data file on a background thread. Folding works from the files on disk, not from the
+ * live objects, so the user can keep editing while it runs. Loading reads the data file and then
+ * replays the sealed journal, if any, and the active journal.</p>
+ *
+ * <p>Each record is stored with a CRC-32C checksum and every flush is forced to disk. Replay stops
+ * at the first damaged or incomplete record. After a successful fold the sealed journal is kept as
+ * the previous journal, which together with the previous generation of the data file allows the
+ * library to be recovered if the current data file is ever damaged.</p>
+ *
+ * <p>Changes are flushed by the explicit saves in {@link DataManager} and, in between, by an
+ * {@link AutosaveScheduler} on a background thread.</p>
+ *
+ * <p>Photos are identified in records by their file path and albums by their name.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class MutationJournal implements MutationListener {
+    private static final int ALBUM_ADDED = 1;
+    private static final int ALBUM_REMOVED = 2;
+    private static final int ALBUM_RENAMED = 3;
+    private static final int PHOTO_ADDED = 4;
+    private static final int PHOTO_REMOVED = 5;
+    private static final int CAPTION_CHANGED = 6;
+    private static final int TAG_ADDED = 7;
+    private static final int TAG_REMOVED = 8;
+    private static final int PERCEPTUAL_HASH_SET = 9;
+    private static final int FILE_CHANGED = 10;
+
+    // The journal is folded once it reaches half the size of the data file, and never below this size
+    private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Serializes whole-file operations (load, full save, compaction) on the same data file
+    private static final Map<String, Object> fileLocks = new ConcurrentHashMap<>();
+
+    private final User user;
+    private final File snapshotFile;
+    private final File activeFile;
+    private final File sealedFile;
+    private final BinaryOutput record = new BinaryOutput();
+    private final AutosaveScheduler autosave;
+    // Serializes flushes and sealing, so the journal file is never renamed while it is being appended to
+    private final Object flushLock = new Object();
+    private BinaryOutput pending = new BinaryOutput();
+    private BinaryOutput flushing = new BinaryOutput();
+    private long nextSeq;
+    private long journalBytes;
+    private boolean attached = true;
+    private boolean compacting;
+    private boolean snapshotOutdated;
+
+    /**
+     * Creates a journal for a user and starts recording the user's changes.
+     *
+     * @param user the user whose changes are recorded
+     * @param snapshotFile the user's data file
+     * @param nextSeq the sequence number of the next record
+     * @param snapshotOutdated true if the data file should be rewritten at the next save regardless of the journal size
+     */
+    MutationJournal(User user, File snapshotFile, long nextSeq, boolean snapshotOutdated) {
+        this.user = user;
+        this.snapshotFile = snapshotFile;
+        this.activeFile = activeFile(snapshotFile);
+        this.sealedFile = sealedFile(snapshotFile);
+        this.nextSeq = nextSeq;
+        this.journalBytes = activeFile.length();
+        this.snapshotOutdated = snapshotOutdated;
+        user.addMutationListener(this);
+        this.autosave = new AutosaveScheduler(user, this);
+    }
+
+    /**
+     * Returns the journal file that receives new records for a data file.
+     *
+     * @param snapshotFile the user's data file
+     * @return the active journal file
+     */
+    static File activeFile(File snapshotFile) {
+        return new File(snapshotFile.getPath() + ".journal");
+    }
+
+    /**
+     * Returns the journal file that is being folded into a data file.
+     *
+     * @param snapshotFile the user's data file
+     * @return the sealed journal file
+     */
+    static File sealedFile(File snapshotFile) {
+        return new File(snapshotFile.getPath() + ".journal.sealed");
+    }
+
+    /**
+     * Returns the journal file that was folded into the current data file, kept for recovery.
+     *
+     * @param snapshotFile the user's data file
+     * @return the previous journal file
+     */
+    static File previousFile(File snapshotFile) {
+        return new File(snapshotFile.getPath() + ".journal.prev");
+    }
+
+    /**
+     * Returns the lock that serializes whole-file operations on a data file.
+     *
+     * @param snapshotFile the user's data file
+     * @return the lock object
+     */
+    static Object lockFor(File snapshotFile) {
+        return fileLocks.computeIfAbsent(snapshotFile.getAbsolutePath(), key -> new Object());
+    }
+
+    /**
+     * Returns true if this journal is still recording the changes of the given user.
+     *
+     * @param user the user to check
+     * @return true if the journal records that user's changes
+     */
+    synchronized boolean isAttachedTo(User user) {
+        return attached && this.user == user;
+    }
+
+    /**
+     * Returns the sequence number of the last record written.
+     *
+     * @return the last sequence number
+     */
+    synchronized long lastSeq() {
+        return nextSeq - 1;
+    }
+
+    /**
+     * Stops recording changes. Records not yet flushed are discarded.
+     */
+    void detach() {
+        synchronized (this) {
+            attached = false;
+            pending.reset();
+            user.removeMutationListener(this);
+        }
+        autosave.stop();
+    }
+
+    /**
+     * Appends the records written since the last flush to the active journal file.
+     * New records can still be added while the file is being written; they go into the next flush.
+     *
+     * @throws IOException if the journal file cannot be written
+     */
+    void flush() throws IOException {
+        synchronized (flushLock) {
+            BinaryOutput batch;
+            synchronized (this) {
+                if (!attached || pending.size() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = flushing;
+                flushing = batch;
+            }
+            try {
+                StorageFile.append(activeFile, batch.array(), batch.size());
+            } catch (IOException e) {
+                synchronized (this) {
+                    // Put the batch back in front of the records added meanwhile
+                    batch.writeBytes(pending);
+                    flushing = pending;
+                    flushing.reset();
+                    pending = batch;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                journalBytes += batch.size();
+            }
+            batch.reset();
+        }
+    }
+
+    /**
+     * Seals the journal and folds it into the data file in the background if it has grown large enough.
+     */
+    void compactIfNeeded() {
+        synchronized (flushLock) {
+            synchronized (this) {
+                long threshold = Math.max(MIN_COMPACTION_BYTES, snapshotFile.length() / 2);
+                if (!attached || compacting || (journalBytes < threshold && !snapshotOutdated)) {
+                    return;
+                }
+                // A sealed journal left behind by an interrupted compaction is folded first
+                if (!sealedFile.exists() && activeFile.exists()) {
+                    if (!activeFile.renameTo(sealedFile)) {
+                        return;
+                    }
+                    journalBytes = 0;
+                }
+                compacting = true;
+                snapshotOutdated = false;
+                compactor.execute(this::compact);
+            }
+        }
+    }
+
+    /**
+     * Waits for a compaction that is folding a journal to finish.
+     *
+     * @param timeoutMillis the maximum time to wait, in milliseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static void awaitCompaction(long timeoutMillis) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        compactor.execute(done::countDown);
+        done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for a compaction of this journal, started or queued, to finish.
+     *
+     * @param deadlineNanos the {@link System#nanoTime()} at which to stop waiting
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void awaitCompacted(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while (compacting && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    /**
+     * Folds the sealed journal into the data file. Runs on the compaction thread.
+     */
+    private void compact() {
+        try {
+            synchronized (lockFor(snapshotFile)) {
+                synchronized (this) {
+                    if (!attached) {
+                        return;
+                    }
+                }
+                byte[] data = StorageFile.readVerified(snapshotFile);
+                User folded = DataManager.decodeUser(data, snapshotFile);
+                long seq = replay(folded, sealedFile, DataManager.journalSeqOf(data));
+                DataManager.writeSnapshot(folded, seq, snapshotFile);
+                // An outdated data file is rewritten even when nothing was journaled
+                if (sealedFile.exists()) {
+                    StorageFile.move(sealedFile, previousFile(snapshotFile));
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            System.err.println("Failed to compact the journal of " + snapshotFile);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Applies the records of a journal file to a user, skipping records already folded into its data file.
+     * A record cut short by a crash, or failing its checksum, ends the replay and is truncated from the file.
+     *
+     * @param user the user to apply the records to
+     * @param journalFile the journal file, which may not exist
+     * @param afterSeq the sequence number of the last record already reflected in the user
+     * @return the sequence number of the last record reflected in the user after the replay
+     * @throws IOException if the journal file cannot be read
+     */
+    static long replay(User user, File journalFile, long afterSeq) throws IOException {
+        if (!journalFile.isFile()) {
+            return afterSeq;
+        }
+        byte[] data = Files.readAllBytes(journalFile.toPath());
+        BinaryInput in = new BinaryInput(data);
+        Replayer replayer = new Replayer(user);
+        long lastSeq = afterSeq;
+        int validEnd = 0;
+        try {
+            while (in.hasRemaining()) {
+                int length = in.readVarInt();
+                int checksum = in.readInt();
+                int end = in.position() + length;
+                if (end > data.length || checksum != StorageFile.checksum(data, in.position(), length)) {
+                    break;
+                }
+                long seq = in.readVarLong();
+                int type = in.readByte();
+                if (seq > lastSeq) {
+                    replayer.apply(type, in, end);
+                    lastSeq = seq;
+                }
+                in.seek(end);
+                validEnd = end;
+            }
+        } catch (EOFException e) {
+            // Torn record at the end of the file
+        }
+        if (validEnd < data.length) {
+            System.err.println("Discarding " + (data.length - validEnd) + " damaged bytes at the end of " + journalFile);
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.setLength(validEnd);
+            }
+        }
+        return lastSeq;
+    }
+
+    @Override
+    public void albumAdded(User user, Album album) {
+        append(ALBUM_ADDED, out -> {
+            out.writeString(album.getName());
+            out.writeVarInt(album.getPhotos().size());
+            for (Photo photo : album.getPhotos()) {
+                writePhoto(out, photo);
+            }
+            // Metadata follows the photos, so readers predating it skip it with the rest of the record
+            for (Photo photo : album.getPhotos()) {
+                writeMetadata(out, photo);
+            }
+        });
+    }
+
+    @Override
+    public void albumRemoved(User user, Album album) {
+        append(ALBUM_REMOVED, out -> out.writeString(album.getName()));
+    }
+
+    @Override
+    public void albumRenamed(Album album, String oldName) {
+        append(ALBUM_RENAMED, out -> {
+            out.writeString(oldName);
+            out.writeString(album.getName());
+        });
+    }
+
+    @Override
+    public void photoAdded(Album album, Photo photo) {
+        append(PHOTO_ADDED, out -> {
+            out.writeString(album.getName());
+            writePhoto(out, photo);
+            writeMetadata(out, photo);
+        });
+    }
+
+    @Override
+    public void photoRemoved(Album album, Photo photo) {
+        append(PHOTO_REMOVED, out -> {
+            out.writeString(album.getName());
+            out.writeString(photo.getFilePath());
+        });
+    }
+
+    @Override
+    public void captionChanged(Photo photo, String oldCaption) {
+        append(CAPTION_CHANGED, out -> {
+            out.writeString(photo.getFilePath());
+            writeNullableString(out, photo.getCaption());
+        });
+    }
+
+    @Override
+    public void tagAdded(Photo photo, Tag tag) {
+        append(TAG_ADDED, out -> {
+            out.writeString(photo.getFilePath());
+            out.writeString(tag.getName());
+            out.writeString(tag.getValue());
+        });
+    }
+
+    @Override
+    public void tagRemoved(Photo photo, Tag tag) {
+        append(TAG_REMOVED, out -> {
+            out.writeString(photo.getFilePath());
+            out.writeString(tag.getName());
+            out.writeString(tag.getValue());
+        });
+    }
+
+    @Override
+    public void fileChanged(Photo photo) {
+        append(FILE_CHANGED, out -> {
+            out.writeString(photo.getFilePath());
+            out.writeSignedVarLong(UserCodec.toEpochMillis(photo.getLastModifiedDate()));
+            writeMetadata(out, photo);
+        });
+    }
+
+    @Override
+    public void perceptualHashChanged(Photo photo) {
+        append(PERCEPTUAL_HASH_SET, out -> {
+            out.writeString(photo.getFilePath());
+            out.writeInt((int) (photo.getPerceptualHash() >>> 32));
+            out.writeInt((int) photo.getPerceptualHash());
+        });
+    }
+
+    /**
+     * Encodes a record and adds it to the records waiting to be flushed.
+     *
+     * @param type the record type
+     * @param fields writes the fields of the record
+     */
+    private synchronized void append(int type, Consumer<BinaryOutput> fields) {
+        if (!attached) {
+            return;
+        }
+        record.reset();
+        record.writeVarLong(nextSeq++);
+        record.writeByte(type);
+        fields.accept(record);
+        pending.writeVarInt(record.size());
+        pending.writeInt(StorageFile.checksum(record.array(), 0, record.size()));
+        pending.writeBytes(record);
+    }
+
+    /**
+     * Writes everything needed to recreate a photo.
+     *
+     * @param out the record buffer
+     * @param photo the photo to write
+     */
+    private static void writePhoto(BinaryOutput out, Photo photo) {
+        out.writeString(photo.getFilePath());
+        out.writeSignedVarLong(UserCodec.toEpochMillis(photo.getLastModifiedDate()));
+        writeNullableString(out, photo.getCaption());
+        out.writeVarInt(photo.getTags().size());
+        for (Tag tag : photo.getTags()) {
+            out.writeString(tag.getName());
+            out.writeString(tag.getValue());
+        }
+    }
+
+    /**
+     * Writes the metadata read from the file of a photo.
+     *
+     * @param out the record buffer
+     * @param photo the photo
+     */
+    private static void writeMetadata(BinaryOutput out, Photo photo) {
+        PhotoMetadata metadata = photo.getMetadata();
+        LocalDateTime captured = metadata.getCaptureDate();
+        out.writeByte(captured == null ? 0 : 1);
+        if (captured != null) {
+            out.writeSignedVarLong(UserCodec.toEpochMillis(captured));
+        }
+        out.writeVarInt(metadata.getWidth());
+        out.writeVarInt(metadata.getHeight());
+        out.writeVarInt(metadata.getOrientation());
+    }
+
+    /**
+     * Reads metadata written by {@link #writeMetadata(BinaryOutput, Photo)}.
+     *
+     * @param in the record input
+     * @return the metadata
+     * @throws IOException if the record is truncated
+     */
+    private static PhotoMetadata readMetadata(BinaryInput in) throws IOException {
+        LocalDateTime captured = in.readByte() == 0 ? null : UserCodec.fromEpochMillis(in.readSignedVarLong());
+        int width = in.readVarInt();
+        int height = in.readVarInt();
+        return new PhotoMetadata(captured, width, height, in.readVarInt());
+    }
+
+    /**
+     * Writes a string that may be null.
+     *
+     * @param out the record buffer
+     * @param value the string, or null
+     */
+    private static void writeNullableString(BinaryOutput out, String value) {
+        out.writeByte(value == null ? 0 : 1);
+        if (value != null) {
+            out.writeString(value);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeNullableString(BinaryOutput, String)}.
+     *
+     * @param in the record input
+     * @return the string, or null
+     * @throws IOException if the record is truncated
+     */
+    private static String readNullableString(BinaryInput in) throws IOException {
+        return in.readByte() == 0 ? null : in.readString();
+    }
+
+    /**
+     * Applies journal records to a user, looking up albums by name and photos in the user's catalog by file path.
+     */
+    private static class Replayer {
+        private final User user;
+
+        /**
+         * Creates a replayer for a user.
+         *
+         * @param user the user to apply records to
+         */
+        Replayer(User user) {
+            this.user = user;
+        }
+
+        /**
+         * Applies one record.
+         *
+         * @param type the record type
+         * @param in the input positioned at the record fields
+         * @param end the position just past the record
+         * @throws IOException if the record is malformed
+         */
+        void apply(int type, BinaryInput in, int end) throws IOException {
+            switch (type) {
+                case ALBUM_ADDED: {
+                    Album album = new Album(in.readString());
+                    int count = in.readVarInt();
+                    List<Photo> photos = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        photos.add(readPhoto(in));
+                    }
+                    // Records written before photo metadata was journaled end here
+                    if (in.position() < end) {
+                        for (Photo photo : photos) {
+                            photo.setMetadata(readMetadata(in));
+                        }
+                    }
+                    for (Photo photo : photos) {
+                        album.addPhoto(resolve(photo));
+                    }
+                    user.addAlbum(album);
+                    break;
+                }
+                case ALBUM_REMOVED: {
+                    Album album = findAlbum(in.readString());
+                    if (album != null) {
+                        user.removeAlbum(album);
+                    }
+                    break;
+                }
+                case ALBUM_RENAMED: {
+                    Album album = findAlbum(in.readString());
+                    String newName = in.readString();
+                    if (album != null) {
+                        album.setName(newName);
+                    }
+                    break;
+                }
+                case PHOTO_ADDED: {
+                    Album album = findAlbum(in.readString());
+                    Photo photo = readPhoto(in);
+                    if (in.position() < end) {
+                        photo.setMetadata(readMetadata(in));
+                    }
+                    if (album != null) {
+                        album.addPhoto(resolve(photo));
+                    }
+                    break;
+                }
+                case PHOTO_REMOVED: {
+                    Album album = findAlbum(in.readString());
+                    Photo photo = user.getCatalog().find(in.readString());
+                    if (album != null && photo != null) {
+                        album.removePhoto(photo);
+                    }
+                    break;
+                }
+                case CAPTION_CHANGED: {
+                    Photo photo = user.getCatalog().find(in.readString());
+                    String caption = readNullableString(in);
+                    if (photo != null) {
+                        photo.setCaption(caption);
+                    }
+                    break;
+                }
+                case TAG_ADDED: {
+                    Photo photo = user.getCatalog().find(in.readString());
+                    Tag tag = new Tag(in.readString(), in.readString());
+                    if (photo != null && !photo.getTags().contains(tag)) {
+                        photo.addTag(tag);
+                    }
+                    break;
+                }
+                case TAG_REMOVED: {
+                    Photo photo = user.getCatalog().find(in.readString());
+                    Tag tag = new Tag(in.readString(), in.readString());
+                    if (photo != null) {
+                        photo.removeTag(tag);
+                    }
+                    break;
+                }
+                case FILE_CHANGED: {
+                    Photo photo = user.getCatalog().find(in.readString());
+                    LocalDateTime modified = UserCodec.fromEpochMillis(in.readSignedVarLong());
+                    PhotoMetadata metadata = readMetadata(in);
+                    if (photo != null) {
+                        photo.fileChanged(modified, metadata);
+                    }
+                    break;
+                }
+                case PERCEPTUAL_HASH_SET: {
+                    Photo photo = user.getCatalog().find(in.readString());
+                    long high = in.readInt();
+                    if (photo != null) {
+                        photo.setPerceptualHash((high << 32) | (in.readInt() & 0xFFFFFFFFL));
+                    }
+                    break;
+                }
+                default:
+                    // Record type from a newer version; its length prefix lets the caller skip it
+                    break;
+            }
+        }
+
+        /**
+         * Reads a photo as recorded.
+         *
+         * @param in the record input
+         * @return the photo
+         * @throws IOException if the record is malformed
+         */
+        private Photo readPhoto(BinaryInput in) throws IOException {
+            String path = in.readString();
+            Photo photo = new Photo(path, UserCodec.fromEpochMillis(in.readSignedVarLong()));
+            photo.setCaption(readNullableString(in));
+            int tagCount = in.readVarInt();
+            for (int i = 0; i < tagCount; i++) {
+                photo.addTag(new Tag(in.readString(), in.readString()));
+            }
+            return photo;
+        }
+
+        /**
+         * Returns the photo already in the library at the same path as a photo read, if there is one.
+         *
+         * @param photo the photo read
+         * @return the photo to add
+         */
+        private Photo resolve(Photo photo) {
+            Photo existing = user.getCatalog().find(photo.getFilePath());
+            return existing != null ? existing : photo;
+        }
+
+        /**
+         * Finds an album by name.
+         *
+         * @param name the album name
+         * @return the album, or null if not found
+         */
+        private Album findAlbum(String name) {
+            for (Album album : user.getAlbums()) {
+                if (album.getName().equals(name)) {
+                    return album;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Receives notifications about changes to a user's library.
+ * Listeners are registered on a {@link User} and are told about changes to any of its albums and photos.
+ * All methods do nothing by default, so listeners only override the changes they care about.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public interface MutationListener {
+
+    /**
+     * Called after an album is added to the user.
+     *
+     * @param user the user
+     * @param album the album that was added
+     */
+    default void albumAdded(User user, Album album) {
+    }
+
+    /**
+     * Called after an album is removed from the user.
+     *
+     * @param user the user
+     * @param album the album that was removed
+     */
+    default void albumRemoved(User user, Album album) {
+    }
+
+    /**
+     * Called after an album is renamed.
+     *
+     * @param album the album, which already has its new name
+     * @param oldName the previous name of the album
+     */
+    default void albumRenamed(Album album, String oldName) {
+    }
+
+    /**
+     * Called after a photo is added to an album.
+     *
+     * @param album the album
+     * @param photo the photo that was added
+     */
+    default void photoAdded(Album album, Photo photo) {
+    }
+
+    /**
+     * Called after a photo is removed from an album.
+     *
+     * @param album the album
+     * @param photo the photo that was removed
+     */
+    default void photoRemoved(Album album, Photo photo) {
+    }
+
+    /**
+     * Called after the caption of a photo changes.
+     *
+     * @param photo the photo, which already has its new caption
+     * @param oldCaption the previous caption, or null
+     */
+    default void captionChanged(Photo photo, String oldCaption) {
+    }
+
+    /**
+     * Called after the date of a photo changes, because its file was edited.
+     *
+     * @param photo the photo, which already has its new date
+     * @param oldDate the previous date of the photo
+     * @see Photo#getDate()
+     */
+    default void dateChanged(Photo photo, LocalDateTime oldDate) {
+    }
+
+    /**
+     * Called after the file of a photo is found edited. The photo already has the new modification
+     * date and metadata of its file, and no perceptual hash.
+     *
+     * @param photo the photo
+     * @see Photo#getLastModifiedDate()
+     */
+    default void fileChanged(Photo photo) {
+    }
+
+    /**
+     * Called after the perceptual hash of a photo is computed.
+     *
+     * @param photo the photo, which already has its hash
+     * @see Photo#getPerceptualHash()
+     */
+    default void perceptualHashChanged(Photo photo) {
+    }
+
+    /**
+     * Called after a tag is added to a photo.
+     *
+     * @param photo the photo
+     * @param tag the tag that was added
+     */
+    default void tagAdded(Photo photo, Tag tag) {
+    }
+
+    /**
+     * Called after a tag is removed from a photo.
+     *
+     * @param photo the photo
+     * @param tag the tag that was removed
+     */
+    default void tagRemoved(Photo photo, Tag tag) {
+    }
+}
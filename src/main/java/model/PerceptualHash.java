@@ -0,0 +1,118 @@
+package model;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Computes the perceptual hash of a photo: 64 bits that stay nearly the same when the photo is
+ * resized, re-encoded or slightly edited, so copies of the same shot can be found by comparing hashes.
+ *
+ * <p>The hash is a difference hash. The image is reduced to a 9 by 8 grid of average brightness,
+ * and each bit tells whether a cell is brighter than its right-hand neighbor. The file is decoded
+ * with rows and columns skipped, so only a small image is ever held in memory.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class PerceptualHash {
+    /** The number of differing bits up to which two photos are taken to be copies of the same shot. */
+    public static final int DUPLICATE_DISTANCE = 10;
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+    private static final int DECODE_SIZE = 64;
+
+    /**
+     * Not instantiable.
+     */
+    private PerceptualHash() {
+    }
+
+    /**
+     * Returns the number of bits in which two hashes differ.
+     *
+     * @param a a hash
+     * @param b another hash
+     * @return the distance, from 0 for the same hash to 64
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Computes the hash of an image file.
+     *
+     * @param file the image file
+     * @return the hash
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    static long compute(File file) throws IOException {
+        BufferedImage image = decodeSmall(file);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
+
+        // Average the brightness of each grid cell; every cell covers at least one pixel
+        double[] sums = new double[GRID_WIDTH * GRID_HEIGHT];
+        int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+        for (int y = 0; y < height; y++) {
+            int row = y * GRID_HEIGHT / height;
+            for (int x = 0; x < width; x++) {
+                int cell = row * GRID_WIDTH + x * GRID_WIDTH / width;
+                int pixel = rgb[y * width + x];
+                sums[cell] += 0.299 * ((pixel >> 16) & 0xFF) + 0.587 * ((pixel >> 8) & 0xFF) + 0.114 * (pixel & 0xFF);
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int row = 0; row < GRID_HEIGHT; row++) {
+            for (int column = 0; column < GRID_WIDTH - 1; column++) {
+                int cell = row * GRID_WIDTH + column;
+                double left = counts[cell] > 0 ? sums[cell] / counts[cell] : 0;
+                double right = counts[cell + 1] > 0 ? sums[cell + 1] / counts[cell + 1] : 0;
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Decodes an image with rows and columns skipped so it is about {@link #DECODE_SIZE} pixels
+     * along its shorter side, but never smaller than the grid.
+     *
+     * @param file the image file
+     * @return the decoded image
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    private static BufferedImage decodeSmall(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                throw new IOException("Cannot read " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int step = Math.max(1, Math.min(Math.min(width, height) / DECODE_SIZE,
+                        Math.min(width / GRID_WIDTH, height / GRID_HEIGHT)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the perceptual hashes of photos in the background, after they are imported or opened.
+ *
+ * <p>Hashing decodes each file, so it runs on a small pool of low-priority daemon threads, half as
+ * many as there are processors, and never on the calling thread. A photo is hashed once: setting
+ * the hash notifies the user's {@link MutationListener}s, so the {@link MutationJournal} records it
+ * right away and the {@link AutosaveScheduler} folds it into the data file with the next save.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class PerceptualHasher {
+    private static final ExecutorService pool = createPool();
+    private static final Set<Photo> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Not instantiable.
+     */
+    private PerceptualHasher() {
+    }
+
+    /**
+     * Queues the photos that have no hash yet for hashing in the background, and returns at once.
+     *
+     * @param photos the photos
+     */
+    public static void hashInBackground(Collection<Photo> photos) {
+        for (Photo photo : photos) {
+            if (!photo.hasPerceptualHash() && queued.add(photo)) {
+                pool.execute(() -> {
+                    try {
+                        hash(photo);
+                    } finally {
+                        queued.remove(photo);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Hashes the photos that have no hash yet and waits until all are done.
+     * Photos whose files cannot be read are left without a hash.
+     *
+     * @param photos the photos
+     * @param progress receives the progress, or null
+     * @throws InterruptedException if the calling thread is interrupted, which cancels the hashing
+     */
+    public static void hashAll(Collection<Photo> photos, PhotoImporter.Progress progress) throws InterruptedException {
+        List<Photo> missing = new ArrayList<>();
+        for (Photo photo : photos) {
+            if (!photo.hasPerceptualHash()) {
+                missing.add(photo);
+            }
+        }
+        int total = missing.size();
+        AtomicInteger done = new AtomicInteger();
+        if (progress != null) {
+            progress.update(0, total);
+        }
+
+        List<Future<?>> tasks = new ArrayList<>(total);
+        try {
+            for (Photo photo : missing) {
+                tasks.add(pool.submit(() -> {
+                    if (!photo.hasPerceptualHash()) {
+                        hash(photo);
+                    }
+                    int finished = done.incrementAndGet();
+                    if (progress != null) {
+                        progress.update(finished, total);
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            for (Future<?> task : tasks) {
+                task.cancel(false);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hashes one photo, reporting files that cannot be read.
+     *
+     * @param photo the photo
+     */
+    private static void hash(Photo photo) {
+        try {
+            photo.setPerceptualHash(PerceptualHash.compute(new File(photo.getFilePath())));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not hash " + photo.getFilePath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the hashing threads.
+     *
+     * @return the executor
+     */
+    private static ExecutorService createPool() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "perceptual-hash");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+}
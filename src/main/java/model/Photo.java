@@ -7,13 +7,20 @@ import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 
 /**
  * Represents a photo in the photo album application.
  * Each photo has a caption, a date, and a list of tags.
+ * Two photos are equal if they are the same file, as decided by {@link PhotoCatalog}.
+ * 
+ * <p>Photos are edited on the JavaFX thread while searches may test them on another thread, so
+ * the caption, tags and dates are read and written under the photo's lock or through volatile
+ * fields; {@link #hasTag(Tag)} and {@link #getDate()} are safe to call from any thread.</p>
  * 
  * @author Kaileb Cole
  * @author Maxime Deperrois
@@ -21,10 +28,21 @@ import java.time.ZoneId;
 public class Photo implements Serializable{
     private static final long serialVersionUID = 1L;
 
-    private String caption;
+    private volatile String caption;
     private String filePath;
     private LocalDateTime lastDateModified;
     private List<Tag> tags;
+    private LocalDateTime captureDate;
+    private int width;
+    private int height;
+    private int orientation;
+    private long perceptualHash;
+    private volatile boolean perceptualHashed;
+    private transient User owner;
+    private transient boolean modified;
+    private transient int id;
+    private transient String key;
+    private transient boolean missing;
 
     /**
      * Creates a new photo at the given file path.
@@ -36,6 +54,23 @@ public class Photo implements Serializable{
         this.filePath = filePath;
         this.tags = new ArrayList<>();
         this.lastDateModified = getLastModifiedDate(filePath);
+        try {
+            setMetadata(PhotoMetadata.read(Paths.get(filePath)));
+        } catch (IOException e) {
+            System.err.println("Could not read the metadata of " + filePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a photo from stored data without reading the file system.
+     * 
+     * @param filePath the file path of the photo
+     * @param lastDateModified the recorded last modified date of the photo
+     */
+    Photo(String filePath, LocalDateTime lastDateModified) {
+        this.filePath = filePath;
+        this.tags = new ArrayList<>();
+        this.lastDateModified = lastDateModified;
     }
 
     /**
@@ -60,6 +95,157 @@ public class Photo implements Serializable{
         return lastDateModified;
     }
 
+    /**
+     * Returns the date the photo was taken, as recorded in its file.
+     * 
+     * @return the capture date, or null if the file does not record one
+     */
+    public LocalDateTime getCaptureDate() {
+        return captureDate;
+    }
+
+    /**
+     * Returns the date of the photo: when it was taken if known, otherwise when its file was last modified.
+     * This is the date photos are sorted and searched by.
+     * 
+     * @return the date of the photo
+     */
+    public synchronized LocalDateTime getDate() {
+        return captureDate != null ? captureDate : lastDateModified;
+    }
+
+    /**
+     * Returns the width of the stored image, before its orientation is applied.
+     * 
+     * @return the width in pixels, or 0 if unknown
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the stored image, before its orientation is applied.
+     * 
+     * @return the height in pixels, or 0 if unknown
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the EXIF orientation of the photo, from 1 for upright to 8.
+     * 
+     * @return the orientation
+     */
+    public int getOrientation() {
+        return orientation == 0 ? PhotoMetadata.ORIENTATION_NORMAL : orientation;
+    }
+
+    /**
+     * Sets the capture date, size and orientation of the photo, as read from its file or from storage.
+     * 
+     * @param metadata the metadata
+     */
+    final synchronized void setMetadata(PhotoMetadata metadata) {
+        this.captureDate = metadata.getCaptureDate();
+        this.width = metadata.getWidth();
+        this.height = metadata.getHeight();
+        this.orientation = metadata.getOrientation();
+    }
+
+    /**
+     * Returns the metadata of the photo, for storing it.
+     * 
+     * @return the capture date, size and orientation
+     */
+    PhotoMetadata getMetadata() {
+        return new PhotoMetadata(captureDate, width, height, getOrientation());
+    }
+
+    /**
+     * Returns true if the perceptual hash of the photo has been computed.
+     * 
+     * @return true if {@link #getPerceptualHash()} is known
+     */
+    public boolean hasPerceptualHash() {
+        return perceptualHashed;
+    }
+
+    /**
+     * Returns the perceptual hash of the photo, which is close for copies of the same shot.
+     * 
+     * @return the hash, or 0 if it has not been computed
+     * @see PerceptualHash
+     */
+    public long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    /**
+     * Sets the perceptual hash of the photo, computed from its file or read from storage.
+     * 
+     * @param perceptualHash the hash
+     */
+    void setPerceptualHash(long perceptualHash) {
+        boolean changed = !perceptualHashed || this.perceptualHash != perceptualHash;
+        this.perceptualHash = perceptualHash;
+        this.perceptualHashed = true;
+        modified = true;
+        if (owner != null && changed) {
+            owner.notifyListeners(listener -> listener.perceptualHashChanged(this));
+        }
+    }
+
+    /**
+     * Returns true if the file of the photo was found to be deleted or moved away.
+     * 
+     * @return true if the file is missing
+     * @see PhotoWatcher
+     */
+    public boolean isMissing() {
+        return missing;
+    }
+
+    /**
+     * Marks the file of the photo as missing or present.
+     * 
+     * @param missing true if the file is missing
+     */
+    void setMissing(boolean missing) {
+        this.missing = missing;
+    }
+
+    /**
+     * Records that the file of the photo exists with the given modification date. If the date
+     * changed, the file was edited: its metadata replaces the photo's and the perceptual hash is dropped.
+     * 
+     * @param lastDateModified the modification date of the file
+     * @param metadata the metadata read from the file
+     */
+    void fileChanged(LocalDateTime lastDateModified, PhotoMetadata metadata) {
+        missing = false;
+        if (UserCodec.toEpochMillis(lastDateModified) == UserCodec.toEpochMillis(this.lastDateModified)) {
+            return;
+        }
+        LocalDateTime oldDate;
+        synchronized (this) {
+            oldDate = getDate();
+            this.lastDateModified = lastDateModified;
+            setMetadata(metadata);
+            perceptualHashed = false;
+            perceptualHash = 0;
+            modified = true;
+        }
+        if (owner == null) {
+            return;
+        }
+        owner.notifyListeners(listener -> listener.fileChanged(this));
+        if (!getDate().equals(oldDate)) {
+            owner.photoDateChanged(this);
+            owner.notifyListeners(listener -> listener.dateChanged(this, oldDate));
+        }
+    }
+
     /**
      * Returns the caption of the photo.
      * 
@@ -75,7 +261,12 @@ public class Photo implements Serializable{
      * @param caption the new caption of the photo
      */
     public void setCaption(String caption) {
+        String oldCaption = this.caption;
         this.caption = caption;
+        modified = true;
+        if (owner != null && !Objects.equals(caption, oldCaption)) {
+            owner.notifyListeners(listener -> listener.captionChanged(this, oldCaption));
+        }
     }
 
     /**
@@ -89,11 +280,24 @@ public class Photo implements Serializable{
 
     /**
      * Returns the list of tags of the photo.
+     * The list cannot be modified directly; use {@link #addTag(Tag)} and {@link #removeTag(Tag)}.
+     * It follows the changes made to the photo, so it is only read on the thread editing the photo;
+     * other threads use {@link #hasTag(Tag)}.
      * 
      * @return the list of tags of the photo
      */
     public List<Tag> getTags() {
-        return tags;
+        return Collections.unmodifiableList(tags);
+    }
+
+    /**
+     * Returns true if the photo carries a tag. Safe to call while the photo is being edited on another thread.
+     * 
+     * @param tag the tag
+     * @return true if the photo has the tag
+     */
+    public synchronized boolean hasTag(Tag tag) {
+        return tags.contains(tag);
     }
 
     /**
@@ -102,7 +306,13 @@ public class Photo implements Serializable{
      * @param tag the tag to add
      */
     public void addTag(Tag tag) {
-        tags.add(tag);
+        synchronized (this) {
+            tags.add(tag);
+            modified = true;
+        }
+        if (owner != null) {
+            owner.notifyListeners(listener -> listener.tagAdded(this, tag));
+        }
     }
 
     /**
@@ -111,6 +321,102 @@ public class Photo implements Serializable{
      * @param tag the tag to remove
      */
     public void removeTag(Tag tag) {
-        tags.remove(tag);
+        synchronized (this) {
+            if (!tags.remove(tag)) {
+                return;
+            }
+            modified = true;
+        }
+        if (owner != null) {
+            owner.notifyListeners(listener -> listener.tagRemoved(this, tag));
+        }
+    }
+
+    /**
+     * Returns the user whose library contains this photo.
+     * 
+     * @return the owning user, or null if the photo is not in any user's album yet
+     */
+    User getOwner() {
+        return owner;
+    }
+
+    /**
+     * Sets the user whose library contains this photo, so changes to it are reported to that user's listeners.
+     * 
+     * @param owner the owning user
+     */
+    void setOwner(User owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Returns the key identifying the file of this photo.
+     * 
+     * @return the normalized file path
+     */
+    String getKey() {
+        if (key == null) {
+            key = PhotoCatalog.keyOf(filePath);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the id of the photo in its user's catalog.
+     * 
+     * @return the id, or 0 if the photo is not in a catalog
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the id of the photo in its user's catalog.
+     * 
+     * @param id the id
+     */
+    void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns true if the other object is a photo of the same file.
+     * 
+     * @param o the object to compare with
+     * @return true if both photos are the same file
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof Photo && getKey().equals(((Photo) o).getKey());
+    }
+
+    /**
+     * Returns a hash code consistent with {@link #equals(Object)}.
+     * 
+     * @return the hash code of the photo's file
+     */
+    @Override
+    public int hashCode() {
+        return getKey().hashCode();
+    }
+
+    /**
+     * Returns true if the photo changed since it was last read from or written to a catalog page.
+     * 
+     * @return true if the photo was modified
+     */
+    boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Marks the photo as matching what is stored.
+     */
+    void clearModified() {
+        modified = false;
     }
 }
@@ -0,0 +1,510 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The photos of one user, each held once no matter how many albums it is filed in.
+ *
+ * <p>Photos are identified by their normalized file path: adding a file that is already in the
+ * library, to the same or to another album, yields the photo already in the catalog, with its
+ * caption and tags. Albums refer to catalog photos, so a photo's details are kept and stored
+ * only once.</p>
+ *
+ * <p>Every photo has a numeric id. The catalog is stored in pages of {@link #PAGE_SIZE}
+ * consecutive ids, each page a segment of its own, and a page is only read when a photo on it
+ * is needed. Saving rewrites only the pages whose photos changed, were added or were dropped
+ * from every album.</p>
+ *
+ * <p>Each stored page also records the sorted hash codes of the keys of its photos, so looking up
+ * a file that was not read yet only reads the page whose hashes include the file's: usually one
+ * page for a file in the library and none for a new file. Pages stored before the hashes were
+ * recorded are all read on the first miss, as before, and get hashes the next time they are written.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class PhotoCatalog {
+    static final int PAGE_SIZE = 256;
+
+    private final User owner;
+    private final Map<String, Photo> byKey = new HashMap<>();
+    private final List<Page> pages = new ArrayList<>();
+    private SegmentStore store;
+    private int nextId = 1;
+    private int unloadedPages;
+
+    /**
+     * Creates an empty catalog.
+     *
+     * @param owner the user whose photos the catalog holds
+     */
+    PhotoCatalog(User owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Returns the key identifying the file of a photo: its absolute, normalized path,
+     * ignoring case on platforms with case-insensitive file names.
+     *
+     * @param filePath the file path of a photo
+     * @return the key of the file
+     */
+    static String keyOf(String filePath) {
+        String key;
+        try {
+            key = Paths.get(filePath).toAbsolutePath().normalize().toString();
+        } catch (InvalidPathException e) {
+            key = filePath;
+        }
+        return File.separatorChar == '\\' ? key.toLowerCase(Locale.ROOT) : key;
+    }
+
+    /**
+     * Returns the photo of the library stored at the given file path.
+     *
+     * @param filePath the file path of the photo
+     * @return the photo, or null if the file is not in the library
+     */
+    public synchronized Photo find(String filePath) {
+        String key = keyOf(filePath);
+        Photo photo = byKey.get(key);
+        if (photo == null && unloadedPages > 0) {
+            loadPagesHolding(key);
+            photo = byKey.get(key);
+        }
+        return photo;
+    }
+
+    /**
+     * Returns the number of photos in memory, including photos no longer filed in any album
+     * that have not been saved since.
+     *
+     * @return the number of photos in memory
+     */
+    public synchronized int size() {
+        return byKey.size();
+    }
+
+    /**
+     * Adds a photo to the catalog, or returns the photo the catalog already holds for the same file.
+     *
+     * @param photo the photo to add
+     * @return the catalog's photo for that file
+     */
+    synchronized Photo intern(Photo photo) {
+        Photo existing = byKey.get(photo.getKey());
+        if (existing == null && unloadedPages > 0) {
+            loadPagesHolding(photo.getKey());
+            existing = byKey.get(photo.getKey());
+        }
+        if (existing != null) {
+            return existing;
+        }
+
+        int pageIndex = (nextId - 1) / PAGE_SIZE;
+        if (pageIndex < pages.size() && pages.get(pageIndex).photos == null) {
+            // The page could not be read; start a fresh one rather than overwrite it
+            nextId = pages.size() * PAGE_SIZE + 1;
+            pageIndex = pages.size();
+        }
+        while (pages.size() <= pageIndex) {
+            pages.add(new Page(null, 0, new Photo[PAGE_SIZE]));
+        }
+        Page page = pages.get(pageIndex);
+        int id = nextId++;
+        page.photos[(id - 1) % PAGE_SIZE] = photo;
+        page.dirty = true;
+        photo.setId(id);
+        photo.setOwner(owner);
+        byKey.put(photo.getKey(), photo);
+        return photo;
+    }
+
+    /**
+     * Returns the photo with the given id, reading its page if needed.
+     *
+     * @param id the photo id
+     * @return the catalog's photo for the file stored under that id
+     * @throws IOException if the page cannot be read or holds no such photo
+     */
+    synchronized Photo photo(int id) throws IOException {
+        int pageIndex = (id - 1) / PAGE_SIZE;
+        if (id < 1 || pageIndex >= pages.size()) {
+            throw new IOException("Unknown photo id " + id);
+        }
+        Page page = pages.get(pageIndex);
+        load(pageIndex);
+        Photo photo = page.photos[(id - 1) % PAGE_SIZE];
+        if (photo == null) {
+            throw new IOException("Unknown photo id " + id);
+        }
+        // Libraries written before the catalog may hold the same file twice; the first copy read wins
+        Photo canonical = byKey.get(photo.getKey());
+        return canonical != null ? canonical : photo;
+    }
+
+    /**
+     * Returns the photos with the given ids, as found by the search indexes.
+     *
+     * @param ids photo ids
+     * @return the photos, in the order of the ids; photos that cannot be read are reported and left out
+     */
+    List<Photo> photos(int[] ids) {
+        List<Photo> photos = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            try {
+                photos.add(photo(id));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to read photo " + id + " of " + owner.getUsername());
+            }
+        }
+        return photos;
+    }
+
+    /**
+     * Sets the segments the catalog's pages are read from. Used while decoding a user.
+     *
+     * @param store the segments of the user data file
+     * @param nextId the id the next new photo receives
+     */
+    synchronized void setStore(SegmentStore store, int nextId) {
+        this.store = store;
+        this.nextId = Math.max(this.nextId, nextId);
+    }
+
+    /**
+     * Registers a stored page, read when one of its photos is needed. Used while decoding a user.
+     *
+     * @param segment the name of the page segment, or null if the page is empty
+     * @param count the number of photos on the page
+     * @param keyHashes the sorted hash codes of the keys of the photos on the page, or null if not recorded
+     */
+    synchronized void addStoredPage(String segment, int count, int[] keyHashes) {
+        if (segment == null) {
+            pages.add(new Page(null, 0, new Photo[PAGE_SIZE]));
+        } else {
+            Page page = new Page(segment, count, null);
+            page.keyHashes = keyHashes;
+            pages.add(page);
+            unloadedPages++;
+        }
+    }
+
+    /**
+     * Returns the number of stored pages that have not been read.
+     *
+     * @return the number of unread pages
+     */
+    synchronized int getUnreadPageCount() {
+        return unloadedPages;
+    }
+
+    /**
+     * Returns true if some unread page was stored without the hashes of its keys.
+     *
+     * @return true if a lookup miss would read such pages
+     */
+    synchronized boolean hasPagesWithoutKeyHashes() {
+        for (Page page : pages) {
+            if (page.photos == null && page.keyHashes == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the id the next new photo receives.
+     *
+     * @return the next id
+     */
+    synchronized int getNextId() {
+        return nextId;
+    }
+
+    /**
+     * Writes the pages that changed to a segment store. Pages are only rewritten if a photo on them
+     * was added, changed or is no longer filed in any album; the others keep their segment.
+     * Call {@link #commit(SegmentStore, List)} once the manifest referring to the pages is written.
+     *
+     * @param albums the albums of the user, which decide which photos are kept
+     * @param target the segments of the user data file being written
+     * @return the stored pages, in page order
+     * @throws IOException if a page cannot be read or written
+     */
+    List<StoredPage> write(List<Album> albums, SegmentStore target) throws IOException {
+        BitSet referenced = new BitSet();
+        for (Album album : albums) {
+            if (album.isLoaded()) {
+                for (Photo photo : album.getPhotos()) {
+                    referenced.set(photo.getId());
+                }
+            } else {
+                for (int id : album.getStoredIds()) {
+                    referenced.set(id);
+                }
+            }
+        }
+
+        synchronized (this) {
+            return writePages(referenced, target);
+        }
+    }
+
+    /**
+     * Writes the pages that changed, keeping only the referenced photos.
+     *
+     * @param referenced the ids of the photos filed in an album
+     * @param target the segments of the user data file being written
+     * @return the stored pages, in page order
+     * @throws IOException if a page cannot be read or written
+     */
+    private List<StoredPage> writePages(BitSet referenced, SegmentStore target) throws IOException {
+        boolean sameStore = target.sameAs(store);
+        List<StoredPage> stored = new ArrayList<>(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            int first = i * PAGE_SIZE + 1;
+            int count = referenced.get(first, first + PAGE_SIZE).cardinality();
+            if (count == 0) {
+                stored.add(new StoredPage(null, 0, new Photo[PAGE_SIZE], new int[0]));
+                continue;
+            }
+            if (sameStore && !page.dirty && page.segment != null && count == page.storedCount
+                    && !hasModifiedPhotos(page) && target.exists(page.segment)) {
+                if (page.photos == null && page.keyHashes == null) {
+                    // Stored before key hashes were recorded; read it once to record them
+                    load(i);
+                }
+                int[] keyHashes = page.photos != null ? keyHashesOf(page.photos) : page.keyHashes;
+                stored.add(new StoredPage(page.segment, count, null, keyHashes));
+                continue;
+            }
+
+            load(i);
+            Photo[] kept = new Photo[PAGE_SIZE];
+            for (int slot = 0; slot < PAGE_SIZE; slot++) {
+                if (referenced.get(first + slot)) {
+                    kept[slot] = page.photos[slot];
+                }
+            }
+            stored.add(new StoredPage(target.write(UserCodec.encodePage(kept)), count, kept, keyHashesOf(kept)));
+        }
+        return stored;
+    }
+
+    /**
+     * Records that the catalog is now stored in the given pages, dropping the photos no album refers to.
+     *
+     * @param target the segments the pages were written to
+     * @param stored the pages returned by {@link #write(List, SegmentStore)}
+     */
+    synchronized void commit(SegmentStore target, List<StoredPage> stored) {
+        store = target;
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            StoredPage written = stored.get(i);
+            if (written.photos != null) {
+                if (page.photos == null) {
+                    unloadedPages--;
+                } else {
+                    for (int slot = 0; slot < PAGE_SIZE; slot++) {
+                        Photo photo = page.photos[slot];
+                        if (photo != null && written.photos[slot] != photo) {
+                            byKey.remove(photo.getKey(), photo);
+                        }
+                    }
+                }
+                page.photos = written.photos;
+            }
+            page.segment = written.segment;
+            page.storedCount = written.count;
+            page.keyHashes = page.photos == null ? written.keyHashes : null;
+            page.dirty = false;
+            if (page.photos != null) {
+                for (Photo photo : page.photos) {
+                    if (photo != null) {
+                        photo.clearModified();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the unread pages that may hold a file, until one does: the pages whose key hashes
+     * include the hash of the file's key, and the pages stored without key hashes. Pages that
+     * cannot be read are reported and skipped.
+     *
+     * @param key the key of the file
+     */
+    private void loadPagesHolding(String key) {
+        int hash = key.hashCode();
+        for (int i = 0; i < pages.size() && unloadedPages > 0; i++) {
+            Page page = pages.get(i);
+            if (page.photos != null || (page.keyHashes != null && Arrays.binarySearch(page.keyHashes, hash) < 0)) {
+                continue;
+            }
+            try {
+                load(i);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to read page " + i + " of the photo catalog of " + owner.getUsername());
+            }
+            if (byKey.containsKey(key)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the sorted hash codes of the keys of the photos on a page.
+     *
+     * @param photos the photos of the page by slot, null for free slots
+     * @return the hash codes, in increasing order
+     */
+    private static int[] keyHashesOf(Photo[] photos) {
+        int[] hashes = new int[photos.length];
+        int count = 0;
+        for (Photo photo : photos) {
+            if (photo != null) {
+                hashes[count++] = photo.getKey().hashCode();
+            }
+        }
+        hashes = Arrays.copyOf(hashes, count);
+        Arrays.sort(hashes);
+        return hashes;
+    }
+
+    /**
+     * Reads a page if it has not been read yet.
+     *
+     * @param pageIndex the index of the page
+     * @throws IOException if the page cannot be read
+     */
+    private void load(int pageIndex) throws IOException {
+        Page page = pages.get(pageIndex);
+        if (page.photos != null) {
+            return;
+        }
+        Photo[] photos = UserCodec.decodePage(store.read(page.segment), PAGE_SIZE);
+        for (int slot = 0; slot < PAGE_SIZE; slot++) {
+            Photo photo = photos[slot];
+            if (photo != null) {
+                photo.clearModified();
+                photo.setId(pageIndex * PAGE_SIZE + slot + 1);
+                photo.setOwner(owner);
+                byKey.putIfAbsent(photo.getKey(), photo);
+            }
+        }
+        page.photos = photos;
+        page.keyHashes = null;
+        unloadedPages--;
+    }
+
+    /**
+     * Returns true if a photo on a page that has been read changed since it was stored.
+     *
+     * @param page the page
+     * @return true if a photo on the page is modified
+     */
+    private static boolean hasModifiedPhotos(Page page) {
+        if (page.photos == null) {
+            return false;
+        }
+        for (Photo photo : page.photos) {
+            if (photo != null && photo.isModified()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A page of the catalog in memory.
+     */
+    private static final class Page {
+        private String segment;
+        private int storedCount;
+        private Photo[] photos;
+        /** The sorted hash codes of the keys of the stored photos, kept while the page is unread. */
+        private int[] keyHashes;
+        private boolean dirty;
+
+        /**
+         * Creates a page.
+         *
+         * @param segment the segment the page is stored in, or null if it is not stored
+         * @param storedCount the number of photos in the stored page
+         * @param photos the photos by slot, or null if the page has not been read
+         */
+        Page(String segment, int storedCount, Photo[] photos) {
+            this.segment = segment;
+            this.storedCount = storedCount;
+            this.photos = photos;
+        }
+    }
+
+    /**
+     * A page as written by {@link #write(List, SegmentStore)}.
+     */
+    static final class StoredPage {
+        private final String segment;
+        private final int count;
+        private final Photo[] photos;
+        private final int[] keyHashes;
+
+        /**
+         * Creates a stored page.
+         *
+         * @param segment the segment holding the page, or null if the page is empty
+         * @param count the number of photos on the page
+         * @param photos the photos written, or null if the existing segment was kept
+         * @param keyHashes the sorted hash codes of the keys of the photos on the page
+         */
+        StoredPage(String segment, int count, Photo[] photos, int[] keyHashes) {
+            this.segment = segment;
+            this.count = count;
+            this.photos = photos;
+            this.keyHashes = keyHashes;
+        }
+
+        /**
+         * Returns the segment holding the page.
+         *
+         * @return the segment name, or null if the page is empty
+         */
+        String getSegment() {
+            return segment;
+        }
+
+        /**
+         * Returns the number of photos on the page.
+         *
+         * @return the photo count
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the hash codes of the keys of the photos on the page.
+         *
+         * @return the hash codes, in increasing order
+         */
+        int[] getKeyHashes() {
+            return keyHashes;
+        }
+    }
+}
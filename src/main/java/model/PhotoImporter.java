@@ -0,0 +1,157 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds the photos in a directory tree, for adding many photos to an album at once.
+ *
+ * <p>The tree is walked once to list the image files; the photos are then built on virtual threads,
+ * each reading the attributes and header metadata of a batch of files. The caller is told of the progress as batches
+ * finish, and interrupting the calling thread cancels the import.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class PhotoImporter {
+    private static final List<String> IMAGE_EXTENSIONS = List.of(".jpg", ".jpeg", ".png", ".gif", ".bmp");
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Receives the progress of an import.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        /**
+         * Called as files are read, from any thread.
+         *
+         * @param done the number of files read so far
+         * @param total the number of image files found
+         */
+        void update(int done, int total);
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private PhotoImporter() {
+    }
+
+    /**
+     * Returns true if a file name has the extension of a supported image format.
+     *
+     * @param fileName the file name
+     * @return true if the file is an image
+     */
+    public static boolean isImageFile(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds a photo for every image file in a directory tree, in the order they were found.
+     * Files that vanish or cannot be read during the import are left out.
+     *
+     * @param root the directory to import
+     * @param progress receives the progress, or null
+     * @return the photos
+     * @throws IOException if the directory cannot be walked
+     * @throws InterruptedException if the calling thread is interrupted, which cancels the import
+     */
+    public static List<Photo> scan(Path root, Progress progress) throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> tree = Files.walk(root)) {
+            files = tree.filter(path -> isImageFile(path.getFileName().toString()))
+                    .filter(Files::isRegularFile)
+                    .map(Path::toAbsolutePath)
+                    .collect(Collectors.toList());
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+
+        int total = files.size();
+        Photo[] photos = new Photo[total];
+        AtomicInteger done = new AtomicInteger();
+        if (progress != null) {
+            progress.update(0, total);
+        }
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<Future<?>> batches = new ArrayList<>();
+            for (int start = 0; start < total; start += BATCH_SIZE) {
+                int from = start;
+                int to = Math.min(total, start + BATCH_SIZE);
+                batches.add(executor.submit(() -> {
+                    for (int i = from; i < to && !Thread.currentThread().isInterrupted(); i++) {
+                        photos[i] = readPhoto(files.get(i));
+                    }
+                    int finished = done.addAndGet(to - from);
+                    if (progress != null) {
+                        progress.update(finished, total);
+                    }
+                }));
+            }
+            for (Future<?> batch : batches) {
+                batch.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to import " + root, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Photo> found = new ArrayList<>(total);
+        for (Photo photo : photos) {
+            if (photo != null) {
+                found.add(photo);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Builds the photo of a file from its attributes and the metadata in its headers.
+     *
+     * @param file the image file
+     * @return the photo, or null if the file cannot be read
+     */
+    private static Photo readPhoto(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            LocalDateTime modified = LocalDateTime.ofInstant(attributes.lastModifiedTime().toInstant(), ZoneId.systemDefault());
+            Photo photo = new Photo(file.toString(), modified);
+            try {
+                photo.setMetadata(PhotoMetadata.read(file));
+            } catch (IOException e) {
+                System.err.println("Could not read the metadata of " + file + ": " + e.getMessage());
+            }
+            // Normalize the path here rather than when the photo is added to the catalog
+            photo.getKey();
+            return photo;
+        } catch (IOException e) {
+            System.err.println("Skipping " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
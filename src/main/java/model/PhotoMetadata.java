@@ -0,0 +1,369 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The capture date, pixel size and orientation of a photo, read from the headers of its file.
+ *
+ * <p>Only the headers are read, never the pixels: for JPEG files the segments before the image data,
+ * including the EXIF block; for PNG files the chunks before the image data, including an
+ * {@code eXIf} chunk; for GIF and BMP files the fixed-size header. A typical photo needs a few
+ * kilobytes read. Anything missing or malformed is left unknown.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class PhotoMetadata {
+    /** The orientation of a photo stored upright, and of photos with no orientation recorded. */
+    public static final int ORIENTATION_NORMAL = 1;
+
+    static final PhotoMetadata UNKNOWN = new PhotoMetadata(null, 0, 0, ORIENTATION_NORMAL);
+
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int MAX_PNG_CHUNKS = 64;
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private final LocalDateTime captureDate;
+    private final int width;
+    private final int height;
+    private final int orientation;
+
+    /**
+     * Creates metadata.
+     *
+     * @param captureDate the date the photo was taken, or null if unknown
+     * @param width the width in pixels, or 0 if unknown
+     * @param height the height in pixels, or 0 if unknown
+     * @param orientation the EXIF orientation, from 1 to 8
+     */
+    PhotoMetadata(LocalDateTime captureDate, int width, int height, int orientation) {
+        this.captureDate = captureDate;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+    }
+
+    /**
+     * Returns the date the photo was taken, as recorded by the camera.
+     *
+     * @return the capture date, or null if unknown
+     */
+    public LocalDateTime getCaptureDate() {
+        return captureDate;
+    }
+
+    /**
+     * Returns the width of the stored image, before any orientation is applied.
+     *
+     * @return the width in pixels, or 0 if unknown
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the stored image, before any orientation is applied.
+     *
+     * @return the height in pixels, or 0 if unknown
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the EXIF orientation: 1 for upright, up to 8 for the other rotations and mirrorings.
+     *
+     * @return the orientation
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Reads the metadata of an image file from its headers.
+     *
+     * @param file the image file
+     * @return the metadata, with unknown fields for anything the headers do not hold
+     * @throws IOException if the file cannot be read
+     */
+    public static PhotoMetadata read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = read(channel, 0, 32);
+            if (head.remaining() >= 4 && (head.get(0) & 0xFF) == 0xFF && (head.get(1) & 0xFF) == 0xD8) {
+                return readJpeg(channel);
+            }
+            if (startsWith(head, PNG_SIGNATURE)) {
+                return readPng(channel);
+            }
+            if (head.remaining() >= 10 && head.get(0) == 'G' && head.get(1) == 'I' && head.get(2) == 'F') {
+                head.order(ByteOrder.LITTLE_ENDIAN);
+                return new PhotoMetadata(null, head.getShort(6) & 0xFFFF, head.getShort(8) & 0xFFFF, ORIENTATION_NORMAL);
+            }
+            if (head.remaining() >= 26 && head.get(0) == 'B' && head.get(1) == 'M') {
+                head.order(ByteOrder.LITTLE_ENDIAN);
+                if (head.getInt(14) == 12) {
+                    // OS/2 bitmap core header with 16-bit dimensions
+                    return new PhotoMetadata(null, head.getShort(18) & 0xFFFF, head.getShort(20) & 0xFFFF, ORIENTATION_NORMAL);
+                }
+                // A negative height marks a bitmap stored top-down
+                return new PhotoMetadata(null, Math.abs(head.getInt(18)), Math.abs(head.getInt(22)), ORIENTATION_NORMAL);
+            }
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Reads the segments of a JPEG file up to its frame header, which holds the image size.
+     * The EXIF segment comes before the frame header.
+     *
+     * @param channel the file
+     * @return the metadata
+     * @throws IOException if the file cannot be read
+     */
+    private static PhotoMetadata readJpeg(FileChannel channel) throws IOException {
+        PhotoMetadata exif = UNKNOWN;
+        long pos = 2;
+        while (true) {
+            ByteBuffer header = read(channel, pos, 4);
+            if (header.remaining() < 4 || (header.get(0) & 0xFF) != 0xFF) {
+                return exif;
+            }
+            int marker = header.get(1) & 0xFF;
+            if (marker == 0xFF) {
+                pos++; // Fill byte
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                pos += 2; // Markers without a length
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                return exif; // End of image, or start of the image data
+            }
+            int length = header.getShort(2) & 0xFFFF;
+            if (length < 2) {
+                return exif;
+            }
+            if (marker == 0xE1 && exif == UNKNOWN) {
+                ByteBuffer segment = read(channel, pos + 4, length - 2);
+                if (startsWith(segment, "Exif\0\0".getBytes(StandardCharsets.US_ASCII))) {
+                    segment.position(6);
+                    exif = readTiff(segment.slice());
+                }
+            } else if (isFrameHeader(marker)) {
+                ByteBuffer frame = read(channel, pos + 4, 5);
+                if (frame.remaining() < 5) {
+                    return exif;
+                }
+                int height = frame.getShort(1) & 0xFFFF;
+                int width = frame.getShort(3) & 0xFFFF;
+                return new PhotoMetadata(exif.captureDate, width, height, exif.orientation);
+            }
+            pos += 2 + length;
+        }
+    }
+
+    /**
+     * Reads the chunks of a PNG file before its image data: the size from the header chunk and
+     * the EXIF block from an {@code eXIf} chunk.
+     *
+     * @param channel the file
+     * @return the metadata
+     * @throws IOException if the file cannot be read
+     */
+    private static PhotoMetadata readPng(FileChannel channel) throws IOException {
+        int width = 0;
+        int height = 0;
+        PhotoMetadata exif = UNKNOWN;
+        long pos = PNG_SIGNATURE.length;
+        for (int i = 0; i < MAX_PNG_CHUNKS; i++) {
+            ByteBuffer header = read(channel, pos, 8);
+            if (header.remaining() < 8) {
+                break;
+            }
+            long length = header.getInt(0) & 0xFFFFFFFFL;
+            String type = new String(new byte[] {header.get(4), header.get(5), header.get(6), header.get(7)}, StandardCharsets.US_ASCII);
+            if (type.equals("IDAT") || type.equals("IEND")) {
+                break;
+            }
+            if (type.equals("IHDR") && length >= 8) {
+                ByteBuffer size = read(channel, pos + 8, 8);
+                if (size.remaining() == 8) {
+                    width = size.getInt(0);
+                    height = size.getInt(4);
+                }
+            } else if (type.equals("eXIf") && length <= 0xFFFF) {
+                exif = readTiff(read(channel, pos + 8, (int) length));
+            }
+            pos += 12 + length;
+        }
+        return new PhotoMetadata(exif.captureDate, width, height, exif.orientation);
+    }
+
+    /**
+     * Reads the capture date and orientation from an EXIF block, laid out as a TIFF file.
+     *
+     * The image size is left unknown; it is taken from the image headers instead.
+     *
+     * @param tiff the EXIF block
+     * @return the metadata, with no size
+     */
+    private static PhotoMetadata readTiff(ByteBuffer tiff) {
+        try {
+            if (tiff.remaining() < 8) {
+                return UNKNOWN;
+            }
+            if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+                tiff.order(ByteOrder.LITTLE_ENDIAN);
+            } else if (tiff.get(0) == 'M' && tiff.get(1) == 'M') {
+                tiff.order(ByteOrder.BIG_ENDIAN);
+            } else {
+                return UNKNOWN;
+            }
+
+            int orientation = ORIENTATION_NORMAL;
+            String dateTime = null;
+            String dateTimeOriginal = null;
+            int ifd = tiff.getInt(4);
+            int entries = tiff.getShort(ifd) & 0xFFFF;
+            for (int i = 0; i < entries; i++) {
+                int entry = ifd + 2 + i * 12;
+                int tag = tiff.getShort(entry) & 0xFFFF;
+                if (tag == TAG_ORIENTATION) {
+                    int value = tiff.getShort(entry + 8) & 0xFFFF;
+                    if (value >= 1 && value <= 8) {
+                        orientation = value;
+                    }
+                } else if (tag == TAG_DATE_TIME) {
+                    dateTime = asciiValue(tiff, entry);
+                } else if (tag == TAG_EXIF_IFD) {
+                    dateTimeOriginal = findDateTimeOriginal(tiff, tiff.getInt(entry + 8));
+                }
+            }
+            String date = dateTimeOriginal != null ? dateTimeOriginal : dateTime;
+            return new PhotoMetadata(parseDate(date), 0, 0, orientation);
+        } catch (IndexOutOfBoundsException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Finds the date the photo was taken in the EXIF directory.
+     *
+     * @param tiff the EXIF block
+     * @param ifd the offset of the EXIF directory
+     * @return the date as written, or null if absent
+     */
+    private static String findDateTimeOriginal(ByteBuffer tiff, int ifd) {
+        int entries = tiff.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if ((tiff.getShort(entry) & 0xFFFF) == TAG_DATE_TIME_ORIGINAL) {
+                return asciiValue(tiff, entry);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the text value of a directory entry.
+     *
+     * @param tiff the EXIF block
+     * @param entry the offset of the entry
+     * @return the text, without its terminating zero
+     */
+    private static String asciiValue(ByteBuffer tiff, int entry) {
+        int count = tiff.getInt(entry + 4);
+        int offset = count <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+        if (count <= 0 || count > 64) {
+            return null;
+        }
+        byte[] text = new byte[count];
+        tiff.get(offset, text);
+        int end = 0;
+        while (end < text.length && text[end] != 0) {
+            end++;
+        }
+        return new String(text, 0, end, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parses an EXIF date, written as {@code yyyy:MM:dd HH:mm:ss}.
+     *
+     * @param value the date as written, or null
+     * @return the date, or null if absent or invalid
+     */
+    private static LocalDateTime parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value.trim(), EXIF_DATE);
+        } catch (DateTimeParseException e) {
+            return null; // Cameras without a clock write zeros or blanks
+        }
+    }
+
+    /**
+     * Returns true for the JPEG markers starting a frame header.
+     *
+     * @param marker the marker
+     * @return true if the segment holds the image size
+     */
+    private static boolean isFrameHeader(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * Returns true if a buffer starts with the given bytes.
+     *
+     * @param buffer the buffer
+     * @param prefix the bytes
+     * @return true if the buffer starts with them
+     */
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(buffer.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads up to the given number of bytes at a position; fewer near the end of the file.
+     *
+     * @param channel the file
+     * @param position the file position
+     * @param length the number of bytes
+     * @return the bytes read, as a big-endian buffer
+     * @throws IOException if the file cannot be read
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,174 @@
+package model;
+
+import java.util.List;
+
+/**
+ * A search over a user's photos, written as an expression such as
+ * {@code person=alice AND (location=nyc OR location=paris) AND date>=2023-01-01 AND NOT activity=work}.
+ *
+ * <p>Tags are matched with {@code name=value}, dates with {@code date} followed by {@code =},
+ * {@code >=}, {@code <=}, {@code >} or {@code <} and a day written YYYY-MM-DD, and captions with
+ * {@code caption~text}, which matches captions containing the text in any case. Predicates combine
+ * with AND, OR, NOT and parentheses; values with spaces go in double quotes.</p>
+ *
+ * <p>A query is answered from the user's {@link TagIndex}, {@link DateIndex} and {@link CaptionIndex} where it can,
+ * following a plan chosen from the sizes of the index lists; {@link #explain(User, Album)} shows
+ * that plan.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class PhotoQuery {
+    private final QueryNode root;
+
+    /**
+     * Creates a query from its parsed form.
+     *
+     * @param root the parsed query
+     */
+    private PhotoQuery(QueryNode root) {
+        this.root = root;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param text the query
+     * @return the query
+     * @throws IllegalArgumentException if the query is not well formed, with a message saying what is wrong and where
+     */
+    public static PhotoQuery parse(String text) {
+        return new PhotoQuery(QueryParser.parse(text));
+    }
+
+    /**
+     * Receives the photos found by a search, a batch at a time.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Called on the searching thread with each batch of photos found.
+         *
+         * @param photos the photos found since the last batch
+         * @return true to go on searching, false to stop
+         */
+        boolean found(List<Photo> photos);
+    }
+
+    /**
+     * Plans the query against the user's indexes. Planning builds the indexes the first time they
+     * are needed, reading the user's albums, so it belongs on the thread that changes the albums;
+     * the search it returns can then be run on any thread.
+     *
+     * @param user the user whose photos are searched
+     * @param album the album to search, or null to search the whole library
+     * @return the planned search
+     */
+    public Search plan(User user, Album album) {
+        return new Search(this, user, album);
+    }
+
+    /**
+     * Returns the photos matching the query.
+     *
+     * @param user the user whose photos are searched
+     * @param album the album to search, or null to search the whole library
+     * @return the photos, each once, in the order they joined the library
+     */
+    public List<Photo> find(User user, Album album) {
+        return plan(user, album).find();
+    }
+
+    /**
+     * Runs the query and describes how it was answered.
+     *
+     * @param user the user whose photos are searched
+     * @param album the album to search, or null to search the whole library
+     * @return the plan, one step per line
+     * @see Search#explain()
+     */
+    public String explain(User user, Album album) {
+        return plan(user, album).explain();
+    }
+
+    /**
+     * Returns the query as it would be written, with the grouping made explicit.
+     *
+     * @return the query
+     */
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    /**
+     * A query planned against the indexes of a user, ready to run.
+     */
+    public static final class Search {
+        private final PhotoQuery query;
+        private final Album album;
+        private final QueryPlanner planner;
+        private final QueryPlanner.Plan plan;
+
+        /**
+         * Plans a query.
+         *
+         * @param query the query
+         * @param user the user whose photos are searched
+         * @param album the album to search, or null to search the whole library
+         */
+        private Search(PhotoQuery query, User user, Album album) {
+            this.query = query;
+            this.album = album;
+            this.planner = new QueryPlanner(user, album);
+            this.plan = planner.plan(query.root);
+        }
+
+        /**
+         * Returns the number of photos searched.
+         *
+         * @return the number of photos in the album or library, each counted once
+         */
+        public int getSearchedCount() {
+            return planner.searchedCount();
+        }
+
+        /**
+         * Returns the photos matching the query.
+         *
+         * @return the photos, each once, in the order they joined the library
+         */
+        public List<Photo> find() {
+            return planner.photos(plan.run());
+        }
+
+        /**
+         * Hands over the photos matching the query in batches, as they are found. Photos are tested
+         * and read a batch at a time, so the first batch arrives before the rest are looked at.
+         * Can run on a background thread while the user keeps editing photos.
+         *
+         * @param batchSize the most photos tested or read per batch
+         * @param sink receives the batches, each photo once, in the order they joined the library
+         * @return true if the search ran to the end, false if the sink stopped it
+         */
+        public boolean stream(int batchSize, Sink sink) {
+            return planner.stream(plan, batchSize, sink);
+        }
+
+        /**
+         * Runs the query and describes how it was answered: each step of the plan with the number of
+         * photos it was estimated to yield, its estimated cost, and the number of photos it yielded.
+         *
+         * @return the plan, one step per line, inputs indented under the step combining them
+         */
+        public String explain() {
+            plan.run();
+            StringBuilder out = new StringBuilder();
+            out.append("Query: ").append(query).append('\n');
+            out.append("Searching ").append(planner.searchedCount())
+                    .append(album != null ? " photos of album " + album.getName() : " photos of the library").append("\n\n");
+            plan.explain(out, 0);
+            return out.toString();
+        }
+    }
+}
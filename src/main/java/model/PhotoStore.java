@@ -0,0 +1,61 @@
+package model;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Storage for user libraries.
+ * The controllers only talk to a store, so the way libraries are persisted can be replaced
+ * without touching them. {@link FilePhotoStore} keeps each user in a data file of its own, and is
+ * the only store: a store backed by an embedded database is not provided.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public interface PhotoStore {
+
+    /**
+     * Returns true if the store holds a user with the given name.
+     *
+     * @param username the user name to look up
+     * @return true if the user exists
+     */
+    boolean contains(String username);
+
+    /**
+     * Returns the names of all users in the store, in alphabetical order.
+     *
+     * @return the user names
+     */
+    Set<String> getUsernames();
+
+    /**
+     * Loads a user and its library.
+     *
+     * @param username the name of the user to load
+     * @return the user, or null if the store holds no user with that name
+     * @throws IOException if the user's data cannot be read
+     */
+    User loadUser(String username) throws IOException;
+
+    /**
+     * Saves a user and its library, creating the user if it does not exist yet.
+     *
+     * @param user the user to save
+     * @throws IOException if the user's data cannot be written
+     */
+    void saveUser(User user) throws IOException;
+
+    /**
+     * Deletes a user and its library.
+     *
+     * @param username the name of the user to delete
+     * @throws IOException if the user's data cannot be deleted
+     */
+    void deleteUser(String username) throws IOException;
+
+    /**
+     * Writes any changes still pending. Called when the application exits.
+     */
+    void close();
+}
@@ -0,0 +1,83 @@
+package model;
+
+import java.io.File;
+import java.nio.file.Paths;
+
+/**
+ * The photo stores used by the application, and the only place that knows where user data lives.
+ * Regular users are kept in the user's home directory; the stock user ships with the application
+ * in the data directory. Thumbnails kept between runs live next to the regular users.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class PhotoStores {
+    public static final String STOCK_USERNAME = "stock";
+    public static final String USER_DATA_DIR = System.getProperty("user.home") + File.separator + "PhotoAlbumUsers";
+    public static final String STOCK_DATA_DIR = "data";
+    public static final String STOCK_PHOTOS_DIR = Paths.get(STOCK_DATA_DIR, "stockPhotos").toString();
+    public static final String THUMBNAIL_DIR = Paths.get(USER_DATA_DIR, "thumbnails").toString();
+
+    private static final PhotoStore users = new FilePhotoStore(USER_DATA_DIR);
+    private static final PhotoStore stock = new FilePhotoStore(STOCK_DATA_DIR, STOCK_USERNAME, "stockUser.dat");
+    private static ThumbnailStore thumbnails;
+
+    /**
+     * Not instantiable.
+     */
+    private PhotoStores() {
+    }
+
+    /**
+     * Returns the store holding the regular users.
+     *
+     * @return the user store
+     */
+    public static PhotoStore users() {
+        return users;
+    }
+
+    /**
+     * Returns the store holding the stock user.
+     *
+     * @return the stock user store
+     */
+    public static PhotoStore stock() {
+        return stock;
+    }
+
+    /**
+     * Returns the store a user is kept in.
+     *
+     * @param username the user name
+     * @return the stock store for the stock user, the user store otherwise
+     */
+    public static PhotoStore forUser(String username) {
+        return username.equals(STOCK_USERNAME) ? stock : users;
+    }
+
+    /**
+     * Returns the store keeping thumbnails between runs, opening it on first use.
+     *
+     * @return the thumbnail store
+     */
+    public static synchronized ThumbnailStore thumbnails() {
+        if (thumbnails == null) {
+            thumbnails = new ThumbnailStore(new File(THUMBNAIL_DIR));
+        }
+        return thumbnails;
+    }
+
+    /**
+     * Writes the changes still pending in every store. Called when the application exits.
+     */
+    public static void closeAll() {
+        users.close();
+        stock.close();
+        synchronized (PhotoStores.class) {
+            if (thumbnails != null) {
+                thumbnails.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a user's photos in step with their files, by watching the directories holding them.
+ *
+ * <p>Photos are watched once they are shown, and each photo's file is checked once when it starts
+ * being watched. From then on only file system events cause a photo to be checked again: a photo
+ * whose file is deleted or moved away is marked missing, and a photo whose file is changed or
+ * restored gets its modification date and metadata read again and its perceptual hash dropped.
+ * No directory is ever scanned as a whole unless the file system reports that it lost events for it.</p>
+ *
+ * <p>Files are read on a background thread, {@link #SETTLE_MILLIS} after the event so a file being
+ * copied is read once complete; the photos are then updated, and the listeners told,
+ * on the executor the watcher was started with, so the views never see a photo change under them.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class PhotoWatcher {
+    /** How long after an event its files are read, so files being written are read once complete. */
+    static final long SETTLE_MILLIS = 250;
+
+    private static final Map<User, PhotoWatcher> watchers = new IdentityHashMap<>();
+
+    private final User user;
+    private final Executor applier;
+    private final WatchService service;
+    private final ScheduledExecutorService checker;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    /** For each watched directory, the photos in it by file path. */
+    private final Map<Path, Map<Path, Photo>> photos = new HashMap<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Receives the photos updated after their files changed.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called on the watcher's executor after photos were updated.
+         *
+         * @param changed the photos whose files changed, appeared or disappeared
+         */
+        void photosChanged(List<Photo> changed);
+    }
+
+    /**
+     * Creates a watcher and starts its thread.
+     *
+     * @param user the user whose photos are watched
+     * @param applier runs the updates of the photos, such as the JavaFX thread
+     * @throws IOException if the file system cannot be watched
+     */
+    private PhotoWatcher(User user, Executor applier) throws IOException {
+        this.user = user;
+        this.applier = applier;
+        this.service = FileSystems.getDefault().newWatchService();
+        this.checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "photo-watcher-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.thread = new Thread(this::run, "photo-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts watching the photos of a user, or returns the watcher already started for the user.
+     *
+     * @param user the user
+     * @param applier runs the updates of the photos, such as the JavaFX thread
+     * @return the watcher
+     * @throws IOException if the file system cannot be watched
+     */
+    public static PhotoWatcher start(User user, Executor applier) throws IOException {
+        synchronized (watchers) {
+            PhotoWatcher watcher = watchers.get(user);
+            if (watcher == null) {
+                watcher = new PhotoWatcher(user, applier);
+                watchers.put(user, watcher);
+            }
+            return watcher;
+        }
+    }
+
+    /**
+     * Returns the watcher started for a user.
+     *
+     * @param user the user
+     * @return the watcher, or null if the user's photos are not watched
+     */
+    public static PhotoWatcher of(User user) {
+        synchronized (watchers) {
+            return watchers.get(user);
+        }
+    }
+
+    /**
+     * Stops watching the photos of a user, if they are watched.
+     *
+     * @param user the user
+     */
+    public static void stop(User user) {
+        PhotoWatcher watcher;
+        synchronized (watchers) {
+            watcher = watchers.remove(user);
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    /**
+     * Adds a listener told about photos updated by this watcher.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener. Listeners may remove themselves while being told about changes.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts watching photos, and checks the files of the photos not watched before.
+     * Photos already watched are skipped, so this can be called every time photos are shown.
+     *
+     * @param shown the photos
+     */
+    public void watch(Collection<Photo> shown) {
+        List<Photo> added = new ArrayList<>();
+        List<Path> newDirectories = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            for (Photo photo : shown) {
+                Path file = pathOf(photo);
+                if (file == null || file.getParent() == null) {
+                    continue;
+                }
+                Path directory = file.getParent();
+                Map<Path, Photo> inDirectory = photos.get(directory);
+                if (inDirectory == null) {
+                    inDirectory = new HashMap<>();
+                    photos.put(directory, inDirectory);
+                    newDirectories.add(directory);
+                }
+                if (inDirectory.putIfAbsent(file, photo) == null) {
+                    added.add(photo);
+                }
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        checker.execute(() -> {
+            for (Path directory : newDirectories) {
+                register(directory);
+            }
+            check(added);
+        });
+    }
+
+    /**
+     * Stops watching. Updates already read may still be applied.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        checker.shutdownNow();
+        try {
+            service.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (watchers) {
+            watchers.remove(user, this);
+        }
+    }
+
+    /**
+     * Waits for file system events and hands the affected photos to the checker. Runs on the watcher thread.
+     */
+    private void run() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            List<Photo> affected = new ArrayList<>();
+            boolean lostEvents = false;
+            List<Path> changedFiles = new ArrayList<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    lostEvents = true;
+                } else {
+                    changedFiles.add((Path) event.context());
+                }
+            }
+            // A key that cannot be reset belongs to a directory that was deleted or moved
+            boolean valid = key.reset();
+            synchronized (this) {
+                Path directory = directories.get(key);
+                Map<Path, Photo> inDirectory = directory != null ? photos.get(directory) : null;
+                if (inDirectory == null) {
+                    continue;
+                }
+                if (lostEvents || !valid) {
+                    affected.addAll(inDirectory.values());
+                } else {
+                    for (Path name : changedFiles) {
+                        Photo photo = inDirectory.get(directory.resolve(name));
+                        if (photo != null && !affected.contains(photo)) {
+                            affected.add(photo);
+                        }
+                    }
+                }
+                if (!valid) {
+                    directories.remove(key);
+                    keys.remove(directory);
+                }
+            }
+            if (!affected.isEmpty()) {
+                try {
+                    checker.schedule(() -> check(affected), SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RuntimeException e) {
+                    return; // Closed meanwhile
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts receiving the events of a directory. A directory that cannot be watched is reported;
+     * its photos are still checked once.
+     *
+     * @param directory the directory
+     */
+    private void register(Path directory) {
+        try {
+            WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            synchronized (this) {
+                keys.put(directory, key);
+                directories.put(key, directory);
+            }
+        } catch (NoSuchFileException e) {
+            // The whole directory is gone; its photos are marked missing by the check
+        } catch (IOException | ClosedWatchServiceException e) {
+            if (!closed) {
+                System.err.println("Cannot watch " + directory + " for changes: " + e);
+            }
+        }
+    }
+
+    /**
+     * Reads the files of photos and hands the photos that differ from their files to the applier.
+     * Runs on the checker thread.
+     *
+     * @param checked the photos to check
+     */
+    private void check(List<Photo> checked) {
+        Map<Photo, Update> updates = new LinkedHashMap<>();
+        for (Photo photo : checked) {
+            Path file = pathOf(photo);
+            Update update = readFile(file);
+            // Stored dates keep whole milliseconds, so compare no finer than that
+            if (update.missing != photo.isMissing()
+                    || (!update.missing && UserCodec.toEpochMillis(update.modified) != UserCodec.toEpochMillis(photo.getLastModifiedDate()))) {
+                updates.put(photo, update);
+            }
+        }
+        if (updates.isEmpty() || closed) {
+            return;
+        }
+        applier.execute(() -> {
+            List<Photo> changed = new ArrayList<>(updates.keySet());
+            for (Map.Entry<Photo, Update> entry : updates.entrySet()) {
+                Update update = entry.getValue();
+                if (update.missing) {
+                    entry.getKey().setMissing(true);
+                } else {
+                    entry.getKey().fileChanged(update.modified, update.metadata);
+                }
+            }
+            for (Listener listener : listeners) {
+                listener.photosChanged(changed);
+            }
+        });
+    }
+
+    /**
+     * Reads the modification date and metadata of a file.
+     *
+     * @param file the file, or null if its path is invalid
+     * @return what was read, or a missing file
+     */
+    private static Update readFile(Path file) {
+        if (file == null) {
+            return new Update(true, null, null);
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return new Update(true, null, null);
+            }
+            LocalDateTime modified = LocalDateTime.ofInstant(attributes.lastModifiedTime().toInstant(), ZoneId.systemDefault());
+            PhotoMetadata metadata;
+            try {
+                metadata = PhotoMetadata.read(file);
+            } catch (IOException e) {
+                metadata = PhotoMetadata.UNKNOWN;
+            }
+            return new Update(false, modified, metadata);
+        } catch (IOException e) {
+            return new Update(true, null, null);
+        }
+    }
+
+    /**
+     * Returns the absolute path of a photo's file.
+     *
+     * @param photo the photo
+     * @return the path, or null if the file path is not valid on this platform
+     */
+    private static Path pathOf(Photo photo) {
+        try {
+            return Paths.get(photo.getFilePath()).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The state of a photo's file, as read by the checker.
+     */
+    private static final class Update {
+        final boolean missing;
+        final LocalDateTime modified;
+        final PhotoMetadata metadata;
+
+        /**
+         * Creates an update.
+         *
+         * @param missing true if the file no longer exists
+         * @param modified the modification date of the file, or null if missing
+         * @param metadata the metadata of the file, or null if missing
+         */
+        Update(boolean missing, LocalDateTime modified, PhotoMetadata metadata) {
+            this.missing = missing;
+            this.modified = modified;
+            this.metadata = metadata;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A sorted set of catalog photo ids, as kept by the search indexes for each tag or album.
+ *
+ * <p>Intersections step through the shorter list and find each of its ids in the longer one with
+ * a galloping search, so their cost depends on the shorter list, not on the longer one.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class PostingList {
+    private static final int[] EMPTY = new int[0];
+
+    private int[] ids = EMPTY;
+    private int size;
+
+    /**
+     * Creates an empty list.
+     */
+    PostingList() {
+    }
+
+    /**
+     * Creates a list of ids already sorted, as read back from storage.
+     *
+     * @param sorted ids in increasing order, kept by the list
+     */
+    PostingList(int[] sorted) {
+        this.ids = sorted;
+        this.size = sorted.length;
+    }
+
+    /**
+     * Adds an id. New photos have the highest ids, so adding is usually an append.
+     *
+     * @param id the id
+     * @return true if the id was not in the list
+     */
+    boolean add(int id) {
+        int position = size > 0 && ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0 && position < size) {
+            return false;
+        }
+        if (position < 0) {
+            position = -position - 1;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        ids[position] = id;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes an id.
+     *
+     * @param id the id
+     * @return true if the id was in the list
+     */
+    boolean remove(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes every id.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns true if the list holds an id.
+     *
+     * @param id the id
+     * @return true if the id is in the list
+     */
+    boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * Returns the number of ids.
+     *
+     * @return the size of the list
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the list holds no id.
+     *
+     * @return true if the list is empty
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns a copy of the ids, in increasing order.
+     *
+     * @return the ids
+     */
+    int[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * Returns the ids in both a sorted array and this list.
+     *
+     * @param sorted ids in increasing order
+     * @return the common ids, in increasing order
+     */
+    int[] intersect(int[] sorted) {
+        if (sorted.length > size) {
+            return intersect(ids, size, sorted, sorted.length);
+        }
+        return intersect(sorted, sorted.length, ids, size);
+    }
+
+    /**
+     * Returns the ids in this list and another.
+     *
+     * @param other the other list
+     * @return the common ids, in increasing order
+     */
+    int[] intersect(PostingList other) {
+        if (other.size > size) {
+            return intersect(ids, size, other.ids, other.size);
+        }
+        return intersect(other.ids, other.size, ids, size);
+    }
+
+    /**
+     * Returns the ids in both of two sorted arrays.
+     *
+     * @param a ids in increasing order
+     * @param b ids in increasing order
+     * @return the common ids, in increasing order
+     */
+    static int[] intersect(int[] a, int[] b) {
+        return a.length <= b.length ? intersect(a, a.length, b, b.length) : intersect(b, b.length, a, a.length);
+    }
+
+    /**
+     * Returns the ids in one sorted array but not in another.
+     *
+     * @param a ids in increasing order
+     * @param b ids in increasing order, to leave out
+     * @return the ids of a not in b, in increasing order
+     */
+    static int[] difference(int[] a, int[] b) {
+        int[] kept = new int[a.length];
+        int count = 0;
+        int j = 0;
+        for (int id : a) {
+            while (j < b.length && b[j] < id) {
+                j++;
+            }
+            if (j == b.length || b[j] != id) {
+                kept[count++] = id;
+            }
+        }
+        return count == kept.length ? kept : Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Returns the ids in either of two sorted arrays.
+     *
+     * @param a ids in increasing order
+     * @param b ids in increasing order
+     * @return the ids of both, in increasing order and without repeats
+     */
+    static int[] union(int[] a, int[] b) {
+        int[] merged = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                merged[count++] = a[i++];
+            } else if (a[i] > b[j]) {
+                merged[count++] = b[j++];
+            } else {
+                merged[count++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            merged[count++] = a[i++];
+        }
+        while (j < b.length) {
+            merged[count++] = b[j++];
+        }
+        return count == merged.length ? merged : Arrays.copyOf(merged, count);
+    }
+
+    /**
+     * Intersects a short sorted run of ids with a long one, galloping through the long one.
+     *
+     * @param small the shorter ids
+     * @param smallSize the number of shorter ids
+     * @param large the longer ids
+     * @param largeSize the number of longer ids
+     * @return the common ids, in increasing order
+     */
+    private static int[] intersect(int[] small, int smallSize, int[] large, int largeSize) {
+        int[] common = new int[smallSize];
+        int count = 0;
+        int from = 0;
+        for (int i = 0; i < smallSize && from < largeSize; i++) {
+            int id = small[i];
+            // Double the step until past the id, then search the last step
+            int step = 1;
+            int to = from;
+            while (to < largeSize && large[to] < id) {
+                from = to;
+                to = from + step;
+                step <<= 1;
+            }
+            int position = Arrays.binarySearch(large, from, Math.min(to + 1, largeSize), id);
+            if (position >= 0) {
+                common[count++] = id;
+                from = position + 1;
+            } else {
+                from = -position - 1;
+            }
+        }
+        return Arrays.copyOf(common, count);
+    }
+}
@@ -0,0 +1,184 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A fixed set of words with counts, completing a prefix to the most frequent words starting with it.
+ *
+ * <p>Words are kept sorted by their lower case form, so the words starting with a prefix, in any
+ * case, are a contiguous range found with two binary searches. A sparse table holds the position of
+ * the highest count in every range whose length is a power of two, so the highest count of any
+ * range is found by comparing two entries. The best words of a range are then taken one at a time
+ * from a queue of ranges: taking the best word of a range splits the range in two around it. A
+ * completion therefore costs two binary searches and a few steps per word returned, however many
+ * words start with the prefix.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class PrefixDictionary {
+    /** The words in lower case, sorted. */
+    private final String[] keys;
+    /** The words as written, in the order of their keys. */
+    private final String[] words;
+    private final int[] counts;
+    /** For each level j, the position of the highest count of each range of 2^j words starting there. */
+    private final int[][] best;
+
+    /**
+     * Creates a dictionary.
+     *
+     * @param wordCounts the number of times each word is used; words differing only in case are kept apart
+     */
+    PrefixDictionary(Map<String, Integer> wordCounts) {
+        int size = wordCounts.size();
+        String[][] entries = new String[size][];
+        int i = 0;
+        for (String word : wordCounts.keySet()) {
+            entries[i++] = new String[] {word.toLowerCase(Locale.ROOT), word};
+        }
+        Arrays.sort(entries, (a, b) -> {
+            int order = a[0].compareTo(b[0]);
+            return order != 0 ? order : a[1].compareTo(b[1]);
+        });
+        keys = new String[size];
+        words = new String[size];
+        counts = new int[size];
+        for (i = 0; i < size; i++) {
+            keys[i] = entries[i][0];
+            words[i] = entries[i][1];
+            counts[i] = wordCounts.get(words[i]);
+        }
+
+        int levels = 1;
+        while (1 << levels <= size) {
+            levels++;
+        }
+        best = new int[levels][];
+        best[0] = new int[size];
+        for (i = 0; i < size; i++) {
+            best[0][i] = i;
+        }
+        for (int j = 1; j < levels; j++) {
+            int half = 1 << (j - 1);
+            best[j] = new int[size - (1 << j) + 1];
+            for (i = 0; i < best[j].length; i++) {
+                best[j][i] = better(best[j - 1][i], best[j - 1][i + half]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of words.
+     *
+     * @return the size of the dictionary
+     */
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the most frequent words starting with a prefix, in any case.
+     *
+     * @param prefix the prefix; the empty prefix starts every word
+     * @param limit the most words returned
+     * @return the words as written, most frequent first, ties in alphabetical order
+     */
+    List<String> complete(String prefix, int limit) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        int from = lowerBound(key);
+        int to = endOfPrefix(key, from);
+        List<String> completions = new ArrayList<>(Math.min(limit, to - from));
+        if (from == to || limit <= 0) {
+            return completions;
+        }
+        // Each entry is a range of positions and the position of its best word: {best, first, last}
+        PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> better(a[0], b[0]) == a[0] ? -1 : 1);
+        ranges.add(new int[] {highest(from, to - 1), from, to - 1});
+        while (!ranges.isEmpty() && completions.size() < limit) {
+            int[] range = ranges.poll();
+            int position = range[0];
+            completions.add(words[position]);
+            if (range[1] < position) {
+                ranges.add(new int[] {highest(range[1], position - 1), range[1], position - 1});
+            }
+            if (position < range[2]) {
+                ranges.add(new int[] {highest(position + 1, range[2]), position + 1, range[2]});
+            }
+        }
+        return completions;
+    }
+
+    /**
+     * Returns the position of the highest count in a range, from the two table entries covering it.
+     *
+     * @param first the first position
+     * @param last the last position, not before the first
+     * @return the position of the best word of the range
+     */
+    private int highest(int first, int last) {
+        int level = 31 - Integer.numberOfLeadingZeros(last - first + 1);
+        return better(best[level][first], best[level][last - (1 << level) + 1]);
+    }
+
+    /**
+     * Returns the better of two words: the more frequent, or the first in alphabetical order.
+     *
+     * @param a the position of a word
+     * @param b the position of another word
+     * @return the position of the better word
+     */
+    private int better(int a, int b) {
+        if (counts[a] != counts[b]) {
+            return counts[a] > counts[b] ? a : b;
+        }
+        return Math.min(a, b);
+    }
+
+    /**
+     * Returns the position of the first key at or after a key.
+     *
+     * @param key the key
+     * @return the position, or the size if every key is before it
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the position past the last key starting with a prefix. The keys starting with it
+     * follow one another from the first key at or after the prefix.
+     *
+     * @param prefix the prefix
+     * @param from the position of the first key at or after the prefix
+     * @return the end of the keys starting with the prefix
+     */
+    private int endOfPrefix(String prefix, int from) {
+        int low = from;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].startsWith(prefix)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,255 @@
+package model;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A parsed search query: a predicate on photos, or a combination of other queries.
+ *
+ * <p>Every node can test a single photo; the {@link QueryPlanner} decides when that is cheaper
+ * than looking the node up in an index.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+abstract class QueryNode {
+
+    /**
+     * Returns true if a photo satisfies this query.
+     *
+     * @param photo the photo
+     * @return true if the photo matches
+     */
+    abstract boolean matches(Photo photo);
+
+    /**
+     * Matches photos carrying a tag, as in {@code person=alice}. Answered by the {@link TagIndex}.
+     */
+    static final class HasTag extends QueryNode {
+        final Tag tag;
+
+        /**
+         * Creates the predicate.
+         *
+         * @param tag the tag
+         */
+        HasTag(Tag tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            return photo.hasTag(tag);
+        }
+
+        @Override
+        public String toString() {
+            return tag.getName() + "=" + quote(tag.getValue());
+        }
+    }
+
+    /**
+     * Matches photos dated within a range, as in {@code date>=2023-01-01}. Answered by the {@link DateIndex}.
+     */
+    static final class DateBetween extends QueryNode {
+        /** The earliest date included, in epoch milliseconds, or {@link Long#MIN_VALUE}. */
+        final long from;
+        /** The latest date included, in epoch milliseconds, or {@link Long#MAX_VALUE}. */
+        final long to;
+
+        /**
+         * Creates the predicate.
+         *
+         * @param from the earliest date included, in epoch milliseconds
+         * @param to the latest date included, in epoch milliseconds
+         */
+        DateBetween(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            long date = UserCodec.toEpochMillis(photo.getDate());
+            return date >= from && date <= to;
+        }
+
+        @Override
+        public String toString() {
+            if (from == Long.MIN_VALUE) {
+                return "date<=" + day(to);
+            }
+            if (to == Long.MAX_VALUE) {
+                return "date>=" + day(from);
+            }
+            return "date>=" + day(from) + " AND date<=" + day(to);
+        }
+
+        /**
+         * Returns the day a bound falls on.
+         *
+         * @param millis the bound in epoch milliseconds
+         * @return the day, as written in queries
+         */
+        private static LocalDate day(long millis) {
+            return UserCodec.fromEpochMillis(millis).toLocalDate();
+        }
+    }
+
+    /**
+     * Matches photos whose caption contains some text, ignoring case, as in {@code caption~beach}.
+     * The {@link CaptionIndex} answers it unless the text is empty.
+     */
+    static final class CaptionContains extends QueryNode {
+        final String text;
+        private final String lowerText;
+
+        /**
+         * Creates the predicate.
+         *
+         * @param text the text to look for
+         */
+        CaptionContains(String text) {
+            this.text = text;
+            this.lowerText = text.toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            String caption = photo.getCaption();
+            return caption != null && caption.toLowerCase(Locale.ROOT).contains(lowerText);
+        }
+
+        @Override
+        public String toString() {
+            return "caption~" + quote(text);
+        }
+    }
+
+    /**
+     * Matches photos matching every one of several queries.
+     */
+    static final class And extends QueryNode {
+        final List<QueryNode> operands;
+
+        /**
+         * Creates the conjunction.
+         *
+         * @param operands the queries, at least two
+         */
+        And(List<QueryNode> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            for (QueryNode operand : operands) {
+                if (!operand.matches(photo)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return join(operands, " AND ");
+        }
+    }
+
+    /**
+     * Matches photos matching at least one of several queries.
+     */
+    static final class Or extends QueryNode {
+        final List<QueryNode> operands;
+
+        /**
+         * Creates the disjunction.
+         *
+         * @param operands the queries, at least two
+         */
+        Or(List<QueryNode> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            for (QueryNode operand : operands) {
+                if (operand.matches(photo)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(operands, " OR ") + ")";
+        }
+    }
+
+    /**
+     * Matches photos not matching a query.
+     */
+    static final class Not extends QueryNode {
+        final QueryNode operand;
+
+        /**
+         * Creates the negation.
+         *
+         * @param operand the query
+         */
+        Not(QueryNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            return !operand.matches(photo);
+        }
+
+        @Override
+        public String toString() {
+            // A date range is written as two predicates joined by AND
+            boolean grouped = operand instanceof And || operand instanceof DateBetween;
+            return grouped ? "NOT (" + operand + ")" : "NOT " + operand;
+        }
+    }
+
+    /**
+     * Writes a value as it must appear in a query, quoted if it is not a single word.
+     *
+     * @param value the value
+     * @return the value, quoted if needed
+     */
+    static String quote(String value) {
+        if (value.isEmpty() || value.equalsIgnoreCase("AND") || value.equalsIgnoreCase("OR") || value.equalsIgnoreCase("NOT")) {
+            return "\"" + value + "\"";
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!QueryParser.isWordChar(value.charAt(i))) {
+                return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Writes queries separated by an operator.
+     *
+     * @param operands the queries
+     * @param separator the operator, with spaces around it
+     * @return the queries
+     */
+    private static String join(List<QueryNode> operands, String separator) {
+        StringBuilder text = new StringBuilder();
+        for (QueryNode operand : operands) {
+            if (text.length() > 0) {
+                text.append(separator);
+            }
+            text.append(operand);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,285 @@
+package model;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses the text of a search query into a {@link QueryNode}.
+ *
+ * <p>The grammar, from loosest to tightest binding:</p>
+ * <pre>
+ * query     = or
+ * or        = and { "OR" and }
+ * and       = unary { "AND" unary }
+ * unary     = "NOT" unary | "(" or ")" | predicate
+ * predicate = "date" ( "=" | "&gt;=" | "&lt;=" | "&gt;" | "&lt;" ) YYYY-MM-DD
+ *           | "caption" "~" value
+ *           | name "=" value
+ * </pre>
+ * <p>Keywords are not case-sensitive. A value containing spaces or symbols is written in double
+ * quotes, with {@code \"} for a quote inside it.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class QueryParser {
+    private final String text;
+    private int position;
+
+    /**
+     * Creates a parser for a query.
+     *
+     * @param text the query
+     */
+    private QueryParser(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param text the query
+     * @return the parsed query
+     * @throws IllegalArgumentException if the query is not well formed, with a message saying where
+     */
+    static QueryNode parse(String text) {
+        QueryParser parser = new QueryParser(text);
+        QueryNode query = parser.parseOr();
+        parser.skipSpaces();
+        if (parser.position < text.length()) {
+            throw parser.error("Expected AND, OR or the end of the query");
+        }
+        return query;
+    }
+
+    /**
+     * Returns true if a character can be part of an unquoted word.
+     *
+     * @param c the character
+     * @return true for letters, digits and punctuation other than the query's own symbols
+     */
+    static boolean isWordChar(char c) {
+        return !Character.isWhitespace(c) && "()=<>~\"".indexOf(c) < 0;
+    }
+
+    /**
+     * Parses operands joined by OR.
+     *
+     * @return the query
+     */
+    private QueryNode parseOr() {
+        List<QueryNode> operands = new ArrayList<>();
+        do {
+            addFlattened(operands, parseAnd(), QueryNode.Or.class);
+        } while (acceptKeyword("OR"));
+        return operands.size() == 1 ? operands.get(0) : new QueryNode.Or(operands);
+    }
+
+    /**
+     * Parses operands joined by AND.
+     *
+     * @return the query
+     */
+    private QueryNode parseAnd() {
+        List<QueryNode> operands = new ArrayList<>();
+        do {
+            addFlattened(operands, parseUnary(), QueryNode.And.class);
+        } while (acceptKeyword("AND"));
+        return operands.size() == 1 ? operands.get(0) : new QueryNode.And(operands);
+    }
+
+    /**
+     * Parses a negation, a parenthesized query or a predicate.
+     *
+     * @return the query
+     */
+    private QueryNode parseUnary() {
+        if (acceptKeyword("NOT")) {
+            return new QueryNode.Not(parseUnary());
+        }
+        if (accept("(")) {
+            QueryNode query = parseOr();
+            if (!accept(")")) {
+                throw error("Expected ')'");
+            }
+            return query;
+        }
+        return parsePredicate();
+    }
+
+    /**
+     * Parses a predicate on dates, captions or tags.
+     *
+     * @return the predicate
+     */
+    private QueryNode parsePredicate() {
+        skipSpaces();
+        int start = position;
+        String name = readWord();
+        if (name == null) {
+            throw error(position < text.length() ? "Expected a tag name, date or caption" : "Unexpected end of the query");
+        }
+        if (name.equalsIgnoreCase("date")) {
+            return parseDate();
+        }
+        if (name.equalsIgnoreCase("caption")) {
+            if (!accept("~")) {
+                throw error("Expected '~' after caption");
+            }
+            return new QueryNode.CaptionContains(readValue());
+        }
+        if (!accept("=")) {
+            position = start + name.length();
+            throw error("Expected '=' after the tag name " + name);
+        }
+        return new QueryNode.HasTag(new Tag(name, readValue()));
+    }
+
+    /**
+     * Parses the comparison and day of a date predicate.
+     *
+     * @return the predicate
+     */
+    private QueryNode parseDate() {
+        String operator = accept(">=") ? ">=" : accept("<=") ? "<=" : accept(">") ? ">" : accept("<") ? "<" : accept("=") ? "=" : null;
+        if (operator == null) {
+            throw error("Expected =, >=, <=, > or < after date");
+        }
+        skipSpaces();
+        int start = position;
+        String word = readWord();
+        LocalDate day;
+        try {
+            day = LocalDate.parse(word != null ? word : "");
+        } catch (DateTimeParseException e) {
+            position = start;
+            throw error("Expected a date written YYYY-MM-DD");
+        }
+        long dayStart = UserCodec.toEpochMillis(day.atStartOfDay());
+        long dayEnd = UserCodec.toEpochMillis(day.plusDays(1).atStartOfDay()) - 1;
+        switch (operator) {
+            case ">=":
+                return new QueryNode.DateBetween(dayStart, Long.MAX_VALUE);
+            case ">":
+                return new QueryNode.DateBetween(dayEnd + 1, Long.MAX_VALUE);
+            case "<=":
+                return new QueryNode.DateBetween(Long.MIN_VALUE, dayEnd);
+            case "<":
+                return new QueryNode.DateBetween(Long.MIN_VALUE, dayStart - 1);
+            default:
+                return new QueryNode.DateBetween(dayStart, dayEnd);
+        }
+    }
+
+    /**
+     * Reads a value, quoted or not.
+     *
+     * @return the value
+     */
+    private String readValue() {
+        skipSpaces();
+        if (position < text.length() && text.charAt(position) == '"') {
+            StringBuilder value = new StringBuilder();
+            int start = position++;
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\' && position < text.length()) {
+                    c = text.charAt(position++);
+                }
+                value.append(c);
+            }
+            position = start;
+            throw error("Unclosed quote");
+        }
+        String word = readWord();
+        if (word == null) {
+            throw error("Expected a value");
+        }
+        return word;
+    }
+
+    /**
+     * Reads an unquoted word.
+     *
+     * @return the word, or null if none starts here
+     */
+    private String readWord() {
+        int start = position;
+        while (position < text.length() && isWordChar(text.charAt(position))) {
+            position++;
+        }
+        return position > start ? text.substring(start, position) : null;
+    }
+
+    /**
+     * Consumes a keyword if it is the next word.
+     *
+     * @param keyword the keyword, in upper case
+     * @return true if it was consumed
+     */
+    private boolean acceptKeyword(String keyword) {
+        skipSpaces();
+        int start = position;
+        String word = readWord();
+        if (word != null && word.toUpperCase(Locale.ROOT).equals(keyword)) {
+            return true;
+        }
+        position = start;
+        return false;
+    }
+
+    /**
+     * Consumes a symbol if it comes next.
+     *
+     * @param symbol the symbol
+     * @return true if it was consumed
+     */
+    private boolean accept(String symbol) {
+        skipSpaces();
+        if (text.startsWith(symbol, position)) {
+            position += symbol.length();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips whitespace.
+     */
+    private void skipSpaces() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    /**
+     * Adds an operand to a list, adding the operands of a nested query of the same kind instead.
+     *
+     * @param operands the list
+     * @param operand the operand
+     * @param kind the kind of query being built
+     */
+    private static void addFlattened(List<QueryNode> operands, QueryNode operand, Class<? extends QueryNode> kind) {
+        if (kind.isInstance(operand)) {
+            operands.addAll(operand instanceof QueryNode.And ? ((QueryNode.And) operand).operands : ((QueryNode.Or) operand).operands);
+        } else {
+            operands.add(operand);
+        }
+    }
+
+    /**
+     * Creates the exception for a malformed query.
+     *
+     * @param message what was expected
+     * @return the exception
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + (position + 1) + ".");
+    }
+}
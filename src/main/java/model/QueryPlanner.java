@@ -0,0 +1,606 @@
+package model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Turns a parsed query into a plan of index lookups and photo tests, and runs it.
+ *
+ * <p>Each step of a plan carries an estimate of the number of photos it yields, taken from the
+ * sizes of the {@link TagIndex}, {@link DateIndex} and {@link CaptionIndex} lists, and of its cost, counted in ids read
+ * from an index; testing a photo costs {@link #PROBE_COST}. The operands of an AND are evaluated
+ * smallest first, and each further operand is either looked up and intersected, or, when few photos
+ * are left, tested on those photos only. Predicates no index answers are always tested on photos:
+ * on the photos left by the other operands when there are any, otherwise on every photo searched.
+ * All steps work on sorted catalog ids, so results come in the order photos joined the library.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class QueryPlanner {
+    /** The cost of testing one photo, relative to reading one id from an index. */
+    static final int PROBE_COST = 8;
+    /** The share of photos assumed to match a predicate no index can estimate. */
+    static final double UNKNOWN_SELECTIVITY = 0.1;
+
+    private final User user;
+    private final Album album;
+    private final TagIndex tags;
+    private final DateIndex dates;
+    private final CaptionIndex captions;
+    /** The ids of the photos searched, in increasing order. */
+    private final int[] searched;
+    private final int librarySize;
+
+    /**
+     * Creates a planner searching an album or a whole library.
+     *
+     * @param user the user
+     * @param album the album to search, or null to search the whole library
+     */
+    QueryPlanner(User user, Album album) {
+        this.user = user;
+        this.album = album;
+        this.tags = user.getTagIndex();
+        this.dates = user.getDateIndex();
+        this.captions = user.getCaptionIndex();
+        this.searched = tags.members(album);
+        this.librarySize = tags.size();
+    }
+
+    /**
+     * Returns the number of photos searched.
+     *
+     * @return the number of photos in the album or library
+     */
+    int searchedCount() {
+        return searched.length;
+    }
+
+    /**
+     * Plans a query.
+     *
+     * @param query the query
+     * @return the plan
+     */
+    Plan plan(QueryNode query) {
+        if (query instanceof QueryNode.HasTag) {
+            return new TagLookup((QueryNode.HasTag) query);
+        }
+        if (query instanceof QueryNode.DateBetween) {
+            return new DateLookup((QueryNode.DateBetween) query);
+        }
+        if (query instanceof QueryNode.CaptionContains && !((QueryNode.CaptionContains) query).text.isEmpty()) {
+            return new CaptionLookup((QueryNode.CaptionContains) query);
+        }
+        if (query instanceof QueryNode.And) {
+            Plan plan = planAnd(((QueryNode.And) query).operands);
+            plan.query = query;
+            return plan;
+        }
+        if (query instanceof QueryNode.Or) {
+            List<Plan> inputs = new ArrayList<>();
+            for (QueryNode operand : ((QueryNode.Or) query).operands) {
+                inputs.add(plan(operand));
+            }
+            return new Union(query, inputs);
+        }
+        if (query instanceof QueryNode.Not) {
+            return new Except(query, new AllPhotos(), plan(((QueryNode.Not) query).operand));
+        }
+        return new Scan(query);
+    }
+
+    /**
+     * Plans the operands of an AND: date ranges are merged into one, the other operands looked up
+     * cheapest first, and each operand either intersected or tested on the photos left.
+     *
+     * @param operands the operands
+     * @return the plan
+     */
+    private Plan planAnd(List<QueryNode> operands) {
+        List<Plan> included = new ArrayList<>();
+        List<Plan> excluded = new ArrayList<>();
+        QueryNode.DateBetween range = null;
+        for (QueryNode operand : operands) {
+            if (operand instanceof QueryNode.DateBetween) {
+                QueryNode.DateBetween other = (QueryNode.DateBetween) operand;
+                range = range == null ? other
+                        : new QueryNode.DateBetween(Math.max(range.from, other.from), Math.min(range.to, other.to));
+            } else if (operand instanceof QueryNode.Not) {
+                excluded.add(plan(((QueryNode.Not) operand).operand));
+            } else {
+                included.add(plan(operand));
+            }
+        }
+        if (range != null) {
+            included.add(new DateLookup(range));
+        }
+        // An index lookup costs about as much as the photos it yields, so this puts the smallest
+        // lookups first and the predicates that must test every photo last
+        included.sort(Comparator.comparingLong((Plan plan) -> plan.cost).thenComparingDouble(plan -> plan.rows));
+        // Removing the most photos first leaves the fewest to test afterwards
+        excluded.sort(Comparator.comparingDouble((Plan plan) -> plan.rows).reversed());
+
+        Plan current = included.isEmpty() ? new AllPhotos() : included.get(0);
+        for (int i = 1; i < included.size(); i++) {
+            Plan next = included.get(i);
+            current = current.rows * PROBE_COST < next.cost
+                    ? new Filter(current, next, true)
+                    : new Intersect(current, next);
+        }
+        for (Plan next : excluded) {
+            current = current.rows * PROBE_COST < next.cost
+                    ? new Filter(current, next, false)
+                    : new Except(new QueryNode.Not(next.query), current, next);
+        }
+        return current;
+    }
+
+    /**
+     * Runs a plan and hands its photos over in batches as they are found. When the last step of the
+     * plan tests photos, each batch is tested and handed over before the next is tested, so the
+     * first photos arrive without waiting for the whole test. May run on a background thread while
+     * the photos are edited: the indexes are read under their locks, and photos are tested through
+     * {@link Photo#hasTag(Tag)}, {@link Photo#getDate()} and {@link Photo#getCaption()}, which are
+     * safe to call from any thread.
+     *
+     * @param plan the plan
+     * @param batchSize the most photos tested or read per batch
+     * @param sink receives the batches of photos found
+     * @return true if every batch was handed over, false if the sink stopped the search
+     */
+    boolean stream(Plan plan, int batchSize, PhotoQuery.Sink sink) {
+        int[] ids;
+        QueryNode predicate = null;
+        boolean keep = true;
+        if (plan instanceof Filter) {
+            Filter filter = (Filter) plan;
+            ids = filter.input.run();
+            predicate = filter.predicate;
+            keep = filter.keep;
+        } else if (plan instanceof Scan) {
+            ids = searched;
+            predicate = ((Scan) plan).predicate;
+        } else {
+            ids = plan.run();
+        }
+        long found = 0;
+        for (int start = 0; start < ids.length; start += batchSize) {
+            int[] batch = Arrays.copyOfRange(ids, start, Math.min(ids.length, start + batchSize));
+            if (predicate != null) {
+                batch = test(batch, predicate, keep);
+            }
+            found += batch.length;
+            if (batch.length > 0 && !sink.found(photos(batch))) {
+                return false;
+            }
+        }
+        plan.found = found;
+        return true;
+    }
+
+    /**
+     * Returns the share of the photos searched that a plan is estimated to yield.
+     *
+     * @param plan the plan
+     * @return the selectivity, from 0 to 1
+     */
+    private double selectivity(Plan plan) {
+        return searched.length == 0 ? 0 : Math.min(1.0, plan.rows / searched.length);
+    }
+
+    /**
+     * Returns the photos with the given ids.
+     *
+     * @param ids photo ids
+     * @return the photos
+     */
+    List<Photo> photos(int[] ids) {
+        return user.getCatalog().photos(ids);
+    }
+
+    /**
+     * One step of a plan, yielding photo ids in increasing order.
+     */
+    abstract static class Plan {
+        /** The query this step answers, which a filter tests instead of running the step. */
+        QueryNode query;
+        /** The estimated number of photos yielded. */
+        final double rows;
+        /** The estimated cost, in ids read. */
+        final long cost;
+        /** The number of photos yielded when last run, or -1. */
+        long found = -1;
+
+        /**
+         * Creates a step.
+         *
+         * @param query the query answered
+         * @param rows the estimated number of photos yielded
+         * @param cost the estimated cost
+         */
+        Plan(QueryNode query, double rows, long cost) {
+            this.query = query;
+            this.rows = rows;
+            this.cost = cost;
+        }
+
+        /**
+         * Runs the step, and records the number of photos it yielded.
+         *
+         * @return the ids, in increasing order
+         */
+        final int[] run() {
+            int[] ids = execute();
+            found = ids.length;
+            return ids;
+        }
+
+        /**
+         * Computes the ids yielded.
+         *
+         * @return the ids, in increasing order
+         */
+        abstract int[] execute();
+
+        /**
+         * Describes the step on one line, without its inputs.
+         *
+         * @return the description
+         */
+        abstract String describe();
+
+        /**
+         * Returns the steps whose results this step combines.
+         *
+         * @return the inputs
+         */
+        List<Plan> inputs() {
+            return List.of();
+        }
+
+        /**
+         * Writes the plan as an indented tree, with estimates and, once run, actual counts.
+         *
+         * @param out the text to append to
+         * @param depth the indentation level
+         */
+        void explain(StringBuilder out, int depth) {
+            out.append("  ".repeat(depth)).append(describe())
+                    .append("  (est. ").append(Math.round(rows)).append(" photos, cost ").append(cost);
+            if (found >= 0) {
+                out.append(", found ").append(found);
+            }
+            out.append(")\n");
+            for (Plan input : inputs()) {
+                input.explain(out, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Yields every photo searched.
+     */
+    private final class AllPhotos extends Plan {
+        /**
+         * Creates the step.
+         */
+        AllPhotos() {
+            super(null, searched.length, searched.length);
+        }
+
+        @Override
+        int[] execute() {
+            return searched;
+        }
+
+        @Override
+        String describe() {
+            return album != null ? "All photos of album " + album.getName() : "All photos of the library";
+        }
+    }
+
+    /**
+     * Yields the photos carrying a tag, from the tag index.
+     */
+    private final class TagLookup extends Plan {
+        private final QueryNode.HasTag predicate;
+
+        /**
+         * Creates the step. Within an album, the tag is assumed spread evenly across the library.
+         *
+         * @param predicate the tag predicate
+         */
+        TagLookup(QueryNode.HasTag predicate) {
+            super(predicate, estimate(tags.count(predicate.tag)), tags.count(predicate.tag));
+            this.predicate = predicate;
+        }
+
+        @Override
+        int[] execute() {
+            int[] ids = tags.ids(predicate.tag);
+            return album != null ? PostingList.intersect(ids, searched) : ids;
+        }
+
+        @Override
+        String describe() {
+            return "Tag index lookup " + predicate;
+        }
+    }
+
+    /**
+     * Yields the photos dated within a range, from the date index.
+     */
+    private final class DateLookup extends Plan {
+        private final QueryNode.DateBetween predicate;
+
+        /**
+         * Creates the step. The date index counts the photos in range exactly.
+         *
+         * @param predicate the date predicate
+         */
+        DateLookup(QueryNode.DateBetween predicate) {
+            super(predicate, dates.count(predicate.from, predicate.to, album), dates.count(predicate.from, predicate.to, album));
+            this.predicate = predicate;
+        }
+
+        @Override
+        int[] execute() {
+            int[] ids = dates.ids(predicate.from, predicate.to, album);
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        @Override
+        String describe() {
+            return "Date index range " + predicate;
+        }
+    }
+
+    /**
+     * Yields the photos whose captions contain some text, from the caption index.
+     */
+    private final class CaptionLookup extends Plan {
+        private final QueryNode.CaptionContains predicate;
+
+        /**
+         * Creates the step. The caption index bounds the photos found by its shortest trigram list.
+         *
+         * @param predicate the caption predicate
+         */
+        CaptionLookup(QueryNode.CaptionContains predicate) {
+            super(predicate, estimate(captions.estimate(predicate.text)), captions.estimate(predicate.text));
+            this.predicate = predicate;
+        }
+
+        @Override
+        int[] execute() {
+            return captions.ids(predicate.text, album);
+        }
+
+        @Override
+        String describe() {
+            return "Caption index lookup " + predicate;
+        }
+    }
+
+    /**
+     * Yields the photos matching a predicate no index answers, by testing every photo searched.
+     */
+    private final class Scan extends Plan {
+        private final QueryNode predicate;
+
+        /**
+         * Creates the step.
+         *
+         * @param predicate the predicate
+         */
+        Scan(QueryNode predicate) {
+            super(predicate, searched.length * UNKNOWN_SELECTIVITY, (long) searched.length * PROBE_COST);
+            this.predicate = predicate;
+        }
+
+        @Override
+        int[] execute() {
+            return test(searched, predicate, true);
+        }
+
+        @Override
+        String describe() {
+            return "Scan testing " + predicate;
+        }
+    }
+
+    /**
+     * Keeps the photos of an input that match, or do not match, a predicate, by testing each photo.
+     */
+    private final class Filter extends Plan {
+        private final Plan input;
+        private final QueryNode predicate;
+        private final boolean keep;
+
+        /**
+         * Creates the step.
+         *
+         * @param input the step yielding the photos to test
+         * @param predicate the plan of the predicate, used for its query and estimate only
+         * @param keep true to keep matching photos, false to keep the others
+         */
+        Filter(Plan input, Plan predicate, boolean keep) {
+            super(keep ? predicate.query : new QueryNode.Not(predicate.query),
+                    input.rows * (keep ? selectivity(predicate) : 1 - selectivity(predicate)),
+                    input.cost + Math.round(input.rows * PROBE_COST));
+            this.input = input;
+            this.predicate = predicate.query;
+            this.keep = keep;
+        }
+
+        @Override
+        int[] execute() {
+            return test(input.run(), predicate, keep);
+        }
+
+        @Override
+        String describe() {
+            return "Filter testing " + (keep ? predicate : new QueryNode.Not(predicate));
+        }
+
+        @Override
+        List<Plan> inputs() {
+            return List.of(input);
+        }
+    }
+
+    /**
+     * Keeps the photos in both of two inputs.
+     */
+    private final class Intersect extends Plan {
+        private final Plan left;
+        private final Plan right;
+
+        /**
+         * Creates the step. The inputs are assumed independent.
+         *
+         * @param left the smaller input
+         * @param right the other input
+         */
+        Intersect(Plan left, Plan right) {
+            super(null, left.rows * selectivity(right), left.cost + right.cost);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int[] execute() {
+            int[] ids = left.run();
+            return ids.length == 0 ? ids : PostingList.intersect(ids, right.run());
+        }
+
+        @Override
+        String describe() {
+            return "Intersect";
+        }
+
+        @Override
+        List<Plan> inputs() {
+            return List.of(left, right);
+        }
+    }
+
+    /**
+     * Keeps the photos of one input that are not in another.
+     */
+    private final class Except extends Plan {
+        private final Plan left;
+        private final Plan right;
+
+        /**
+         * Creates the step. The inputs are assumed independent.
+         *
+         * @param query the query answered
+         * @param left the photos to keep from
+         * @param right the photos to leave out
+         */
+        Except(QueryNode query, Plan left, Plan right) {
+            super(query, left.rows * (1 - selectivity(right)), left.cost + right.cost);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int[] execute() {
+            int[] ids = left.run();
+            return ids.length == 0 ? ids : PostingList.difference(ids, right.run());
+        }
+
+        @Override
+        String describe() {
+            return "Except";
+        }
+
+        @Override
+        List<Plan> inputs() {
+            return List.of(left, right);
+        }
+    }
+
+    /**
+     * Merges the photos of several inputs.
+     */
+    private final class Union extends Plan {
+        private final List<Plan> inputs;
+
+        /**
+         * Creates the step.
+         *
+         * @param query the query answered
+         * @param inputs the inputs
+         */
+        Union(QueryNode query, List<Plan> inputs) {
+            super(query, Math.min(searched.length, inputs.stream().mapToDouble(plan -> plan.rows).sum()),
+                    inputs.stream().mapToLong(plan -> plan.cost).sum());
+            this.inputs = inputs;
+        }
+
+        @Override
+        int[] execute() {
+            int[] ids = new int[0];
+            for (Plan input : inputs) {
+                ids = PostingList.union(ids, input.run());
+            }
+            return ids;
+        }
+
+        @Override
+        String describe() {
+            return "Union";
+        }
+
+        @Override
+        List<Plan> inputs() {
+            return inputs;
+        }
+    }
+
+    /**
+     * Estimates how many of the photos searched carry a tag carried by a number of library photos.
+     *
+     * @param libraryCount the number of library photos carrying the tag
+     * @return the estimated number of photos searched carrying it
+     */
+    private double estimate(int libraryCount) {
+        if (album == null || librarySize == 0) {
+            return libraryCount;
+        }
+        return (double) libraryCount * searched.length / librarySize;
+    }
+
+    /**
+     * Tests photos against a predicate.
+     *
+     * @param ids the ids of the photos, in increasing order
+     * @param predicate the predicate
+     * @param keep true to keep matching photos, false to keep the others
+     * @return the ids kept, in increasing order
+     */
+    private int[] test(int[] ids, QueryNode predicate, boolean keep) {
+        int[] kept = new int[ids.length];
+        int count = 0;
+        PhotoCatalog catalog = user.getCatalog();
+        for (int id : ids) {
+            try {
+                if (predicate.matches(catalog.photo(id)) == keep) {
+                    kept[count++] = id;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to read photo " + id + " of " + user.getUsername());
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+}
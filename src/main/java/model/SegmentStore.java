@@ -0,0 +1,166 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The segment files of a user data file.
+ *
+ * <p>Segments hold the parts of a library that are read on demand, in a directory next to the
+ * user data file; the user data file itself is a manifest naming the segments it refers to.
+ * Since format version 4 the segments are the {@link PhotoCatalog} pages; version 3 stored one
+ * segment per album.</p>
+ *
+ * <p>Segment files are never modified once written. Saving writes new segments for what changed
+ * and keeps referring to the existing segments for the rest. Segments no longer referenced by the
+ * current or the previous generation of the user data file are deleted when the user is next
+ * loaded, so a library still in memory can always read the segments it was loaded from.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class SegmentStore {
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    private final File directory;
+    private long nextId = -1;
+
+    /**
+     * Creates the segment store of a user data file.
+     *
+     * @param snapshotFile the user data file
+     */
+    SegmentStore(File snapshotFile) {
+        this.directory = directoryOf(snapshotFile);
+    }
+
+    /**
+     * Returns the directory holding the segments of a user data file.
+     *
+     * @param snapshotFile the user data file
+     * @return the segment directory
+     */
+    static File directoryOf(File snapshotFile) {
+        return new File(snapshotFile.getPath() + ".albums");
+    }
+
+    /**
+     * Deletes all segments of a user data file.
+     *
+     * @param snapshotFile the user data file
+     * @throws IOException if a segment cannot be deleted
+     */
+    static void delete(File snapshotFile) throws IOException {
+        File dir = directoryOf(snapshotFile);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(dir.toPath());
+    }
+
+    /**
+     * Returns true if this store and another keep their segments in the same directory.
+     *
+     * @param other the other store
+     * @return true if both stores share a directory
+     */
+    boolean sameAs(SegmentStore other) {
+        return other != null && directory.equals(other.directory);
+    }
+
+    /**
+     * Returns true if a segment exists.
+     *
+     * @param name the file name of the segment
+     * @return true if the segment file exists
+     */
+    boolean exists(String name) {
+        return new File(directory, name).isFile();
+    }
+
+    /**
+     * Reads a segment.
+     *
+     * @param name the file name of the segment
+     * @return the contents of the segment
+     * @throws IOException if the segment cannot be read or is damaged
+     */
+    byte[] read(String name) throws IOException {
+        return StorageFile.readVerified(new File(directory, name));
+    }
+
+    /**
+     * Writes a new segment.
+     *
+     * @param payload the contents of the segment
+     * @return the file name of the segment
+     * @throws IOException if the segment cannot be written
+     */
+    String write(byte[] payload) throws IOException {
+        if (nextId < 0) {
+            Files.createDirectories(directory.toPath());
+            nextId = nextSegmentId();
+        }
+        String name = nextId++ + SEGMENT_EXTENSION;
+        StorageFile.writeAtomically(new File(directory, name), payload);
+        return name;
+    }
+
+    /**
+     * Deletes the segments referenced by neither the user data file nor its previous generation.
+     * Nothing is deleted if either file cannot be read.
+     *
+     * @param snapshotFile the user data file
+     */
+    void removeUnreferenced(File snapshotFile) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> referenced = new HashSet<>();
+        try {
+            for (File manifest : new File[] {snapshotFile, StorageFile.previousGeneration(snapshotFile)}) {
+                if (manifest.isFile()) {
+                    byte[] data = StorageFile.readVerified(manifest);
+                    if (UserCodec.isEncoded(data)) {
+                        referenced.addAll(UserCodec.readSegmentNames(data));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+        for (File file : files) {
+            if (!referenced.contains(file.getName()) && !file.delete()) {
+                System.err.println("Failed to delete unused segment " + file);
+            }
+        }
+    }
+
+    /**
+     * Returns an id higher than that of every segment in the directory.
+     *
+     * @return the next free segment id
+     */
+    private long nextSegmentId() {
+        long next = 1;
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                int end = name.indexOf('.');
+                try {
+                    next = Math.max(next, Long.parseLong(end < 0 ? name : name.substring(0, end)) + 1);
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,389 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Crash-safe storage for user data files.
+ *
+ * <p>A file is written to a temporary file, forced to disk and then renamed over the target, so a
+ * crash at any point leaves either the old or the new file in place, never a truncated one. The
+ * file being replaced is kept as the previous generation, to fall back on if the current file is
+ * ever found damaged. The previous generation is linked or copied from the current file before
+ * the rename, so the target itself is only ever replaced by that single rename.</p>
+ *
+ * <p>Files are framed as a magic number, a format version, a flags byte, the payload length, the
+ * payload and a CRC-32C checksum of everything before it. Files written before this framing was
+ * introduced have no frame and are returned as they are.</p>
+ *
+ * <p>The flags byte names the {@link Compression} of the payload. A compressed payload starts with
+ * the length of the original data. Files are written with {@link #DEFAULT_COMPRESSION}, which
+ * the {@code photos.compression} system property can override; every compression is always read.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class StorageFile {
+    private static final byte[] MAGIC = {'P', '0', '5', 'F'};
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = MAGIC.length + 2 + 4;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int RAW_LENGTH_SIZE = 4;
+
+    static final Compression DEFAULT_COMPRESSION = defaultCompression();
+
+    /**
+     * The ways a payload can be compressed, identified by the value of the flags byte.
+     */
+    enum Compression {
+        NONE(0),
+        DEFLATE(1),
+        LZ(2);
+
+        private final int flag;
+
+        /**
+         * Creates a compression.
+         *
+         * @param flag the value of the flags byte
+         */
+        Compression(int flag) {
+            this.flag = flag;
+        }
+
+        /**
+         * Returns the compression identified by a flags byte.
+         *
+         * @param flags the flags byte
+         * @return the compression
+         * @throws IOException if the flags name an unknown compression
+         */
+        static Compression of(int flags) throws IOException {
+            for (Compression compression : values()) {
+                if (compression.flag == flags) {
+                    return compression;
+                }
+            }
+            throw new IOException("Unknown compression flags " + flags);
+        }
+
+        /**
+         * Compresses a payload.
+         *
+         * @param payload the payload
+         * @return the compressed payload, without the original length
+         */
+        byte[] compress(byte[] payload) {
+            switch (this) {
+                case DEFLATE: {
+                    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                    try {
+                        deflater.setInput(payload);
+                        deflater.finish();
+                        BinaryOutput out = new BinaryOutput(payload.length / 2 + 64);
+                        byte[] chunk = new byte[8192];
+                        while (!deflater.finished()) {
+                            out.writeBytes(chunk, 0, deflater.deflate(chunk));
+                        }
+                        return out.toByteArray();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+                case LZ:
+                    return LzCodec.compress(payload, 0, payload.length);
+                default:
+                    return payload;
+            }
+        }
+
+        /**
+         * Restores a payload compressed by {@link #compress(byte[])}.
+         *
+         * @param data the bytes holding the compressed payload
+         * @param offset the offset of the compressed payload
+         * @param length the length of the compressed payload
+         * @param rawLength the length of the original payload
+         * @return the original payload
+         * @throws IOException if the compressed payload is malformed
+         */
+        byte[] decompress(byte[] data, int offset, int length, int rawLength) throws IOException {
+            switch (this) {
+                case DEFLATE: {
+                    Inflater inflater = new Inflater();
+                    try {
+                        inflater.setInput(data, offset, length);
+                        byte[] payload = new byte[rawLength];
+                        int read = 0;
+                        while (read < rawLength && !inflater.finished()) {
+                            int n = inflater.inflate(payload, read, rawLength - read);
+                            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                                break;
+                            }
+                            read += n;
+                        }
+                        if (read != rawLength) {
+                            throw new IOException("Malformed compressed data");
+                        }
+                        return payload;
+                    } catch (DataFormatException e) {
+                        throw new IOException("Malformed compressed data", e);
+                    } finally {
+                        inflater.end();
+                    }
+                }
+                case LZ:
+                    return LzCodec.decompress(data, offset, length, rawLength);
+                default:
+                    return Arrays.copyOfRange(data, offset, offset + length);
+            }
+        }
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private StorageFile() {
+    }
+
+    /**
+     * Returns the previous generation of a file, kept when the file is replaced.
+     *
+     * @param file the file
+     * @return the previous generation of the file
+     */
+    static File previousGeneration(File file) {
+        return new File(file.getPath() + ".bak");
+    }
+
+    /**
+     * Replaces the contents of a file, keeping the old contents as its previous generation.
+     * The contents are compressed with {@link #DEFAULT_COMPRESSION}.
+     *
+     * @param file the file to write
+     * @param payload the new contents
+     * @throws IOException if the file cannot be written; the old file is then left untouched
+     */
+    static void writeAtomically(File file, byte[] payload) throws IOException {
+        writeAtomically(file, payload, DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Replaces the contents of a file, keeping the old contents as its previous generation.
+     *
+     * @param file the file to write
+     * @param payload the new contents
+     * @param compression the compression of the contents
+     * @throws IOException if the file cannot be written; the old file is then left untouched
+     */
+    static void writeAtomically(File file, byte[] payload, Compression compression) throws IOException {
+        ByteBuffer[] frame = frame(payload, compression);
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (frame[frame.length - 1].hasRemaining()) {
+                channel.write(frame);
+            }
+            channel.force(true);
+        }
+
+        if (file.exists()) {
+            keepPreviousGeneration(file);
+        }
+        move(temp, file);
+        forceDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Makes the previous generation of a file a copy of its current contents, leaving the file in place.
+     * The contents are hard linked where the file system allows it, and copied otherwise.
+     *
+     * @param file the file about to be replaced
+     * @throws IOException if the previous generation cannot be written
+     */
+    private static void keepPreviousGeneration(File file) throws IOException {
+        File linked = new File(previousGeneration(file).getPath() + ".tmp");
+        Files.deleteIfExists(linked.toPath());
+        try {
+            Files.createLink(linked.toPath(), file.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(file.toPath(), linked.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        move(linked, previousGeneration(file));
+    }
+
+    /**
+     * Reads a file and checks its checksum.
+     *
+     * @param file the file to read
+     * @return the payload of the file
+     * @throws IOException if the file cannot be read, is truncated or fails its checksum
+     */
+    static byte[] readVerified(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        if (!isFramed(data)) {
+            return data;
+        }
+        if (data.length < HEADER_SIZE + CHECKSUM_SIZE) {
+            throw new IOException("Truncated data file " + file);
+        }
+        int version = data[MAGIC.length] & 0xFF;
+        if (version > VERSION) {
+            throw new IOException("Unsupported data file version " + version + " in " + file);
+        }
+        Compression compression = Compression.of(data[MAGIC.length + 1] & 0xFF);
+        int length = ByteBuffer.wrap(data, MAGIC.length + 2, 4).getInt();
+        if (length < 0 || (long) HEADER_SIZE + length + CHECKSUM_SIZE != data.length) {
+            throw new IOException("Truncated data file " + file);
+        }
+        int stored = ByteBuffer.wrap(data, HEADER_SIZE + length, CHECKSUM_SIZE).getInt();
+        if (stored != checksum(data, 0, HEADER_SIZE + length)) {
+            throw new IOException("Checksum mismatch in data file " + file);
+        }
+        if (compression == Compression.NONE) {
+            return Arrays.copyOfRange(data, HEADER_SIZE, HEADER_SIZE + length);
+        }
+        if (length < RAW_LENGTH_SIZE) {
+            throw new IOException("Truncated data file " + file);
+        }
+        int rawLength = ByteBuffer.wrap(data, HEADER_SIZE, RAW_LENGTH_SIZE).getInt();
+        if (rawLength < 0) {
+            throw new IOException("Malformed data file " + file);
+        }
+        return compression.decompress(data, HEADER_SIZE + RAW_LENGTH_SIZE, length - RAW_LENGTH_SIZE, rawLength);
+    }
+
+    /**
+     * Builds the frame of a file: its header, its possibly compressed payload and its checksum.
+     *
+     * @param payload the contents of the file
+     * @param compression the compression of the contents
+     * @return the buffers to write, in order
+     */
+    private static ByteBuffer[] frame(byte[] payload, Compression compression) {
+        byte[] body = compression.compress(payload);
+        ByteBuffer rawLength = ByteBuffer.allocate(compression == Compression.NONE ? 0 : RAW_LENGTH_SIZE);
+        if (compression != Compression.NONE) {
+            rawLength.putInt(payload.length);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).put((byte) VERSION).put((byte) compression.flag).putInt(rawLength.capacity() + body.length);
+        CRC32C crc = new CRC32C();
+        crc.update(header.array(), 0, HEADER_SIZE);
+        crc.update(rawLength.array(), 0, rawLength.capacity());
+        crc.update(body, 0, body.length);
+        ByteBuffer trailer = ByteBuffer.allocate(CHECKSUM_SIZE).putInt((int) crc.getValue());
+        return new ByteBuffer[] {header.flip(), rawLength.flip(), ByteBuffer.wrap(body), trailer.flip()};
+    }
+
+    /**
+     * Appends bytes to a file and forces them to disk.
+     *
+     * @param file the file to append to, created if missing
+     * @param bytes the bytes to append
+     * @param length the number of bytes to append
+     * @throws IOException if the file cannot be written
+     */
+    static void append(File file, byte[] bytes, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Computes the CRC-32C checksum of a byte range.
+     *
+     * @param bytes the bytes
+     * @param offset the offset of the range
+     * @param length the length of the range
+     * @return the checksum
+     */
+    static int checksum(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Moves a file into place, atomically where the file system supports it.
+     *
+     * @param source the file to move
+     * @param target the destination, which is replaced if it exists
+     * @throws IOException if the file cannot be moved
+     */
+    static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns the compression named by the {@code photos.compression} system property.
+     *
+     * @return the compression to write files with, LZ unless configured otherwise
+     */
+    private static Compression defaultCompression() {
+        String name = System.getProperty("photos.compression", Compression.LZ.name());
+        try {
+            return Compression.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown compression " + name + ", using " + Compression.LZ);
+            return Compression.LZ;
+        }
+    }
+
+    /**
+     * Returns true if the data starts with the frame magic number.
+     *
+     * @param data the file contents
+     * @return true if the data is framed
+     */
+    private static boolean isFramed(byte[] data) {
+        if (data.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forces a directory entry change such as a rename to disk.
+     * Not every platform allows opening a directory; there the rename is left to the file system.
+     *
+     * @param dir the directory
+     */
+    private static void forceDirectory(File dir) {
+        if (dir == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened on this platform
+        }
+    }
+}
@@ -10,6 +10,9 @@ import java.io.Serializable;
  * @author Maxime Deperrois
  */
 public class Tag implements Serializable {
+    // Matches the identifier computed for data saved before it was declared explicitly
+    private static final long serialVersionUID = -1544570177773262150L;
+
     private String name;
     private String value;
 
@@ -0,0 +1,109 @@
+package model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Completes tag names and values as they are typed, offering the ones most used in a user's library.
+ *
+ * <p>The names, and the values of each name, are kept in {@link PrefixDictionary dictionaries}
+ * counting the photos of the library carrying them, as found in the user's {@link TagIndex}. A
+ * dictionary is built when first needed and answers each completion in a few steps, so completions
+ * can be offered on every keystroke. As a {@link MutationListener} of the user, the completer
+ * drops the dictionaries a change affects: adding or removing a tag drops the dictionary of its
+ * name, and photos joining or leaving albums drop them all. They are rebuilt on the next completion.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class TagCompleter implements MutationListener {
+    private final TagIndex tags;
+    /** The dictionary of tag names, or null until needed again. */
+    private PrefixDictionary names;
+    private final Map<String, PrefixDictionary> values = new HashMap<>();
+
+    /**
+     * Creates a completer for a user's tags. Dictionaries are built when first needed.
+     *
+     * @param user the user
+     */
+    TagCompleter(User user) {
+        this.tags = user.getTagIndex();
+    }
+
+    /**
+     * Returns the tag names in use starting with a prefix, in any case.
+     *
+     * @param prefix the prefix typed
+     * @param limit the most names returned
+     * @return the names, those carried by the most photos first
+     */
+    public synchronized List<String> completeName(String prefix, int limit) {
+        if (names == null) {
+            names = new PrefixDictionary(tags.nameCounts());
+        }
+        return names.complete(prefix, limit);
+    }
+
+    /**
+     * Returns the values in use of a tag name starting with a prefix, in any case.
+     *
+     * @param name the tag name
+     * @param prefix the prefix typed
+     * @param limit the most values returned
+     * @return the values, those carried by the most photos first
+     */
+    public synchronized List<String> completeValue(String name, String prefix, int limit) {
+        PrefixDictionary dictionary = values.get(name);
+        if (dictionary == null) {
+            dictionary = new PrefixDictionary(tags.valueCounts(name));
+            values.put(name, dictionary);
+        }
+        return dictionary.complete(prefix, limit);
+    }
+
+    @Override
+    public synchronized void albumAdded(User user, Album album) {
+        clear();
+    }
+
+    @Override
+    public synchronized void albumRemoved(User user, Album album) {
+        clear();
+    }
+
+    @Override
+    public synchronized void photoAdded(Album album, Photo photo) {
+        if (!photo.getTags().isEmpty()) {
+            clear();
+        }
+    }
+
+    @Override
+    public synchronized void photoRemoved(Album album, Photo photo) {
+        if (!photo.getTags().isEmpty()) {
+            clear();
+        }
+    }
+
+    @Override
+    public synchronized void tagAdded(Photo photo, Tag tag) {
+        names = null;
+        values.remove(tag.getName());
+    }
+
+    @Override
+    public synchronized void tagRemoved(Photo photo, Tag tag) {
+        names = null;
+        values.remove(tag.getName());
+    }
+
+    /**
+     * Drops every dictionary.
+     */
+    private void clear() {
+        names = null;
+        values.clear();
+    }
+}
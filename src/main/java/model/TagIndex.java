@@ -0,0 +1,314 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the photos of a user that carry given tags without looking at every photo.
+ *
+ * <p>For every tag, the index keeps the sorted catalog ids of the photos in the user's albums that
+ * carry it, and for every album the sorted ids of its photos. A search for photos carrying all of
+ * several tags intersects their lists, smallest first; a search for any of several tags merges
+ * them; a search within an album intersects the result with the album's list. The cost of a search
+ * therefore depends on the lists involved, not on the size of the library.</p>
+ *
+ * <p>The index is built from the library the first time it is needed, then kept up to date as a
+ * {@link MutationListener} of the user: tags added to and removed from photos, and photos added to
+ * and removed from albums. A photo leaves the tag lists once it is in no album.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class TagIndex implements MutationListener {
+    private final User user;
+    private final Map<Tag, PostingList> byTag = new HashMap<>();
+    private final Map<Album, PostingList> byAlbum = new IdentityHashMap<>();
+    /** The number of albums holding each photo, by id. */
+    private int[] albumCounts = new int[256];
+    private int libraryPhotos;
+
+    /**
+     * Builds the index of a user's library, reading the photos of every album.
+     *
+     * @param user the user
+     */
+    TagIndex(User user) {
+        this.user = user;
+        for (Album album : user.getAlbums()) {
+            albumAdded(user, album);
+        }
+    }
+
+    /**
+     * Returns the photos carrying every one of the given tags.
+     *
+     * @param tags the tags
+     * @param album the album to search, or null to search the whole library
+     * @return the photos, in the order they joined the library
+     */
+    public synchronized List<Photo> findAll(Collection<Tag> tags, Album album) {
+        if (tags.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<PostingList> lists = new ArrayList<>();
+        for (Tag tag : tags) {
+            PostingList list = byTag.get(tag);
+            if (list == null) {
+                return new ArrayList<>();
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(PostingList::size));
+        int[] ids = lists.size() > 1 ? lists.get(0).intersect(lists.get(1)) : lists.get(0).toArray();
+        for (int i = 2; i < lists.size() && ids.length > 0; i++) {
+            ids = lists.get(i).intersect(ids);
+        }
+        return user.getCatalog().photos(within(ids, album));
+    }
+
+    /**
+     * Returns the photos carrying at least one of the given tags.
+     *
+     * @param tags the tags
+     * @param album the album to search, or null to search the whole library
+     * @return the photos, in the order they joined the library
+     */
+    public synchronized List<Photo> findAny(Collection<Tag> tags, Album album) {
+        int[] ids = new int[0];
+        for (Tag tag : tags) {
+            PostingList list = byTag.get(tag);
+            if (list != null) {
+                ids = PostingList.union(ids, album != null ? withinAlbum(list, album) : list.toArray());
+            }
+        }
+        return user.getCatalog().photos(ids);
+    }
+
+    /**
+     * Returns the number of photos in the user's albums carrying a tag.
+     *
+     * @param tag the tag
+     * @return the number of photos
+     */
+    public synchronized int count(Tag tag) {
+        PostingList list = byTag.get(tag);
+        return list != null ? list.size() : 0;
+    }
+
+    /**
+     * Returns the number of photos in the user's albums, each counted once.
+     *
+     * @return the number of photos
+     */
+    public synchronized int size() {
+        return libraryPhotos;
+    }
+
+    /**
+     * Returns the number of photos in the user's albums carrying each value of a tag name.
+     *
+     * @param name the tag name
+     * @return the photo count of each value carried by at least one photo
+     */
+    synchronized Map<String, Integer> valueCounts(String name) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<Tag, PostingList> entry : byTag.entrySet()) {
+            if (entry.getKey().getName().equals(name)) {
+                counts.put(entry.getKey().getValue(), entry.getValue().size());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of tags of each name carried by the photos in the user's albums.
+     *
+     * @return for each tag name in use, the number of photos carrying each of its values, summed
+     */
+    synchronized Map<String, Integer> nameCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<Tag, PostingList> entry : byTag.entrySet()) {
+            counts.merge(entry.getKey().getName(), entry.getValue().size(), Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the ids of the photos in the user's albums carrying a tag.
+     *
+     * @param tag the tag
+     * @return the ids, in increasing order
+     */
+    synchronized int[] ids(Tag tag) {
+        PostingList list = byTag.get(tag);
+        return list != null ? list.toArray() : new int[0];
+    }
+
+    /**
+     * Returns the ids of the photos in an album, or in the whole library.
+     *
+     * @param album the album, or null for the whole library
+     * @return the ids, in increasing order
+     */
+    synchronized int[] members(Album album) {
+        if (album != null) {
+            PostingList members = byAlbum.get(album);
+            return members != null ? members.toArray() : new int[0];
+        }
+        int[] ids = new int[libraryPhotos];
+        int count = 0;
+        for (int id = 1; id < albumCounts.length; id++) {
+            if (albumCounts[id] > 0) {
+                ids[count++] = id;
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized void albumAdded(User user, Album album) {
+        if (byAlbum.containsKey(album)) {
+            return;
+        }
+        PostingList members = new PostingList();
+        byAlbum.put(album, members);
+        for (Photo photo : album.getPhotos()) {
+            if (members.add(photo.getId())) {
+                join(photo);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void albumRemoved(User user, Album album) {
+        PostingList members = byAlbum.remove(album);
+        if (members == null) {
+            return;
+        }
+        for (Photo photo : album.getPhotos()) {
+            if (members.remove(photo.getId())) {
+                leave(photo);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void photoAdded(Album album, Photo photo) {
+        if (byAlbum.computeIfAbsent(album, key -> new PostingList()).add(photo.getId())) {
+            join(photo);
+        }
+    }
+
+    @Override
+    public synchronized void photoRemoved(Album album, Photo photo) {
+        PostingList members = byAlbum.get(album);
+        if (members != null && members.remove(photo.getId())) {
+            leave(photo);
+        }
+    }
+
+    @Override
+    public synchronized void tagAdded(Photo photo, Tag tag) {
+        if (isInLibrary(photo.getId())) {
+            byTag.computeIfAbsent(tag, key -> new PostingList()).add(photo.getId());
+        }
+    }
+
+    @Override
+    public synchronized void tagRemoved(Photo photo, Tag tag) {
+        // A photo may carry the same tag twice; it stays listed while it has a copy left
+        if (photo.getTags().contains(tag)) {
+            return;
+        }
+        removePosting(tag, photo.getId());
+    }
+
+    /**
+     * Counts a photo as held by one more album, listing its tags if it just joined the library.
+     *
+     * @param photo the photo
+     */
+    private void join(Photo photo) {
+        int id = photo.getId();
+        if (id >= albumCounts.length) {
+            albumCounts = Arrays.copyOf(albumCounts, Math.max(id + 1, albumCounts.length * 2));
+        }
+        if (albumCounts[id]++ == 0) {
+            libraryPhotos++;
+            for (Tag tag : photo.getTags()) {
+                byTag.computeIfAbsent(tag, key -> new PostingList()).add(id);
+            }
+        }
+    }
+
+    /**
+     * Counts a photo as held by one album fewer, unlisting its tags if it left the library.
+     *
+     * @param photo the photo
+     */
+    private void leave(Photo photo) {
+        int id = photo.getId();
+        if (id < albumCounts.length && albumCounts[id] > 0 && --albumCounts[id] == 0) {
+            libraryPhotos--;
+            for (Tag tag : photo.getTags()) {
+                removePosting(tag, id);
+            }
+        }
+    }
+
+    /**
+     * Removes a photo from the list of a tag, dropping lists that become empty.
+     *
+     * @param tag the tag
+     * @param id the photo id
+     */
+    private void removePosting(Tag tag, int id) {
+        PostingList list = byTag.get(tag);
+        if (list != null && list.remove(id) && list.isEmpty()) {
+            byTag.remove(tag);
+        }
+    }
+
+    /**
+     * Returns true if a photo is in at least one album.
+     *
+     * @param id the photo id
+     * @return true if the photo is in the library
+     */
+    private boolean isInLibrary(int id) {
+        return id > 0 && id < albumCounts.length && albumCounts[id] > 0;
+    }
+
+    /**
+     * Restricts ids to the photos of an album.
+     *
+     * @param ids ids in increasing order
+     * @param album the album, or null for no restriction
+     * @return the ids in the album
+     */
+    private int[] within(int[] ids, Album album) {
+        if (album == null || ids.length == 0) {
+            return ids;
+        }
+        PostingList members = byAlbum.get(album);
+        return members != null ? members.intersect(ids) : new int[0];
+    }
+
+    /**
+     * Returns the ids of a tag list that are in an album.
+     *
+     * @param list the tag list
+     * @param album the album
+     * @return the ids in both
+     */
+    private int[] withinAlbum(PostingList list, Album album) {
+        PostingList members = byAlbum.get(album);
+        return members != null ? members.intersect(list) : new int[0];
+    }
+}
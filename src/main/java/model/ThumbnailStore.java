@@ -0,0 +1,430 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Thumbnails kept on disk between runs, so a library opened again shows its thumbnails
+ * without reading the original photos.
+ *
+ * <p>A thumbnail is stored for a file path and a thumbnail size, together with the modification time
+ * of the file it was made from; a thumbnail is only returned while the file still has that time, so
+ * a changed photo gets a new thumbnail. The thumbnails are appended to a single pack file, read
+ * through a memory mapping, and located through an index file of checksummed records that is read
+ * once when the store is opened. A record cut short by a crash ends the index and is discarded.</p>
+ *
+ * <p>Replaced and outdated thumbnails leave unused bytes in the pack. When they outweigh the
+ * thumbnails still in use, the pack is rewritten the next time the store is opened, leaving out
+ * the thumbnails of files that changed or no longer exist.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public final class ThumbnailStore {
+    private static final byte[] PACK_MAGIC = {'P', '0', '5', 'T'};
+    private static final byte[] INDEX_MAGIC = {'P', '0', '5', 'I'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = PACK_MAGIC.length + 1;
+    private static final long MIN_COMPACTION_BYTES = 1 << 20;
+
+    private final File packFile;
+    private final File indexFile;
+    private final Map<Slot, Entry> entries = new HashMap<>();
+    private FileChannel pack;
+    private FileChannel index;
+    private MappedByteBuffer mapped;
+    private long liveBytes;
+    private boolean closed;
+
+    /**
+     * Opens the thumbnail store kept in a directory, creating it if needed.
+     * If the store cannot be opened, it stays empty and every lookup misses.
+     *
+     * @param directory the directory holding the pack and index files
+     */
+    public ThumbnailStore(File directory) {
+        this.packFile = new File(directory, "thumbnails.pack");
+        this.indexFile = new File(directory, "thumbnails.idx");
+        try {
+            Files.createDirectories(directory.toPath());
+            open();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to open the thumbnail store in " + directory + ", thumbnails will not be kept.");
+            closeQuietly();
+            closed = true;
+        }
+    }
+
+    /**
+     * Returns the thumbnail of a file, if one was stored for the file as it is now.
+     *
+     * @param path the absolute path of the photo file
+     * @param size the thumbnail size
+     * @param lastModified the current modification time of the photo file
+     * @return the encoded thumbnail, or null if none is stored or the file changed since
+     */
+    public synchronized byte[] get(String path, int size, long lastModified) {
+        if (closed) {
+            return null;
+        }
+        Entry entry = entries.get(new Slot(path, size));
+        if (entry == null || entry.lastModified != lastModified) {
+            return null;
+        }
+        try {
+            if (mapped == null || entry.offset + entry.length > mapped.capacity()) {
+                mapped = pack.map(FileChannel.MapMode.READ_ONLY, 0, pack.size());
+            }
+            byte[] data = new byte[entry.length];
+            mapped.get((int) entry.offset, data);
+            return data;
+        } catch (IOException | IndexOutOfBoundsException e) {
+            e.printStackTrace();
+            System.err.println("Failed to read a thumbnail of " + path);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the thumbnail of a file, replacing any thumbnail stored for the same file and size.
+     *
+     * @param path the absolute path of the photo file
+     * @param size the thumbnail size
+     * @param lastModified the modification time of the photo file the thumbnail was made from
+     * @param data the encoded thumbnail
+     */
+    public synchronized void put(String path, int size, long lastModified, byte[] data) {
+        if (closed) {
+            return;
+        }
+        try {
+            long offset = pack.size();
+            writeFully(pack, ByteBuffer.wrap(data), offset);
+            Entry entry = new Entry(lastModified, offset, data.length);
+            appendIndexRecord(index, path, size, entry);
+            add(new Slot(path, size), entry);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to store a thumbnail of " + path);
+        }
+    }
+
+    /**
+     * Returns the number of thumbnails stored.
+     *
+     * @return the thumbnail count
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Closes the store. Thumbnails written so far are kept for the next run.
+     */
+    public synchronized void close() {
+        closeQuietly();
+        closed = true;
+    }
+
+    /**
+     * Opens the pack and index files, reads the index, and rewrites the pack if it holds mostly unused bytes.
+     *
+     * @throws IOException if the files cannot be opened
+     */
+    private void open() throws IOException {
+        pack = FileChannel.open(packFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (!hasHeader(pack, PACK_MAGIC) || !hasHeader(index, INDEX_MAGIC)) {
+            // A new store, or files from another version: start over
+            writeHeader(pack, PACK_MAGIC);
+            writeHeader(index, INDEX_MAGIC);
+            return;
+        }
+        readIndex();
+
+        long unused = pack.size() - HEADER_SIZE - liveBytes;
+        if (unused > MIN_COMPACTION_BYTES && unused > liveBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Reads the index records, keeping the last record for each file and size. Reading stops at the
+     * first damaged record or one pointing past the end of the pack, and the index is cut there.
+     *
+     * @throws IOException if the index cannot be read
+     */
+    private void readIndex() throws IOException {
+        byte[] data = Files.readAllBytes(indexFile.toPath());
+        BinaryInput in = new BinaryInput(data);
+        in.seek(HEADER_SIZE);
+        long packSize = pack.size();
+        int valid = HEADER_SIZE;
+        try {
+            while (in.hasRemaining()) {
+                int length = in.readVarInt();
+                int checksum = in.readInt();
+                int start = in.position();
+                if (length > data.length - start || StorageFile.checksum(data, start, length) != checksum) {
+                    break;
+                }
+                BinaryInput record = new BinaryInput(data, start, length);
+                String path = record.readString();
+                int size = record.readVarInt();
+                Entry entry = new Entry(record.readSignedVarLong(), record.readVarLong(), record.readVarInt());
+                if (entry.offset < HEADER_SIZE || entry.offset + entry.length > packSize) {
+                    break;
+                }
+                in.seek(start + length);
+                add(new Slot(path, size), entry);
+                valid = in.position();
+            }
+        } catch (IOException e) {
+            // Record cut short; the index ends at the last complete record
+        }
+        if (valid < data.length) {
+            index.truncate(valid);
+        }
+    }
+
+    /**
+     * Rewrites the pack and index with only the thumbnails of files that have not changed since.
+     *
+     * @throws IOException if the new files cannot be written
+     */
+    private void compact() throws IOException {
+        File newPack = new File(packFile.getPath() + ".tmp");
+        File newIndex = new File(indexFile.getPath() + ".tmp");
+        Map<Slot, Entry> kept = new HashMap<>();
+        try (FileChannel packOut = FileChannel.open(newPack.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             FileChannel indexOut = FileChannel.open(newIndex.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(packOut, PACK_MAGIC);
+            writeHeader(indexOut, INDEX_MAGIC);
+            long offset = HEADER_SIZE;
+            for (Map.Entry<Slot, Entry> slotEntry : entries.entrySet()) {
+                Slot slot = slotEntry.getKey();
+                Entry entry = slotEntry.getValue();
+                if (new File(slot.path).lastModified() != entry.lastModified) {
+                    continue;
+                }
+                ByteBuffer data = ByteBuffer.allocate(entry.length);
+                readFully(pack, data, entry.offset);
+                data.flip();
+                writeFully(packOut, data, offset);
+                Entry moved = new Entry(entry.lastModified, offset, entry.length);
+                appendIndexRecord(indexOut, slot.path, slot.size, moved);
+                kept.put(slot, moved);
+                offset += entry.length;
+            }
+            packOut.force(false);
+            indexOut.force(false);
+        }
+
+        closeQuietly();
+        // The index is replaced last: an old index never points into a new pack
+        Files.deleteIfExists(indexFile.toPath());
+        StorageFile.move(newPack, packFile);
+        StorageFile.move(newIndex, indexFile);
+        pack = FileChannel.open(packFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        entries.clear();
+        liveBytes = 0;
+        for (Map.Entry<Slot, Entry> slotEntry : kept.entrySet()) {
+            add(slotEntry.getKey(), slotEntry.getValue());
+        }
+    }
+
+    /**
+     * Records the location of a thumbnail, replacing any earlier one for the same file and size.
+     *
+     * @param slot the file and size
+     * @param entry the location of the thumbnail
+     */
+    private void add(Slot slot, Entry entry) {
+        Entry replaced = entries.put(slot, entry);
+        if (replaced != null) {
+            liveBytes -= replaced.length;
+        }
+        liveBytes += entry.length;
+    }
+
+    /**
+     * Appends a checksummed index record.
+     *
+     * @param channel the index file
+     * @param path the photo file path
+     * @param size the thumbnail size
+     * @param entry the location of the thumbnail
+     * @throws IOException if the record cannot be written
+     */
+    private static void appendIndexRecord(FileChannel channel, String path, int size, Entry entry) throws IOException {
+        BinaryOutput body = new BinaryOutput();
+        body.writeString(path);
+        body.writeVarInt(size);
+        body.writeSignedVarLong(entry.lastModified);
+        body.writeVarLong(entry.offset);
+        body.writeVarInt(entry.length);
+
+        BinaryOutput record = new BinaryOutput(body.size() + 10);
+        record.writeVarInt(body.size());
+        record.writeInt(StorageFile.checksum(body.toByteArray(), 0, body.size()));
+        record.writeBytes(body);
+        writeFully(channel, ByteBuffer.wrap(record.toByteArray()), channel.size());
+    }
+
+    /**
+     * Returns true if a file starts with the given magic number and the current version.
+     *
+     * @param channel the file
+     * @param magic the magic number
+     * @return true if the header matches
+     * @throws IOException if the file cannot be read
+     */
+    private static boolean hasHeader(FileChannel channel, byte[] magic) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        for (int i = 0; i < magic.length; i++) {
+            if (header.get(i) != magic[i]) {
+                return false;
+            }
+        }
+        return header.get(magic.length) == VERSION;
+    }
+
+    /**
+     * Empties a file and writes the header.
+     *
+     * @param channel the file
+     * @param magic the magic number
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeHeader(FileChannel channel, byte[] magic) throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(magic).put((byte) VERSION).flip();
+        writeFully(channel, header, 0);
+    }
+
+    /**
+     * Writes a buffer at a position.
+     *
+     * @param channel the file
+     * @param buffer the bytes to write
+     * @param position the file position
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Fills a buffer from a position.
+     *
+     * @param channel the file
+     * @param buffer the buffer to fill
+     * @param position the file position
+     * @throws IOException if the file is too short or cannot be read
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of thumbnail file");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Closes the files, ignoring failures.
+     */
+    private void closeQuietly() {
+        mapped = null;
+        for (FileChannel channel : new FileChannel[] {pack, index}) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Nothing left to do with the file
+                }
+            }
+        }
+        pack = null;
+        index = null;
+    }
+
+    /**
+     * A photo file and thumbnail size.
+     */
+    private static final class Slot {
+        private final String path;
+        private final int size;
+
+        /**
+         * Creates a slot.
+         *
+         * @param path the photo file path
+         * @param size the thumbnail size
+         */
+        Slot(String path, int size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Slot)) {
+                return false;
+            }
+            Slot other = (Slot) o;
+            return size == other.size && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size);
+        }
+    }
+
+    /**
+     * The location of a thumbnail in the pack and the modification time of the file it was made from.
+     */
+    private static final class Entry {
+        private final long lastModified;
+        private final long offset;
+        private final int length;
+
+        /**
+         * Creates an entry.
+         *
+         * @param lastModified the modification time of the photo file
+         * @param offset the offset of the thumbnail in the pack
+         * @param length the length of the thumbnail
+         */
+        Entry(long lastModified, long offset, int length) {
+            this.lastModified = lastModified;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Represents a user in the photo album application.
@@ -19,6 +24,12 @@ public class User implements Serializable {
 
     private String username;
     private List<Album> albums;
+    private transient List<MutationListener> listeners;
+    private transient volatile PhotoCatalog catalog;
+    private transient TagIndex tagIndex;
+    private transient DateIndex dateIndex;
+    private transient CaptionIndex captionIndex;
+    private transient TagCompleter tagCompleter;
 
     /**
      * Constructs a new User with the specified username.
@@ -28,6 +39,7 @@ public class User implements Serializable {
     public User(String username) {
         this.username = username;
         this.albums = new ArrayList<>();
+        this.listeners = new CopyOnWriteArrayList<>();
     }
 
     /**
@@ -50,11 +62,127 @@ public class User implements Serializable {
 
     /**
      * Returns the list of albums of the user.
+     * The list cannot be modified directly; use {@link #addAlbum(Album)} and {@link #removeAlbum(Album)}.
      *
      * @return the list of albums of the user
      */
     public List<Album> getAlbums() {
-        return albums;
+        return Collections.unmodifiableList(albums);
+    }
+
+    /**
+     * Returns the catalog holding each of the user's photos once, creating it on first use.
+     *
+     * @return the user's photo catalog
+     */
+    public PhotoCatalog getCatalog() {
+        PhotoCatalog current = catalog;
+        if (current == null) {
+            synchronized (this) {
+                current = catalog;
+                if (current == null) {
+                    current = new PhotoCatalog(this);
+                    catalog = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the index finding the user's photos by tag, building it on first use.
+     * Building it reads the photos of every album.
+     *
+     * @return the user's tag index
+     */
+    public synchronized TagIndex getTagIndex() {
+        if (tagIndex == null) {
+            tagIndex = new TagIndex(this);
+            addMutationListener(tagIndex);
+        }
+        return tagIndex;
+    }
+
+    /**
+     * Returns the index finding the user's photos by date. Its parts are built as they are first used.
+     *
+     * @return the user's date index
+     */
+    public synchronized DateIndex getDateIndex() {
+        if (dateIndex == null) {
+            dateIndex = new DateIndex(this);
+            addMutationListener(dateIndex);
+        }
+        return dateIndex;
+    }
+
+    /**
+     * Returns the completer offering the user's tag names and values as they are typed.
+     *
+     * @return the user's tag completer
+     */
+    public synchronized TagCompleter getTagCompleter() {
+        if (tagCompleter == null) {
+            tagCompleter = new TagCompleter(this);
+            addMutationListener(tagCompleter);
+        }
+        return tagCompleter;
+    }
+
+    /**
+     * Returns the index finding the user's photos by caption text, reading it from the user data
+     * or, if it was not stored, building it from the photos of every album.
+     *
+     * @return the user's caption index
+     */
+    public synchronized CaptionIndex getCaptionIndex() {
+        CaptionIndex index = captionIndex();
+        index.load();
+        return index;
+    }
+
+    /**
+     * Records the segment holding the stored caption index of a user being decoded.
+     *
+     * @param store the segments of the user data file
+     * @param segment the segment holding the index
+     */
+    synchronized void setStoredCaptionIndex(SegmentStore store, String segment) {
+        captionIndex().setStored(store, segment);
+    }
+
+    /**
+     * Writes the caption index for the user data file being written, if it changed since it was
+     * stored. An index that was never stored is built from the photos of every album.
+     *
+     * @param target the segments of the user data file
+     * @return the segment holding the index
+     * @throws IOException if the segment cannot be written
+     */
+    synchronized String storeCaptionIndex(SegmentStore target) throws IOException {
+        return captionIndex().store(target);
+    }
+
+    /**
+     * Returns true if the user data the user was decoded from holds its caption index as it is now.
+     *
+     * @return true if the stored caption index matches the user
+     */
+    synchronized boolean hasStoredCaptionIndex() {
+        return captionIndex != null && captionIndex.isStored();
+    }
+
+    /**
+     * Returns the caption index, creating it unread if needed.
+     *
+     * @return the caption index
+     */
+    private CaptionIndex captionIndex() {
+        if (captionIndex == null) {
+            captionIndex = new CaptionIndex(this);
+            addMutationListener(captionIndex);
+        }
+        return captionIndex;
     }
 
     /**
@@ -65,6 +193,7 @@ public class User implements Serializable {
     public void addAlbum(Album album) {
         album.setUser(this);
         albums.add(album);
+        notifyListeners(listener -> listener.albumAdded(this, album));
     }
 
     /**
@@ -73,6 +202,64 @@ public class User implements Serializable {
      * @param album the album to be removed
      */
     public void removeAlbum(Album album) {
-        albums.remove(album);
+        if (albums.remove(album)) {
+            notifyListeners(listener -> listener.albumRemoved(this, album));
+        }
+    }
+
+    /**
+     * Tells the albums that a photo of the library changed date, so albums whose photos have not
+     * been read stop reporting the date range stored with them.
+     *
+     * @param photo the photo, which already has its new date
+     */
+    void photoDateChanged(Photo photo) {
+        for (Album album : albums) {
+            album.photoDateChanged(photo);
+        }
+    }
+
+    /**
+     * Registers a listener to be told about changes to this user's albums and photos.
+     *
+     * @param listener the listener to add
+     */
+    public void addMutationListener(MutationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener added with {@link #addMutationListener(MutationListener)}.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeMutationListener(MutationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Delivers a change notification to every registered listener.
+     *
+     * @param event the notification to deliver
+     */
+    void notifyListeners(Consumer<MutationListener> event) {
+        for (MutationListener listener : listeners) {
+            event.accept(listener);
+        }
+    }
+
+    /**
+     * Restores the transient state of a user read with Java serialization.
+     *
+     * @param in the stream to read from
+     * @throws IOException if the stream cannot be read
+     * @throws ClassNotFoundException if a class of the serialized object cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        listeners = new CopyOnWriteArrayList<>();
+        for (Album album : albums) {
+            album.setUser(this);
+        }
     }
 }
\ No newline at end of file
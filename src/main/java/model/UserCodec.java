@@ -0,0 +1,639 @@
+package model;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary format for user data, replacing default Java serialization.
+ *
+ * <p>Layout: a magic number, a format version, a flags byte and the sequence number of the
+ * last journal record folded into the file, followed by a string table and the user's albums.
+ * Since version 4 the user data file is a manifest: it lists the {@link SegmentStore segments}
+ * holding the pages of the user's {@link PhotoCatalog}, and for each album a summary and the
+ * catalog ids of its photos, stored as zigzag varint deltas. A page has a magic number of its
+ * own, followed by a string table and the photos with their slot on the page. Version 3 stored
+ * each album's photos in a segment of its own instead. A version 4 manifest may end with the
+ * segment holding the user's {@link CaptionIndex}; files without it are read as having none.
+ * Every string (user and album names, captions, tag names and values, photo directories and
+ * file names) is stored once in the table and referenced by index, so repeated tag names and
+ * shared path prefixes cost a single varint each. Dates are stored
+ * as zigzag varints of epoch milliseconds.</p>
+ *
+ * <p>Album headers and photos are length-prefixed records. Newer versions of the format may
+ * append fields to a record; older readers skip what they do not understand, and newer readers
+ * fill in defaults for fields missing from older files. The version is only raised for changes
+ * that older readers cannot skip.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class UserCodec {
+    static final int VERSION = 4;
+    private static final byte[] MAGIC = {'P', '0', '5', 'U'};
+    private static final byte[] SEGMENT_MAGIC = {'P', '0', '5', 'S'};
+    private static final int SEGMENT_VERSION = 1;
+    private static final byte[] PAGE_MAGIC = {'P', '0', '5', 'P'};
+    private static final int PAGE_VERSION = 1;
+
+    /**
+     * Not instantiable.
+     */
+    private UserCodec() {
+    }
+
+    /**
+     * Returns true if the data starts with the magic number of this format.
+     *
+     * @param data the file contents
+     * @return true if the data is in this format
+     */
+    static boolean isEncoded(byte[] data) {
+        return startsWith(data, MAGIC);
+    }
+
+    /**
+     * Encodes a user as a manifest referring to the pages of the user's photo catalog.
+     *
+     * @param user the user to encode
+     * @param journalSeq the sequence number of the last journal record reflected in the user
+     * @param pages the catalog pages, as written by {@link PhotoCatalog#write(List, SegmentStore)}
+     * @param captionSegment the segment holding the user's caption index, or null if none
+     * @return the encoded bytes
+     */
+    static byte[] encode(User user, long journalSeq, List<PhotoCatalog.StoredPage> pages, String captionSegment) {
+        StringTable strings = new StringTable();
+        BinaryOutput body = new BinaryOutput(4096);
+        BinaryOutput record = new BinaryOutput();
+
+        body.writeVarInt(strings.ref(user.getUsername()));
+        body.writeVarInt(user.getCatalog().getNextId());
+        body.writeVarInt(pages.size());
+        for (PhotoCatalog.StoredPage page : pages) {
+            record.reset();
+            record.writeVarInt(strings.ref(page.getSegment()));
+            record.writeVarInt(page.getCount());
+            // The key hashes follow, sorted and delta coded, so readers predating them skip them
+            int[] keyHashes = page.getKeyHashes();
+            record.writeVarInt(keyHashes.length);
+            long previous = Integer.MIN_VALUE;
+            for (int hash : keyHashes) {
+                record.writeVarLong(hash - previous);
+                previous = hash;
+            }
+            writeRecord(body, record);
+        }
+
+        List<Album> albums = user.getAlbums();
+        body.writeVarInt(albums.size());
+        for (Album album : albums) {
+            int[] ids = photoIds(album);
+            record.reset();
+            record.writeVarInt(strings.ref(album.getName()));
+            record.writeVarInt(ids.length);
+            if (ids.length > 0) {
+                record.writeSignedVarLong(toEpochMillis(album.getEarliestDate()));
+                record.writeSignedVarLong(toEpochMillis(album.getLatestDate()));
+            }
+            int previous = 0;
+            for (int id : ids) {
+                record.writeSignedVarLong(id - previous);
+                previous = id;
+            }
+            writeRecord(body, record);
+        }
+        body.writeVarInt(strings.ref(captionSegment));
+
+        BinaryOutput out = new BinaryOutput(body.size() + strings.byteSize() + 16);
+        out.writeBytes(MAGIC, 0, MAGIC.length);
+        out.writeVarInt(VERSION);
+        out.writeByte(0);
+        out.writeVarLong(journalSeq);
+        strings.writeTo(out);
+        out.writeBytes(body);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a user previously written by {@link #encode(User, long, List, String)}.
+     * The catalog pages are read when one of their photos is first needed. Version 3 files,
+     * which stored each album in a segment of its own, and older files, which hold the photos
+     * themselves, are read completely and filed into a new catalog.
+     *
+     * @param data the encoded bytes
+     * @param segments the segments of the user data file
+     * @return the decoded user
+     * @throws IOException if the data is not in this format, is truncated, or uses a newer version
+     */
+    static User decode(byte[] data, SegmentStore segments) throws IOException {
+        BinaryInput in = new BinaryInput(data);
+        int version = readHeader(in);
+        String[] strings = readStringTable(in);
+
+        User user = new User(string(strings, in.readVarInt()));
+        if (version >= 4) {
+            PhotoCatalog catalog = user.getCatalog();
+            catalog.setStore(segments, in.readVarInt());
+            int pageCount = in.readVarInt();
+            for (int i = 0; i < pageCount; i++) {
+                int end = recordEnd(in);
+                String segment = string(strings, in.readVarInt());
+                int count = in.readVarInt();
+                int[] keyHashes = null;
+                if (in.position() < end) {
+                    keyHashes = new int[in.readVarInt()];
+                    long hash = Integer.MIN_VALUE;
+                    for (int k = 0; k < keyHashes.length; k++) {
+                        hash += in.readVarLong();
+                        if (hash > Integer.MAX_VALUE) {
+                            throw new IOException("Key hash out of range: " + hash);
+                        }
+                        keyHashes[k] = (int) hash;
+                    }
+                }
+                in.seek(end);
+                catalog.addStoredPage(segment, count, keyHashes);
+            }
+        }
+
+        int albumCount = in.readVarInt();
+        for (int a = 0; a < albumCount; a++) {
+            int end = recordEnd(in);
+            String name = string(strings, in.readVarInt());
+            if (version >= 4) {
+                int photoCount = in.readVarInt();
+                LocalDateTime earliest = photoCount > 0 ? fromEpochMillis(in.readSignedVarLong()) : null;
+                LocalDateTime latest = photoCount > 0 ? fromEpochMillis(in.readSignedVarLong()) : null;
+                int[] ids = new int[photoCount];
+                long id = 0;
+                for (int p = 0; p < photoCount; p++) {
+                    id += in.readSignedVarLong();
+                    if (id < 1 || id > Integer.MAX_VALUE) {
+                        throw new IOException("Photo id out of range: " + id);
+                    }
+                    ids[p] = (int) id;
+                }
+                in.seek(end);
+                user.addAlbum(new Album(name, ids, earliest, latest));
+                continue;
+            }
+            if (version == 3) {
+                String segmentName = string(strings, in.readVarInt());
+                in.seek(end);
+                user.addAlbum(new Album(name, decodeAlbum(segments.read(segmentName))));
+                continue;
+            }
+            in.seek(end);
+
+            int photoCount = in.readVarInt();
+            List<Photo> photos = new ArrayList<>(photoCount);
+            for (int p = 0; p < photoCount; p++) {
+                photos.add(readPhoto(in, strings));
+            }
+            user.addAlbum(new Album(name, photos));
+        }
+        if (version >= 4 && in.hasRemaining()) {
+            String captionSegment = string(strings, in.readVarInt());
+            if (captionSegment != null) {
+                user.setStoredCaptionIndex(segments, captionSegment);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Encodes a page of the photo catalog as a segment. Each photo is stored with its slot on the page.
+     *
+     * @param slots the photos of the page by slot, null for free slots
+     * @return the encoded bytes
+     */
+    static byte[] encodePage(Photo[] slots) {
+        StringTable strings = new StringTable();
+        BinaryOutput body = new BinaryOutput(4096);
+        BinaryOutput record = new BinaryOutput();
+
+        int count = 0;
+        for (Photo photo : slots) {
+            if (photo != null) {
+                count++;
+            }
+        }
+        body.writeVarInt(count);
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot] != null) {
+                body.writeVarInt(slot);
+                record.reset();
+                writePhoto(record, slots[slot], strings);
+                writeRecord(body, record);
+            }
+        }
+
+        BinaryOutput out = new BinaryOutput(body.size() + strings.byteSize() + 8);
+        out.writeBytes(PAGE_MAGIC, 0, PAGE_MAGIC.length);
+        out.writeVarInt(PAGE_VERSION);
+        strings.writeTo(out);
+        out.writeBytes(body);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a page of the photo catalog written by {@link #encodePage(Photo[])}.
+     *
+     * @param data the encoded bytes
+     * @param pageSize the number of slots on a page
+     * @return the photos of the page by slot, null for free slots
+     * @throws IOException if the data is not a page, is truncated, or uses a newer version
+     */
+    static Photo[] decodePage(byte[] data, int pageSize) throws IOException {
+        if (!startsWith(data, PAGE_MAGIC)) {
+            throw new IOException("Not a catalog page");
+        }
+        BinaryInput in = new BinaryInput(data);
+        in.seek(PAGE_MAGIC.length);
+        int version = in.readVarInt();
+        if (version > PAGE_VERSION) {
+            throw new IOException("Unsupported catalog page version " + version);
+        }
+        String[] strings = readStringTable(in);
+
+        Photo[] slots = new Photo[pageSize];
+        int count = in.readVarInt();
+        for (int p = 0; p < count; p++) {
+            int slot = in.readVarInt();
+            if (slot >= pageSize) {
+                throw new IOException("Page slot out of range: " + slot);
+            }
+            slots[slot] = readPhoto(in, strings);
+        }
+        return slots;
+    }
+
+    /**
+     * Decodes the photos of a version 3 album segment.
+     *
+     * @param data the encoded bytes
+     * @return the photos
+     * @throws IOException if the data is not a segment, is truncated, or uses a newer version
+     */
+    static List<Photo> decodeAlbum(byte[] data) throws IOException {
+        if (!startsWith(data, SEGMENT_MAGIC)) {
+            throw new IOException("Not an album segment");
+        }
+        BinaryInput in = new BinaryInput(data);
+        in.seek(SEGMENT_MAGIC.length);
+        int version = in.readVarInt();
+        if (version > SEGMENT_VERSION) {
+            throw new IOException("Unsupported album segment version " + version);
+        }
+        String[] strings = readStringTable(in);
+
+        int photoCount = in.readVarInt();
+        List<Photo> photos = new ArrayList<>(photoCount);
+        for (int p = 0; p < photoCount; p++) {
+            photos.add(readPhoto(in, strings));
+        }
+        return photos;
+    }
+
+    /**
+     * Returns the names of the segments an encoded user refers to: the catalog pages and the
+     * caption index, or for version 3 files the album segments.
+     *
+     * @param data the encoded bytes
+     * @return the segment names, empty for files older than version 3
+     * @throws IOException if the data is not in this format, is truncated, or uses a newer version
+     */
+    static List<String> readSegmentNames(byte[] data) throws IOException {
+        BinaryInput in = new BinaryInput(data);
+        int version = readHeader(in);
+        List<String> names = new ArrayList<>();
+        if (version < 3) {
+            return names;
+        }
+        String[] strings = readStringTable(in);
+        in.readVarInt(); // username
+        if (version >= 4) {
+            in.readVarInt(); // next photo id
+            int pageCount = in.readVarInt();
+            for (int i = 0; i < pageCount; i++) {
+                int end = recordEnd(in);
+                String segment = string(strings, in.readVarInt());
+                if (segment != null) {
+                    names.add(segment);
+                }
+                in.seek(end);
+            }
+            int albumCount = in.readVarInt();
+            for (int a = 0; a < albumCount; a++) {
+                in.seek(recordEnd(in));
+            }
+            if (in.hasRemaining()) {
+                String captionSegment = string(strings, in.readVarInt());
+                if (captionSegment != null) {
+                    names.add(captionSegment);
+                }
+            }
+            return names;
+        }
+        int albumCount = in.readVarInt();
+        for (int a = 0; a < albumCount; a++) {
+            int end = recordEnd(in);
+            in.readVarInt(); // album name
+            names.add(string(strings, in.readVarInt()));
+            in.seek(end);
+        }
+        return names;
+    }
+
+    /**
+     * Returns the format version of an encoded user.
+     *
+     * @param data the encoded bytes
+     * @return the format version
+     * @throws IOException if the data is not in this format or uses a newer version
+     */
+    static int readVersion(byte[] data) throws IOException {
+        return readHeaderStart(new BinaryInput(data));
+    }
+
+    /**
+     * Returns the sequence number of the last journal record folded into the encoded user.
+     *
+     * @param data the encoded bytes
+     * @return the journal sequence number, 0 if none
+     * @throws IOException if the data is not in this format or uses a newer version
+     */
+    static long readJournalSeq(byte[] data) throws IOException {
+        BinaryInput in = new BinaryInput(data);
+        return readHeaderStart(in) >= 2 ? in.readVarLong() : 0L;
+    }
+
+    /**
+     * Reads and checks the header, up to the journal sequence number.
+     *
+     * @param in the input positioned at the start of the data
+     * @return the format version of the data
+     * @throws IOException if the data is not in this format or uses a newer version
+     */
+    private static int readHeaderStart(BinaryInput in) throws IOException {
+        for (byte b : MAGIC) {
+            if (!in.hasRemaining() || in.readByte() != (b & 0xFF)) {
+                throw new IOException("Not a user data file");
+            }
+        }
+        int version = in.readVarInt();
+        if (version > VERSION) {
+            throw new IOException("Unsupported user data version " + version);
+        }
+        in.readByte(); // flags, reserved
+        return version;
+    }
+
+    /**
+     * Reads and checks the header, skipping the journal sequence number.
+     *
+     * @param in the input positioned at the start of the data
+     * @return the format version of the data
+     * @throws IOException if the data is not in this format or uses a newer version
+     */
+    private static int readHeader(BinaryInput in) throws IOException {
+        int version = readHeaderStart(in);
+        if (version >= 2) {
+            in.readVarLong();
+        }
+        return version;
+    }
+
+    /**
+     * Returns true if the data starts with the given magic number.
+     *
+     * @param data the data
+     * @param magic the magic number
+     * @return true if the data starts with the magic number
+     */
+    private static boolean startsWith(byte[] data, byte[] magic) {
+        if (data.length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (data[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the fields of a photo record.
+     *
+     * @param record the buffer receiving the record
+     * @param photo the photo to write
+     * @param strings the string table
+     */
+    private static void writePhoto(BinaryOutput record, Photo photo, StringTable strings) {
+        String path = photo.getFilePath();
+        int split = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+        record.writeVarInt(strings.ref(path.substring(0, split)));
+        record.writeVarInt(strings.ref(path.substring(split)));
+        record.writeVarInt(strings.ref(photo.getCaption()));
+        record.writeSignedVarLong(toEpochMillis(photo.getLastModifiedDate()));
+        record.writeVarInt(photo.getTags().size());
+        for (Tag tag : photo.getTags()) {
+            record.writeVarInt(strings.ref(tag.getName()));
+            record.writeVarInt(strings.ref(tag.getValue()));
+        }
+        // Appended after the tags, so readers predating the metadata skip it
+        PhotoMetadata metadata = photo.getMetadata();
+        LocalDateTime captured = metadata.getCaptureDate();
+        record.writeVarInt(captured != null ? 1 : 0);
+        if (captured != null) {
+            record.writeSignedVarLong(toEpochMillis(captured));
+        }
+        record.writeVarInt(metadata.getWidth());
+        record.writeVarInt(metadata.getHeight());
+        record.writeVarInt(metadata.getOrientation());
+        record.writeVarInt(photo.hasPerceptualHash() ? 1 : 0);
+        if (photo.hasPerceptualHash()) {
+            record.writeInt((int) (photo.getPerceptualHash() >>> 32));
+            record.writeInt((int) photo.getPerceptualHash());
+        }
+    }
+
+    /**
+     * Reads a photo record, skipping any fields appended by newer versions.
+     *
+     * @param in the input positioned at the record length
+     * @param strings the string table
+     * @return the photo
+     * @throws IOException if the record is malformed
+     */
+    private static Photo readPhoto(BinaryInput in, String[] strings) throws IOException {
+        int end = recordEnd(in);
+        String directory = string(strings, in.readVarInt());
+        String fileName = string(strings, in.readVarInt());
+        String caption = string(strings, in.readVarInt());
+        LocalDateTime modified = fromEpochMillis(in.readSignedVarLong());
+        Photo photo = new Photo(directory + fileName, modified);
+        photo.setCaption(caption);
+        int tagCount = in.readVarInt();
+        for (int t = 0; t < tagCount; t++) {
+            photo.addTag(new Tag(string(strings, in.readVarInt()), string(strings, in.readVarInt())));
+        }
+        if (in.position() < end) {
+            LocalDateTime captured = in.readVarInt() != 0 ? fromEpochMillis(in.readSignedVarLong()) : null;
+            int width = in.readVarInt();
+            int height = in.readVarInt();
+            photo.setMetadata(new PhotoMetadata(captured, width, height, in.readVarInt()));
+        }
+        if (in.position() < end && in.readVarInt() != 0) {
+            long high = in.readInt();
+            photo.setPerceptualHash((high << 32) | (in.readInt() & 0xFFFFFFFFL));
+        }
+        in.seek(end);
+        return photo;
+    }
+
+    /**
+     * Returns the catalog ids of the photos of an album, in album order.
+     *
+     * @param album the album
+     * @return the photo ids
+     */
+    static int[] photoIds(Album album) {
+        if (!album.isLoaded()) {
+            return album.getStoredIds();
+        }
+        List<Photo> photos = album.getPhotos();
+        int[] ids = new int[photos.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = photos.get(i).getId();
+        }
+        return ids;
+    }
+
+    /**
+     * Writes a length-prefixed record.
+     *
+     * @param out the buffer receiving the record
+     * @param record the record contents
+     */
+    private static void writeRecord(BinaryOutput out, BinaryOutput record) {
+        out.writeVarInt(record.size());
+        out.writeBytes(record);
+    }
+
+    /**
+     * Reads a record length and returns the position just past the record.
+     *
+     * @param in the input positioned at the record length
+     * @return the end position of the record
+     * @throws IOException if the length is malformed
+     */
+    private static int recordEnd(BinaryInput in) throws IOException {
+        int length = in.readVarInt();
+        return in.position() + length;
+    }
+
+    /**
+     * Reads the string table.
+     *
+     * @param in the input positioned at the string table
+     * @return the strings, indexed by reference; index 0 is null
+     * @throws IOException if the table is malformed
+     */
+    private static String[] readStringTable(BinaryInput in) throws IOException {
+        int count = in.readVarInt();
+        String[] strings = new String[count + 1];
+        for (int i = 1; i <= count; i++) {
+            strings[i] = in.readString();
+        }
+        return strings;
+    }
+
+    /**
+     * Resolves a string reference.
+     *
+     * @param strings the string table
+     * @param ref the reference
+     * @return the string, or null for reference 0
+     * @throws IOException if the reference is out of range
+     */
+    private static String string(String[] strings, int ref) throws IOException {
+        if (ref >= strings.length) {
+            throw new IOException("String reference out of range: " + ref);
+        }
+        return strings[ref];
+    }
+
+    /**
+     * Converts a date to milliseconds since the epoch, treating it as UTC so the value is zone independent.
+     *
+     * @param date the date
+     * @return the epoch milliseconds
+     */
+    static long toEpochMillis(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC) * 1000L + date.getNano() / 1_000_000;
+    }
+
+    /**
+     * Converts milliseconds since the epoch back to a date, the inverse of {@link #toEpochMillis(LocalDateTime)}.
+     *
+     * @param millis the epoch milliseconds
+     * @return the date
+     */
+    static LocalDateTime fromEpochMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L), (int) Math.floorMod(millis, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    /**
+     * Assigns each distinct string a reference in order of first use.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> refs = new LinkedHashMap<>();
+        private int byteSize;
+
+        /**
+         * Returns the reference for a string, adding it to the table if needed.
+         *
+         * @param value the string, or null
+         * @return the reference; 0 for null
+         */
+        int ref(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer ref = refs.get(value);
+            if (ref == null) {
+                ref = refs.size() + 1;
+                refs.put(value, ref);
+                byteSize += value.length() + 2;
+            }
+            return ref;
+        }
+
+        /**
+         * Returns an estimate of the encoded size of the table.
+         *
+         * @return the estimated size in bytes
+         */
+        int byteSize() {
+            return byteSize;
+        }
+
+        /**
+         * Writes the table in reference order.
+         *
+         * @param out the buffer receiving the table
+         */
+        void writeTo(BinaryOutput out) {
+            out.writeVarInt(refs.size());
+            for (String value : refs.keySet()) {
+                out.writeString(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package model;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Lightweight directory of the users stored in a user data directory.
+ * Each entry records the user's data file, its size and when it was last saved,
+ * so that callers can check whether a user exists without deserializing any library.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+public class UserIndex {
+    private static final String USER_FILE_EXTENSION = ".dat";
+
+    // One shared index per user data directory, so reloading the login view does not rescan
+    private static final Map<String, UserIndex> indexes = new HashMap<>();
+
+    private final File dir;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long scannedStamp = Long.MIN_VALUE;
+
+    /**
+     * Creates an index over the given user data directory.
+     *
+     * @param dir the directory containing user data files
+     */
+    private UserIndex(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the shared index for the given user data directory.
+     *
+     * @param userDir the directory containing user data files
+     * @return the index for the directory
+     */
+    public static synchronized UserIndex forDirectory(String userDir) {
+        File dir = new File(userDir).getAbsoluteFile();
+        return indexes.computeIfAbsent(dir.getPath(), key -> new UserIndex(dir));
+    }
+
+    /**
+     * Records that a user data file has just been written, updating the index of its directory if one exists.
+     *
+     * @param file the user data file that was saved
+     */
+    static void recordSave(File file) {
+        UserIndex index;
+        synchronized (UserIndex.class) {
+            index = indexes.get(file.getAbsoluteFile().getParent());
+        }
+        if (index != null) {
+            index.record(file);
+        }
+    }
+
+    /**
+     * Returns the user name stored in the given data file, or null if the file is not a user data file.
+     *
+     * @param file the file to check
+     * @return the user name, or null
+     */
+    static String usernameOf(File file) {
+        String fileName = file.getName();
+        if (!fileName.endsWith(USER_FILE_EXTENSION) || fileName.length() == USER_FILE_EXTENSION.length()) {
+            return null;
+        }
+        return fileName.substring(0, fileName.length() - USER_FILE_EXTENSION.length());
+    }
+
+    /**
+     * Returns true if a user with the given name has a data file in the directory.
+     *
+     * @param username the user name to look up
+     * @return true if the user exists, false otherwise
+     */
+    public synchronized boolean contains(String username) {
+        refreshIfStale();
+        return entries.containsKey(username);
+    }
+
+    /**
+     * Returns the entry for the given user name.
+     *
+     * @param username the user name to look up
+     * @return the entry, or null if the user does not exist
+     */
+    public synchronized Entry getEntry(String username) {
+        refreshIfStale();
+        return entries.get(username);
+    }
+
+    /**
+     * Returns the names of all users in the directory, in alphabetical order.
+     *
+     * @return the user names
+     */
+    public synchronized Set<String> getUsernames() {
+        refreshIfStale();
+        return Collections.unmodifiableSet(new TreeSet<>(entries.keySet()));
+    }
+
+    /**
+     * Removes a user from the index, typically after the user's data file has been deleted.
+     *
+     * @param username the user name to remove
+     */
+    public synchronized void remove(String username) {
+        entries.remove(username);
+    }
+
+    /**
+     * Adds or updates the entry for a user data file.
+     *
+     * @param file the user data file
+     */
+    private synchronized void record(File file) {
+        String username = usernameOf(file);
+        if (username != null && file.isFile()) {
+            entries.put(username, new Entry(username, file, file.length(), file.lastModified()));
+        }
+    }
+
+    /**
+     * Rescans the directory listing if files were added or removed since the last scan.
+     * Only file attributes are read; no user data is deserialized.
+     */
+    private void refreshIfStale() {
+        long stamp = dir.lastModified();
+        if (stamp == scannedStamp && stamp != 0L) {
+            return;
+        }
+        entries.clear();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                record(file);
+            }
+        }
+        scannedStamp = stamp;
+    }
+
+    /**
+     * Describes one user data file in the index.
+     */
+    public static class Entry {
+        private final String username;
+        private final File file;
+        private final long size;
+        private final long lastSaved;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param username the user name
+         * @param file the user data file
+         * @param size the size of the file in bytes
+         * @param lastSaved the time the file was last written, in milliseconds since the epoch
+         */
+        Entry(String username, File file, long size, long lastSaved) {
+            this.username = username;
+            this.file = file;
+            this.size = size;
+            this.lastSaved = lastSaved;
+        }
+
+        /**
+         * Returns the user name.
+         *
+         * @return the user name
+         */
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Returns the user data file.
+         *
+         * @return the user data file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the size of the user data file.
+         *
+         * @return the size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the time the user data file was last written.
+         *
+         * @return the time in milliseconds since the epoch
+         */
+        public long getLastSaved() {
+            return lastSaved;
+        }
+    }
+}
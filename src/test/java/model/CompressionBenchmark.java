@@ -0,0 +1,114 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the compressions of {@link StorageFile} on a user library: stored size, time to compress,
+ * and the time to load the library from a cold disk of a given throughput.
+ *
+ * <p>Kept with the tests so it is not shipped with the application, and not run by the build. Run it
+ * after {@code mvn test-compile} with
+ * {@code java -cp target/classes:target/test-classes model.CompressionBenchmark [user data file] [disk MB/s]}.
+ * Without a file, or with an empty file name, a generated library of 100 albums of 1000 photos is used. The default throughput of
+ * 40 MB/s stands for a spinning or network disk.</p>
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+final class CompressionBenchmark {
+    private static final int ROUNDS = 10;
+
+    /**
+     * Not instantiable.
+     */
+    private CompressionBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark and prints one line per compression.
+     *
+     * @param args the user data file to measure, and the disk throughput in MB/s
+     * @throws IOException if the user data file cannot be read
+     * @throws ClassNotFoundException if the user data file holds an unknown class
+     */
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        User user = args.length > 0 && !args[0].isEmpty() ? DataManager.loadUser(args[0]) : generatedLibrary();
+        double diskBytesPerMilli = (args.length > 1 ? Double.parseDouble(args[1]) : 40) * 1_000_000 / 1000;
+
+        Set<Photo> library = new LinkedHashSet<>();
+        for (Album album : user.getAlbums()) {
+            library.addAll(album.getPhotos());
+        }
+        List<byte[]> payloads = new ArrayList<>();
+        Photo[] page = new Photo[PhotoCatalog.PAGE_SIZE];
+        int slot = 0;
+        for (Photo photo : library) {
+            page[slot++] = photo;
+            if (slot == page.length) {
+                payloads.add(UserCodec.encodePage(page));
+                page = new Photo[PhotoCatalog.PAGE_SIZE];
+                slot = 0;
+            }
+        }
+        if (slot > 0) {
+            payloads.add(UserCodec.encodePage(page));
+        }
+
+        System.out.printf("%-8s %12s %12s %14s %16s%n", "codec", "bytes", "compress ms", "decompress ms", "cold load ms");
+        for (StorageFile.Compression compression : StorageFile.Compression.values()) {
+            long size = 0;
+            long compressNanos = Long.MAX_VALUE;
+            long decompressNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                List<byte[]> compressed = new ArrayList<>(payloads.size());
+                long start = System.nanoTime();
+                for (byte[] payload : payloads) {
+                    compressed.add(compression.compress(payload));
+                }
+                compressNanos = Math.min(compressNanos, System.nanoTime() - start);
+
+                size = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < payloads.size(); i++) {
+                    byte[] stored = compressed.get(i);
+                    size += stored.length;
+                    UserCodec.decodePage(compression.decompress(stored, 0, stored.length, payloads.get(i).length), PhotoCatalog.PAGE_SIZE);
+                }
+                decompressNanos = Math.min(decompressNanos, System.nanoTime() - start);
+            }
+            double decompressMillis = decompressNanos / 1e6;
+            System.out.printf("%-8s %12d %12.1f %14.1f %16.1f%n", compression, size, compressNanos / 1e6,
+                    decompressMillis, size / diskBytesPerMilli + decompressMillis);
+        }
+    }
+
+    /**
+     * Generates a library with long, repetitive paths and tags, like a real Windows library.
+     *
+     * @return the user
+     */
+    private static User generatedLibrary() {
+        User user = new User("benchmark");
+        LocalDateTime date = LocalDateTime.of(2020, 1, 1, 12, 0);
+        for (int a = 0; a < 100; a++) {
+            Album album = new Album("Album " + a);
+            for (int p = 0; p < 1000; p++) {
+                Photo photo = new Photo("C:" + File.separator + "Users" + File.separator + "someone" + File.separator
+                        + "Pictures" + File.separator + "Trip " + a + File.separator + "IMG_" + (10000 + p) + ".jpg",
+                        date.plusMinutes(a * 1000L + p));
+                photo.setCaption(p % 4 == 0 ? "Day " + p / 50 + " of the trip" : null);
+                photo.addTag(new Tag("location", "City " + a % 7));
+                photo.addTag(new Tag("person", "Person " + p % 5));
+                album.addPhoto(photo);
+            }
+            user.addAlbum(album);
+        }
+        return user;
+    }
+}
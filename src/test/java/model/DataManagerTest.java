@@ -0,0 +1,402 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Saves users with {@link DataManager} and loads them back, checking every stored field survives
+ * the data file, the journal, compaction and recovery from a damaged data file.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+class DataManagerTest {
+    private static final LocalDateTime MODIFIED = LocalDateTime.of(2021, 6, 1, 12, 30, 15);
+    private static final LocalDateTime CAPTURED = LocalDateTime.of(2019, 3, 14, 9, 26, 53);
+
+    @TempDir
+    File dir;
+    private String path;
+
+    @BeforeEach
+    void setUp() {
+        path = new File(dir, "alice.dat").getPath();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        DataManager.deleteUser(path);
+    }
+
+    @Test
+    void dataFileKeepsEveryField() throws Exception {
+        User user = new User("alice");
+        Album trip = new Album("Trip");
+        user.addAlbum(trip);
+        Photo photo = photo("beach.jpg");
+        photo.setMetadata(new PhotoMetadata(CAPTURED, 4000, 3000, 6));
+        photo.setPerceptualHash(0x0123456789ABCDEFL);
+        photo.setCaption("Sunset at the beach");
+        photo.addTag(new Tag("location", "Nice"));
+        photo.addTag(new Tag("person", "Bob"));
+        trip.addPhoto(photo);
+        trip.addPhoto(photo("hotel.jpg"));
+        user.addAlbum(new Album("Empty"));
+
+        DataManager.saveUser(user, path);
+        User loaded = DataManager.loadUser(path);
+
+        assertEquals("alice", loaded.getUsername());
+        assertEquals(List.of("Trip", "Empty"), albumNames(loaded));
+        Album loadedTrip = loaded.getAlbums().get(0);
+        assertEquals(2, loadedTrip.getPhotoCount());
+        Photo loadedPhoto = loadedTrip.getPhotos().get(0);
+        assertEquals(photo.getFilePath(), loadedPhoto.getFilePath());
+        assertEquals(MODIFIED, loadedPhoto.getLastModifiedDate());
+        assertEquals(CAPTURED, loadedPhoto.getCaptureDate());
+        assertEquals(4000, loadedPhoto.getWidth());
+        assertEquals(3000, loadedPhoto.getHeight());
+        assertEquals(6, loadedPhoto.getOrientation());
+        assertTrue(loadedPhoto.hasPerceptualHash());
+        assertEquals(0x0123456789ABCDEFL, loadedPhoto.getPerceptualHash());
+        assertEquals("Sunset at the beach", loadedPhoto.getCaption());
+        assertEquals(List.of(new Tag("location", "Nice"), new Tag("person", "Bob")), loadedPhoto.getTags());
+        assertNull(loadedTrip.getPhotos().get(1).getCaption());
+        assertEquals(0, loaded.getAlbums().get(1).getPhotoCount());
+    }
+
+    @Test
+    void journalKeepsChangesMadeAfterSaving() throws Exception {
+        User user = new User("alice");
+        Album trip = new Album("Trip");
+        user.addAlbum(trip);
+        Photo beach = photo("beach.jpg");
+        trip.addPhoto(beach);
+        trip.addPhoto(photo("hotel.jpg"));
+        user.addAlbum(new Album("Old"));
+        DataManager.saveUser(user, path);
+
+        beach.setCaption("Sunset");
+        beach.addTag(new Tag("location", "Nice"));
+        beach.addTag(new Tag("person", "Bob"));
+        beach.removeTag(new Tag("person", "Bob"));
+        Photo market = photo("market.jpg");
+        market.setMetadata(new PhotoMetadata(CAPTURED, 640, 480, 1));
+        trip.addPhoto(market);
+        trip.removePhoto(trip.getPhotos().get(1));
+        trip.setName("Holiday");
+        user.removeAlbum(user.getAlbums().get(1));
+        Album family = new Album("Family");
+        family.addPhoto(photo("cake.jpg"));
+        family.addPhoto(beach);
+        user.addAlbum(family);
+        DataManager.saveUser(user, path);
+        assertTrue(MutationJournal.activeFile(new File(path)).length() > 0);
+
+        User loaded = DataManager.loadUser(path);
+
+        assertEquals(List.of("Holiday", "Family"), albumNames(loaded));
+        Album holiday = loaded.getAlbums().get(0);
+        assertEquals(List.of("beach.jpg", "market.jpg"), fileNames(holiday.getPhotos()));
+        Photo loadedBeach = holiday.getPhotos().get(0);
+        assertEquals("Sunset", loadedBeach.getCaption());
+        assertEquals(List.of(new Tag("location", "Nice")), loadedBeach.getTags());
+        assertEquals(CAPTURED, holiday.getPhotos().get(1).getCaptureDate());
+        assertEquals(List.of("cake.jpg", "beach.jpg"), fileNames(loaded.getAlbums().get(1).getPhotos()));
+        // A photo in two albums is one photo of the library
+        assertTrue(loaded.getAlbums().get(1).getPhotos().get(1) == loadedBeach);
+    }
+
+    @Test
+    void perceptualHashComputedAfterSavingIsKept() throws Exception {
+        User user = new User("alice");
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        for (int i = 0; i < 20; i++) {
+            album.addPhoto(photo("photo" + i + ".jpg"));
+        }
+        DataManager.saveUser(user, path);
+        album.getPhotos().get(0).setPerceptualHash(0xCAFEL);
+        DataManager.saveUser(user, path);
+
+        Photo reloaded = DataManager.loadUser(path).getAlbums().get(0).getPhotos().get(0);
+        assertTrue(reloaded.hasPerceptualHash());
+        assertEquals(0xCAFEL, reloaded.getPerceptualHash());
+
+        // Once compacted, the hash is in the data file itself
+        album = DataManager.loadUser(path).getAlbums().get(0);
+        captionManyTimes(album);
+        DataManager.saveUser(album.getUser(), path);
+        MutationJournal.awaitCompaction(10_000);
+        File file = new File(path);
+        Photo stored = DataManager.decodeUser(StorageFile.readVerified(file), file).getCatalog().find(reloaded.getFilePath());
+        assertEquals(0xCAFEL, stored.getPerceptualHash());
+    }
+
+    @Test
+    void editedFileDateAndMetadataAreKept() throws Exception {
+        User user = new User("alice");
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        Photo photo = photo("beach.jpg");
+        photo.setPerceptualHash(0xCAFEL);
+        album.addPhoto(photo);
+        DataManager.saveUser(user, path);
+        LocalDateTime edited = MODIFIED.plusDays(3);
+        photo.fileChanged(edited, new PhotoMetadata(CAPTURED, 800, 600, 8));
+        DataManager.saveUser(user, path);
+
+        User loaded = DataManager.loadUser(path);
+
+        Photo reloaded = loaded.getAlbums().get(0).getPhotos().get(0);
+        assertEquals(edited, reloaded.getLastModifiedDate());
+        assertEquals(CAPTURED, reloaded.getCaptureDate());
+        assertEquals(800, reloaded.getWidth());
+        assertEquals(600, reloaded.getHeight());
+        assertEquals(8, reloaded.getOrientation());
+        assertFalse(reloaded.hasPerceptualHash());
+        assertEquals(CAPTURED, loaded.getDateIndex().getEarliestDate(loaded.getAlbums().get(0)));
+        assertEquals(CAPTURED, loaded.getAlbums().get(0).getEarliestDate());
+        assertEquals(CAPTURED, loaded.getAlbums().get(0).getLatestDate());
+    }
+
+    @Test
+    void albumDateRangeFollowsAnEditedFileWhileItsPhotosAreNotRead() throws Exception {
+        User user = new User("alice");
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        LocalDateTime old = LocalDateTime.of(2020, 1, 10, 8, 0);
+        LocalDateTime edited = LocalDateTime.of(2024, 5, 5, 18, 0);
+        Photo first = new Photo(new File(dir, "first.jpg").getPath(), old);
+        album.addPhoto(first);
+        album.addPhoto(new Photo(new File(dir, "second.jpg").getPath(), old.plusDays(1)));
+        DataManager.saveUser(user, path);
+
+        // Find the photo without reading the album, as the watcher does
+        User loaded = DataManager.loadUser(path);
+        Album stored = loaded.getAlbums().get(0);
+        loaded.getCatalog().find(first.getFilePath()).fileChanged(edited, PhotoMetadata.UNKNOWN);
+        assertEquals(old.plusDays(1), stored.getEarliestDate());
+        assertEquals(edited, stored.getLatestDate());
+        DataManager.saveUser(loaded, path);
+
+        // The range stays right through replaying the journal and folding it into the data file
+        User replayed = DataManager.loadUser(path);
+        assertEquals(old.plusDays(1), replayed.getAlbums().get(0).getEarliestDate());
+        assertEquals(edited, replayed.getAlbums().get(0).getLatestDate());
+        captionManyTimes(replayed.getAlbums().get(0));
+        DataManager.saveUser(replayed, path);
+        MutationJournal.awaitCompaction(10_000);
+        File file = new File(path);
+        Album compacted = DataManager.decodeUser(StorageFile.readVerified(file), file).getAlbums().get(0);
+        assertFalse(compacted.isLoaded());
+        assertEquals(old.plusDays(1), compacted.getEarliestDate());
+        assertEquals(edited, compacted.getLatestDate());
+    }
+
+    @Test
+    void compactionFoldsTheJournalIntoTheDataFile() throws Exception {
+        User user = new User("alice");
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        for (int i = 0; i < 20; i++) {
+            album.addPhoto(photo("photo" + i + ".jpg"));
+        }
+        DataManager.saveUser(user, path);
+
+        String lastCaption = captionManyTimes(album);
+        DataManager.saveUser(user, path);
+        MutationJournal.awaitCompaction(10_000);
+
+        File file = new File(path);
+        assertTrue(MutationJournal.previousFile(file).isFile());
+        assertTrue(DataManager.journalSeqOf(StorageFile.readVerified(file)) > 0);
+
+        User loaded = DataManager.loadUser(path);
+        for (Photo photo : loaded.getAlbums().get(0).getPhotos()) {
+            assertEquals(lastCaption, photo.getCaption());
+        }
+    }
+
+    @Test
+    void damagedDataFileIsRecoveredFromThePreviousGeneration() throws Exception {
+        User user = new User("alice");
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        for (int i = 0; i < 20; i++) {
+            album.addPhoto(photo("photo" + i + ".jpg"));
+        }
+        DataManager.saveUser(user, path);
+        String lastCaption = captionManyTimes(album);
+        DataManager.saveUser(user, path);
+        MutationJournal.awaitCompaction(10_000);
+        album.getPhotos().get(0).addTag(new Tag("person", "Bob"));
+        DataManager.saveUser(user, path);
+        DataManager.shutdown();
+
+        File file = new File(path);
+        assertTrue(StorageFile.previousGeneration(file).isFile());
+        try (RandomAccessFile damaged = new RandomAccessFile(file, "rw")) {
+            damaged.seek(damaged.length() / 2);
+            damaged.write(~damaged.read());
+        }
+
+        User loaded = DataManager.loadUser(path);
+
+        assertTrue(new File(path + ".damaged").isFile());
+        Album loadedAlbum = loaded.getAlbums().get(0);
+        assertEquals(20, loadedAlbum.getPhotoCount());
+        for (Photo photo : loadedAlbum.getPhotos()) {
+            assertEquals(lastCaption, photo.getCaption());
+        }
+        assertEquals(List.of(new Tag("person", "Bob")), loadedAlbum.getPhotos().get(0).getTags());
+        // The recovered library was written back in place of the damaged file
+        assertNotNull(DataManager.decodeUser(StorageFile.readVerified(file), file));
+    }
+
+    @Test
+    void indexesAreRebuiltFromTheLoadedLibrary() throws Exception {
+        User user = new User("alice");
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        Photo early = photo("early.jpg");
+        early.setMetadata(new PhotoMetadata(CAPTURED, 0, 0, 1));
+        album.addPhoto(early);
+        album.addPhoto(photo("late.jpg"));
+        DataManager.saveUser(user, path);
+        early.addTag(new Tag("person", "Bob"));
+        DataManager.saveUser(user, path);
+
+        User loaded = DataManager.loadUser(path);
+
+        List<Photo> tagged = loaded.getTagIndex().findAll(List.of(new Tag("person", "Bob")), null);
+        assertEquals(List.of("early.jpg"), fileNames(tagged));
+        DateIndex dates = loaded.getDateIndex();
+        Album loadedAlbum = loaded.getAlbums().get(0);
+        assertEquals(CAPTURED, dates.getEarliestDate(loadedAlbum));
+        assertEquals(MODIFIED, dates.getLatestDate(loadedAlbum));
+        assertEquals(List.of("early.jpg"), fileNames(dates.find(CAPTURED, CAPTURED.plusDays(1), null)));
+    }
+
+    @Test
+    void captionIndexIsStoredAndReadBack() throws Exception {
+        User user = new User("alice");
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        for (int i = 0; i < 20; i++) {
+            Photo photo = photo("photo" + i + ".jpg");
+            photo.setCaption(i % 2 == 0 ? "Sunset at the beach " + i : "Dinner in town " + i);
+            album.addPhoto(photo);
+        }
+        DataManager.saveUser(user, path);
+
+        File file = new File(path);
+        assertTrue(captionSegmentOf(file) != null);
+        User loaded = DataManager.loadUser(path);
+        assertTrue(loaded.hasStoredCaptionIndex());
+        assertEquals(10, loaded.getCaptionIndex().search("beach", null).size());
+
+        // Changes journaled since are applied to the stored index on the next load
+        loaded.getAlbums().get(0).getPhotos().get(1).setCaption("Walk on the beach");
+        DataManager.saveUser(loaded, path);
+        User reloaded = DataManager.loadUser(path);
+        List<Photo> found = reloaded.getCaptionIndex().search("beach", null);
+        assertEquals(11, found.size());
+        assertEquals("photo1.jpg", fileNames(found).get(0));
+
+        // Compaction writes the updated index for the data file to refer to
+        captionManyTimes(reloaded.getAlbums().get(0));
+        DataManager.saveUser(reloaded, path);
+        MutationJournal.awaitCompaction(10_000);
+        DataManager.shutdown();
+        String segment = captionSegmentOf(file);
+        User compacted = DataManager.decodeUser(StorageFile.readVerified(file), file);
+        assertTrue(compacted.hasStoredCaptionIndex());
+        assertEquals(20, compacted.getCaptionIndex().search("threshold", null).size());
+        assertTrue(new SegmentStore(file).exists(segment));
+    }
+
+    @Test
+    void deletingAUserRemovesItsFiles() throws Exception {
+        User user = new User("alice");
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        album.addPhoto(photo("beach.jpg"));
+        DataManager.saveUser(user, path);
+        album.getPhotos().get(0).setCaption("Sunset");
+        DataManager.saveUser(user, path);
+
+        DataManager.deleteUser(path);
+
+        assertFalse(new File(path).exists());
+        assertFalse(MutationJournal.activeFile(new File(path)).exists());
+        assertFalse(SegmentStore.directoryOf(new File(path)).exists());
+    }
+
+    /**
+     * Returns the segment holding the caption index a user data file refers to.
+     *
+     * @param file the user data file
+     * @return the segment name, or null if the file refers to no caption index
+     * @throws IOException if the file cannot be read
+     */
+    private static String captionSegmentOf(File file) throws IOException {
+        SegmentStore segments = new SegmentStore(file);
+        for (String name : UserCodec.readSegmentNames(StorageFile.readVerified(file))) {
+            byte[] data = segments.read(name);
+            if (data.length >= 4 && data[0] == 'P' && data[1] == '0' && data[2] == '5' && data[3] == 'C') {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a photo of a file in the test directory, without reading the file system.
+     *
+     * @param name the file name
+     * @return the photo
+     */
+    private Photo photo(String name) {
+        return new Photo(new File(dir, name).getPath(), MODIFIED);
+    }
+
+    /**
+     * Changes the caption of every photo of an album until the journal is large enough to be compacted.
+     *
+     * @param album the album
+     * @return the last caption set
+     */
+    private static String captionManyTimes(Album album) {
+        String caption = null;
+        for (int round = 0; round < 100; round++) {
+            caption = "Caption written in round " + round + " to grow the journal past its threshold";
+            for (Photo photo : album.getPhotos()) {
+                photo.setCaption(caption);
+            }
+        }
+        return caption;
+    }
+
+    private static List<String> albumNames(User user) {
+        return user.getAlbums().stream().map(Album::getName).toList();
+    }
+
+    private static List<String> fileNames(List<Photo> photos) {
+        return photos.stream().map(photo -> new File(photo.getFilePath()).getName()).toList();
+    }
+}
@@ -0,0 +1,63 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Saves and loads users through a {@link FilePhotoStore}.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+class FilePhotoStoreTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void closingAStoreWritesOnlyItsOwnUsers() throws Exception {
+        FilePhotoStore first = new FilePhotoStore(new File(dir, "first").getPath());
+        FilePhotoStore second = new FilePhotoStore(new File(dir, "second").getPath());
+        Photo alicePhoto = savedUserWithPhoto(first, "alice");
+        Photo bobPhoto = savedUserWithPhoto(second, "bob");
+        File aliceJournal = MutationJournal.activeFile(first.fileOf("alice"));
+        File bobJournal = MutationJournal.activeFile(second.fileOf("bob"));
+
+        alicePhoto.setCaption("Sunset");
+        bobPhoto.setCaption("Sunrise");
+        first.close();
+
+        assertTrue(aliceJournal.length() > 0);
+        assertFalse(bobJournal.exists());
+        assertEquals("Sunset", first.loadUser("alice").getAlbums().get(0).getPhotos().get(0).getCaption());
+
+        second.close();
+        assertTrue(bobJournal.length() > 0);
+        first.deleteUser("alice");
+        second.deleteUser("bob");
+    }
+
+    /**
+     * Saves a new user with one album holding one photo.
+     *
+     * @param store the store to save the user in
+     * @param username the user name
+     * @return the photo, whose changes are journaled from now on
+     * @throws Exception if the user cannot be saved
+     */
+    private Photo savedUserWithPhoto(FilePhotoStore store, String username) throws Exception {
+        User user = new User(username);
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        Photo photo = new Photo(new File(dir, username + ".jpg").getPath(), LocalDateTime.of(2021, 6, 1, 12, 0));
+        album.addPhoto(photo);
+        store.saveUser(user);
+        return photo;
+    }
+}
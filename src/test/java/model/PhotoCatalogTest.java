@@ -0,0 +1,107 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Looks photos up in the {@link PhotoCatalog} of a loaded user, checking only the pages needed are read.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+class PhotoCatalogTest {
+    private static final int PAGES = 3;
+    private static final LocalDateTime MODIFIED = LocalDateTime.of(2021, 6, 1, 12, 30);
+
+    @TempDir
+    File dir;
+    private String path;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        path = new File(dir, "alice.dat").getPath();
+        User user = new User("alice");
+        Album album = new Album("Album");
+        user.addAlbum(album);
+        for (int i = 0; i < PAGES * PhotoCatalog.PAGE_SIZE; i++) {
+            album.addPhoto(photo("photo" + i + ".jpg"));
+        }
+        DataManager.saveUser(user, path);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        DataManager.deleteUser(path);
+    }
+
+    @Test
+    void addingANewPhotoReadsNoPage() throws Exception {
+        User user = DataManager.loadUser(path);
+        PhotoCatalog catalog = user.getCatalog();
+        assertEquals(PAGES, catalog.getUnreadPageCount());
+
+        Album added = new Album("New");
+        user.addAlbum(added);
+        added.addPhoto(photo("new.jpg"));
+        assertNull(catalog.find(new File(dir, "other.jpg").getPath()));
+
+        assertEquals(PAGES, catalog.getUnreadPageCount());
+        assertFalse(user.getAlbums().get(0).isLoaded());
+    }
+
+    @Test
+    void findingAStoredPhotoReadsOnlyItsPage() throws Exception {
+        User user = DataManager.loadUser(path);
+        PhotoCatalog catalog = user.getCatalog();
+
+        String onSecondPage = new File(dir, "photo" + (PhotoCatalog.PAGE_SIZE + 7) + ".jpg").getPath();
+        Photo found = catalog.find(onSecondPage);
+
+        assertNotNull(found);
+        assertEquals(PhotoCatalog.PAGE_SIZE + 8, found.getId());
+        assertEquals(PAGES - 1, catalog.getUnreadPageCount());
+        // Adding the same file again yields the photo already in the library
+        Album added = new Album("New");
+        user.addAlbum(added);
+        added.addPhoto(new Photo(onSecondPage, MODIFIED));
+        assertSame(found, added.getPhotos().get(0));
+        assertEquals(PAGES - 1, catalog.getUnreadPageCount());
+    }
+
+    @Test
+    void newPhotosAreFoundAfterReloading() throws Exception {
+        User user = DataManager.loadUser(path);
+        Album added = new Album("New");
+        user.addAlbum(added);
+        added.addPhoto(photo("new.jpg"));
+        DataManager.saveUser(user, path);
+
+        User reloaded = DataManager.loadUser(path);
+
+        assertEquals(1, reloaded.getAlbums().get(1).getPhotoCount());
+        assertNotNull(reloaded.getCatalog().find(new File(dir, "new.jpg").getPath()));
+        assertFalse(reloaded.getCatalog().hasPagesWithoutKeyHashes());
+    }
+
+    /**
+     * Creates a photo of a file in the test directory, without reading the file system.
+     *
+     * @param name the file name
+     * @return the photo
+     */
+    private Photo photo(String name) {
+        return new Photo(new File(dir, name).getPath(), MODIFIED);
+    }
+}
@@ -0,0 +1,51 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes and reads files with {@link StorageFile}.
+ *
+ * @author Kaileb Cole
+ * @author Maxime Deperrois
+ */
+class StorageFileTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void replacingAFileKeepsTheOldContentsAsThePreviousGeneration() throws Exception {
+        File file = new File(dir, "user.dat");
+        byte[] first = "first generation".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "second generation".getBytes(StandardCharsets.UTF_8);
+        byte[] third = "third generation".getBytes(StandardCharsets.UTF_8);
+
+        StorageFile.writeAtomically(file, first);
+        assertFalse(StorageFile.previousGeneration(file).exists());
+        StorageFile.writeAtomically(file, second);
+        assertArrayEquals(second, StorageFile.readVerified(file));
+        assertArrayEquals(first, StorageFile.readVerified(StorageFile.previousGeneration(file)));
+
+        StorageFile.writeAtomically(file, third);
+        assertArrayEquals(third, StorageFile.readVerified(file));
+        assertArrayEquals(second, StorageFile.readVerified(StorageFile.previousGeneration(file)));
+        assertFalse(new File(dir, "user.dat.tmp").exists());
+        assertFalse(new File(dir, "user.dat.bak.tmp").exists());
+    }
+
+    @Test
+    void everyCompressionReadsBack() throws Exception {
+        byte[] payload = "caption caption caption caption caption".repeat(50).getBytes(StandardCharsets.UTF_8);
+        for (StorageFile.Compression compression : StorageFile.Compression.values()) {
+            File file = new File(dir, compression + ".dat");
+            StorageFile.writeAtomically(file, payload, compression);
+            assertArrayEquals(payload, StorageFile.readVerified(file));
+        }
+    }
+}